@@ -3,14 +3,70 @@
 *  implemented using adjacency lists.
 *************************************************************************/
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
 
 public class AirlineSystem 
 {
   private String [] cityNames = null;
+  private CityDirectory cities = null; // finds cityNames by number, name or name prefix
   private Digraph G = null;
+  private PathTreeCache trees = null; // shortest path trees of G by (source, metric)
+  private SpanningForest forest = null; // minimum spanning forest of G, kept up to date with its routes
   private static Scanner scan = null;
+  private LandmarkRouter router = null; // point-to-point searches on G
+  private HierarchyService hierarchies = null; // contraction hierarchies of G, built on first use
+  private TimetableService timetables = null; // scheduled flights of G, null without a timetable file
+  private final ThreadLocal<SearchScratch> scratch = ThreadLocal.withInitial(() -> new SearchScratch());
+  private final ThreadLocal<SearchScratch> backwardScratch = ThreadLocal.withInitial(() -> new SearchScratch());
+  private final ThreadLocal<ParetoSearch> pareto = ThreadLocal.withInitial(() -> new ParetoSearch());
+  private final ThreadLocal<HopLimitedSearch> hopLimited = ThreadLocal.withInitial(() -> new HopLimitedSearch());
+  private final ThreadLocal<LevelSearch> levelSearch = ThreadLocal.withInitial(() -> new LevelSearch());
+  private final QueryMetrics metrics = new QueryMetrics(); // latency and work of the answered queries
   private static final int INFINITY = Integer.MAX_VALUE;
+  private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+                                                  1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+  private static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+  private static final int BATCH_EVENT_LIMIT = 256; // larger batches report routesReplaced() to listeners
+  private static final long TREE_CACHE_BYTES = 64L << 20;
+  private static final int LANDMARKS = 8;                 // per metric, fewer if they would not fit LANDMARK_BYTES
+  private static final long LANDMARK_BYTES = 256L << 20;
+  private static final int PARETO_LABELS_PER_CITY = 64; // settled labels per city in a Pareto search
+  private static final int PARETO_LABELS = 1 << 18;     // labels created per Pareto search
+  private static final int BLOCK_SHIFT = 8; // vertices per AdjacencyBlock = 2^BLOCK_SHIFT
+  private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  private static final boolean METRICS = Boolean.parseBoolean(System.getProperty("airline.metrics", "true")); // false skips the counting at run time
 
 
   /**
@@ -19,6 +75,12 @@ public class AirlineSystem
   public static void main(String[] args) throws IOException 
   {
     AirlineSystem airline = new AirlineSystem();
+    airline.metrics.publish(); // JMX and -Dairline.metrics.dump in the menu as well as the server
+    if(args.length > 0)
+    {
+      airline.runCommandLine(args);
+      return;
+    }
     scan = new Scanner(System.in);
     while(true)
     {
@@ -52,6 +114,18 @@ public class AirlineSystem
           airline.removeRoute();
           break;
         case 10:
+          airline.applyScheduleChanges();
+          break;
+        case 11:
+          airline.saveSnapshot();
+          break;
+        case 12:
+          airline.paretoRoutes();
+          break;
+        case 13:
+          airline.earliestArrival();
+          break;
+        case 14:
           airline.quit();
           break;
         default:
@@ -73,9 +147,13 @@ public class AirlineSystem
     System.out.println("7. Find trips within price range.");//QUERIE #4
     System.out.println("8. Add a new route to the schedule.");//QUERIE #5
     System.out.println("9. Remove a new route from the schedule.");//QUERIE #6
-    System.out.println("10.Exit.");//QUERIE #7
+    System.out.println("10.Apply a file of schedule changes.");//QUERIE #8
+    System.out.println("11.Save the routes as a binary snapshot file.");//QUERIE #9
+    System.out.println("12.Compare routes by miles, price and hops.");//QUERIE #10
+    System.out.println("13.Find the earliest arrival by the timetable.");//QUERIE #11
+    System.out.println("14.Exit.");//QUERIE #7
     System.out.println("*********************************");
-    System.out.print("Please choose a menu option (1-10): ");
+    System.out.print("Please choose a menu option (1-14): ");
 
     int choice = Integer.parseInt(scan.nextLine());
     return choice;
@@ -85,32 +163,59 @@ public class AirlineSystem
   {
     System.out.println("Please enter graph filename:");
     String fileName = scan.nextLine();
-    Scanner fileScan = new Scanner(new FileInputStream(fileName));
-    int v = Integer.parseInt(fileScan.nextLine());
-    G = new Digraph(v);
+    String report = loadGraph(fileName);
+    System.out.println("Data imported successfully.");
+    System.out.println(report);
+    System.out.print("Please press ENTER to continue ...");
+    scan.nextLine();
+  }//end of readGraph() method
 
-    cityNames = new String[v];
-    for(int i=0; i<v; i++)
+  //reads a route text file or binary snapshot into G and cityNames, returns a timing report
+  private String loadGraph(String fileName) throws IOException
+  {
+    GraphSnapshot snapshot = new GraphSnapshot();
+    if(snapshot.isSnapshot(fileName))
     {
-      cityNames[i] = fileScan.nextLine();
+      snapshot.load(fileName);
+      cityNames = snapshot.cityNames();
+      cities = new CityDirectory(cityNames);
+      G = snapshot.graph();
+      trees = new PathTreeCache(G, TREE_CACHE_BYTES);
+      forest = new SpanningForest(G);
+      router = new LandmarkRouter(G);
+      hierarchies = new HierarchyService(G, fileName);
+      return String.format("Opened snapshot with %d directed routes in %.1f ms.", G.e(), snapshot.millis()) + loadTimetable(fileName);
     }
+    RouteFileLoader loader = new RouteFileLoader(fileName);
+    cityNames = loader.cityNames();
+    cities = new CityDirectory(cityNames);
+    G = loader.graph();
+    trees = new PathTreeCache(G, TREE_CACHE_BYTES);
+    forest = new SpanningForest(G);
+    router = new LandmarkRouter(G);
+    hierarchies = new HierarchyService(G, fileName);
+    return String.format("Loaded %d routes in %.1f ms (%.0f routes/s).", loader.routes(),
+                         loader.millis(), loader.routes() / (loader.millis() / 1000.0)) + loadTimetable(fileName);
+  }//end of loadGraph() method
 
-    while(fileScan.hasNext())
+  //reads the flights of G from fileName.timetable, if there is such a file; returns a report line
+  private String loadTimetable(String fileName)
+  {
+    timetables = null;
+    File file = new File(fileName + ".timetable");
+    if(!file.isFile())
+      return "";
+    try
     {
-      int from = fileScan.nextInt();
-      int to = fileScan.nextInt();
-      int weight = fileScan.nextInt(); // weight (miles) of 'from-to' on graph
-      double cost = fileScan.nextDouble(); // cost of 'from-to' on graph
-      G.addEdge(new WeightedDirectedEdge(from-1, to-1, weight, cost) );
-      G.addEdge(new WeightedDirectedEdge(to-1, from-1, weight, cost) );//makes the graph bi-directional by adding 'complementary' path
-      if(fileScan.hasNextLine())
-        fileScan.nextLine();
+      Timetable timetable = Timetable.read(file.getPath(), cities, G);
+      timetables = new TimetableService(G, timetable);
+      return String.format("%nLoaded %d scheduled flights a day from %s.", timetable.size(), file);
     }
-    fileScan.close();
-    System.out.println("Data imported successfully.");
-    System.out.print("Please press ENTER to continue ...");
-    scan.nextLine();
-  }//end of readGraph() method
+    catch(IOException ex)
+    {
+      return String.format("%nIgnoring %s: %s", file, ex.getMessage());
+    }
+  }//end of loadTimetable() method
 
   //QUERIE #1 --> Show the entire list of direct routes, distances and prices
   private void printGraph() 
@@ -123,15 +228,16 @@ public class AirlineSystem
     } 
     else 
     {
-      for (int i = 0; i < G.v; i++) 
+      try
       {
-        System.out.print(cityNames[i] + ": ");
-        for (WeightedDirectedEdge e : G.adj(i)) 
-        {
-          System.out.print(cityNames[e.to()] + "[miles:" + e.weight() +"|cost:$" +e.cost()+"] ");
-        }//end of enhanced for-loop (inner for loop)
-        System.out.println();
-      }//end of outer for loop
+        ScheduleWriter out = new ScheduleWriter(System.out, OutputFormat.TEXT);
+        out.writeRoutes(G);
+        out.flush();
+      }
+      catch(IOException ex)
+      {
+        System.out.println("Error: " + ex.getMessage());
+      }
       System.out.print("Please press ENTER to continue ...");
       scan.nextLine();
     }//end of if-else block for G == null
@@ -148,7 +254,8 @@ public class AirlineSystem
     }
     else
     {
-      G.kruskals();
+      metrics.start();
+      System.out.print(metrics.stop(QueryType.MST, describeMST()));
       System.out.print("Please press ENTER to continue ...");
       scan.nextLine();
     }
@@ -165,45 +272,10 @@ public class AirlineSystem
       } 
       else 
       {
-        for(int i=0; i<cityNames.length; i++)
-        {
-          System.out.println(i+1 + ": " + cityNames[i]);
-        }
-        System.out.print("Please enter source city (1-" + cityNames.length + "): ");
-        int source = Integer.parseInt(scan.nextLine());
-        System.out.print("Please enter destination city (1-" + cityNames.length + "): ");
-        int destination = Integer.parseInt(scan.nextLine());
-        source--;
-        destination--;
-        G.dijkstras(source, destination);
-        if(!G.marked[destination])
-        {
-          System.out.println("There is no route from " + cityNames[source]
-                              + " to " + cityNames[destination]);
-        } 
-        else 
-        {
-          Stack<Integer> path = new Stack<>();
-          for (int x = destination; x != source; x = G.edgeTo[x])
-          {
-              path.push(x);
-          }
-          System.out.print("The shortest route from " + cityNames[source] +
-                             " to " + cityNames[destination] + " has " +
-                             G.distTo[destination] + " miles: ");
-
-          int prevVertex = source;
-          System.out.print(cityNames[source] + " ");
-          while(!path.empty())
-          {
-            int v = path.pop();
-            System.out.print(G.distTo[v] - G.distTo[prevVertex] + " "
-                             + cityNames[v] + " ");
-            prevVertex = v;
-          }
-          System.out.println();
-
-        }//end of 'inner' if-else block
+        int source = readCity("source");
+        int destination = readCity("destination");
+        metrics.start();
+        System.out.println(metrics.stop(QueryType.MILES, describeShortestDistance(source, destination)));
         System.out.print("Please press ENTER to continue ...");
         scan.nextLine();
       }//end of 'outer' if-else block
@@ -220,46 +292,10 @@ public class AirlineSystem
       } 
       else 
       {
-        for(int i=0; i<cityNames.length; i++)
-        {
-          System.out.println(i+1 + ": " + cityNames[i]);
-        }
-        System.out.print("Please enter source city (1-" + cityNames.length + "): ");
-        int source = Integer.parseInt(scan.nextLine());
-        System.out.print("Please enter destination city (1-" + cityNames.length + "): ");
-        int destination = Integer.parseInt(scan.nextLine());
-        source--;
-        destination--;
-        G.dijkstrasCost(source, destination);
-        if(!G.marked[destination])
-        {
-          System.out.println("There is no route from " + cityNames[source]
-                              + " to " + cityNames[destination]);
-        } 
-        else 
-        {
-          Stack<Integer> path = new Stack<>();
-          for (int x = destination; x != source; x = G.edgeTo[x])
-          {
-              path.push(x);
-          }
-          System.out.print("The cheapest route from " + cityNames[source] +
-                             " to " + cityNames[destination] + " costs $" +
-                             G.costTo[destination] + ": ");
-          
-          int prevVertex = source;
-          System.out.print(cityNames[source]);
-          while(!path.empty())
-          {
-            int v = path.pop();
-            System.out.print("-[$"+ (G.costTo[v] - G.costTo[prevVertex]) + "]"
-                             + "-"+cityNames[v] );
-            prevVertex = v;
-          }
-          
-          System.out.println();
-
-        }//end of 'inner' if-else block
+        int source = readCity("source");
+        int destination = readCity("destination");
+        metrics.start();
+        System.out.println(metrics.stop(QueryType.PRICE, describeShortestCost(source, destination)));
         System.out.print("Please press ENTER to continue ...");
         scan.nextLine();
       }//end of 'outer' if-else block
@@ -275,49 +311,346 @@ public class AirlineSystem
     } 
     else 
     {
-      for(int i=0; i<cityNames.length; i++)
+      int source = readCity("source");
+      int destination = readCity("destination");
+      metrics.start();
+      System.out.println(metrics.stop(QueryType.HOPS, describeShortestHops(source, destination)));
+
+      System.out.print("Please press ENTER to continue ...");
+      scan.nextLine();
+    }//end of if-else 'outer' loop
+  }//end of shortestHops() method
+
+  /* The describe...() methods below build the answer text of a query. They
+     are shared by the menu and the QueryServer and may run on many threads
+     at once. */
+
+  //answer of QUERIE #3a
+  private String describeShortestDistance(int source, int destination)
+  {
+    return describeMiles(source, destination, trees.route(Metric.MILES, source, destination));
+  }//end of describeShortestDistance() method
+
+  private String describeMiles(int source, int destination, Route route)
+  {
+    if(route.isEmpty())
+    {
+      return "There is no route from " + cityNames[source] + " to " + cityNames[destination];
+    } 
+    StringBuilder out = new StringBuilder();
+    out.append("The shortest route from " + cityNames[source] +
+               " to " + cityNames[destination] + " has " +
+               (int) route.total() + " miles: ");
+    out.append(cityNames[source] + " ");
+    for(int i = 1; i < route.stops(); i++)
+    {
+      out.append((int) route.leg(i) + " " + cityNames[route.stop(i)] + " ");
+    }
+    return out.toString();
+  }//end of describeMiles() method
+
+  //answer of QUERIE #3b
+  private String describeShortestCost(int source, int destination)
+  {
+    return describePrice(source, destination, trees.route(Metric.PRICE, source, destination));
+  }//end of describeShortestCost() method
+
+  private String describePrice(int source, int destination, Route route)
+  {
+    if(route.isEmpty())
+    {
+      return "There is no route from " + cityNames[source] + " to " + cityNames[destination];
+    } 
+    StringBuilder out = new StringBuilder();
+    out.append("The cheapest route from " + cityNames[source] +
+               " to " + cityNames[destination] + " costs $" +
+               route.total() + ": ");
+    out.append(cityNames[source]);
+    for(int i = 1; i < route.stops(); i++)
+    {
+      out.append("-[$"+ route.leg(i) + "]" + "-"+cityNames[route.stop(i)] );
+    }
+    return out.toString();
+  }//end of describePrice() method
+
+  //QUERIE #3a or #3b answered by a bidirectional search, with the work it took
+  private String describeLandmarkRoute(int source, int destination, boolean byCost, boolean useLandmarks)
+  {
+    long start = System.nanoTime();
+    Route route = router.route(source, destination, byCost, useLandmarks);
+    double ms = (System.nanoTime() - start) / 1e6;
+    String answer = byCost ? describePrice(source, destination, route) : describeMiles(source, destination, route);
+    return answer + String.format("%n(settled %d of %d cities in %.3f ms)", router.lastSettled(), G.v, ms);
+  }//end of describeLandmarkRoute() method
+
+  //QUERIE #3a or #3b answered by the contraction hierarchy, or by bidirectional ALT while it is (re)built
+  private String describeHierarchyRoute(int source, int destination, boolean byCost)
+  {
+    ContractionHierarchy hierarchy = hierarchies.hierarchy(byCost);
+    if (hierarchy == null)
+      return describeLandmarkRoute(source, destination, byCost, true) + " (hierarchy is being built)";
+    long start = System.nanoTime();
+    Route route = hierarchy.route(source, destination);
+    double ms = (System.nanoTime() - start) / 1e6;
+    String answer = byCost ? describePrice(source, destination, route) : describeMiles(source, destination, route);
+    return answer + String.format("%n(settled %d of %d cities in %.3f ms)", hierarchy.lastSettled(), G.v, ms);
+  }//end of describeHierarchyRoute() method
+
+  //answer of QUERIE #3c
+  private String describeShortestHops(int source, int destination)
+  {
+    Route route = trees.route(Metric.HOPS, source, destination);
+    if(route.isEmpty())
+    {
+      return "There is no route from " + cityNames[source] + " to " + cityNames[destination];
+    } 
+    StringBuilder out = new StringBuilder();
+    out.append("The shortest route from "+cityNames[source]+" to "+cityNames[destination]
+      +" has "+(int) route.total()+" hop(s):");
+    for(int i = 0; i < route.stops(); i++)
+    {
+      out.append(" "+cityNames[route.stop(i)]);
+    }
+    return out.toString();
+  }//end of describeShortestHops() method
+
+  //how many cities 'source' reaches, by the number of hops they take
+  private String describeReach(int source)
+  {
+    LevelSearch search = levelSearch.get();
+    int levels = search.search(router.reverse(), G.v, source, -1, false, true);
+    if(levels == 1)
+      return "No other city can be reached from " + cityNames[source];
+    StringBuilder out = new StringBuilder();
+    int total = 0;
+    for(int k = 1; k < levels; k++)
+    {
+      total += search.levelSize(k);
+      out.append((k > 1 ? ", " : "") + search.levelSize(k) + " in " + k + " hop(s)");
+    }
+    return total + " of the other " + (G.v - 1) + " cities can be reached from " + cityNames[source] + ": " + out;
+  }//end of describeReach() method
+
+  //QUERIE #11 --> the journey by the timetable that arrives first, leaving 'departAfter' minutes after midnight or later
+  private String describeEarliestArrival(int source, int destination, int departAfter)
+  {
+    if(timetables == null)
+      throw new RuntimeException("no timetable is loaded");
+    Timetable timetable = timetables.timetable();
+    int[] journey = timetable.earliestArrival(scratch(timetable.v), source, destination, departAfter);
+    String leaving = "Leaving " + cityNames[source] + " at " + Timetable.clock(departAfter) + " or later";
+    if(journey == null)
+      return leaving + ", no flights take you to " + cityNames[destination] + ".";
+    if(journey.length == 0)
+      return "You are already in " + cityNames[source] + ".";
+    int last = journey.length - 2;
+    StringBuilder out = new StringBuilder(leaving + ", the earliest arrival in " + cityNames[destination] + " is "
+                                          + Timetable.clock(timetable.arrival(journey[last], journey[last + 1]))
+                                          + " with " + journey.length / 2 + " flight(s):");
+    for(int k = 0; k < journey.length; k += 2)
+      out.append(' ').append(cityNames[timetable.from[journey[k]]])
+         .append(' ').append(Timetable.clock(timetable.departure(journey[k], journey[k + 1])))
+         .append('-').append(Timetable.clock(timetable.arrival(journey[k], journey[k + 1])));
+    out.append(' ').append(cityNames[destination]);
+    return out.toString();
+  }//end of describeEarliestArrival() method
+
+  //QUERIE #11 for the whole day: every departure from the source that no later one beats, with its earliest arrival
+  private String describeProfile(int source, int destination)
+  {
+    if(timetables == null)
+      throw new RuntimeException("no timetable is loaded");
+    if(source == destination)
+      return "You are already in " + cityNames[source] + ".";
+    int[] pairs = timetables.timetable().profile(source, destination);
+    StringBuilder out = new StringBuilder(pairs.length / 2 + " departure(s) from " + cityNames[source] + " to "
+                                          + cityNames[destination] + " that no later departure arrives before:");
+    for(int k = 0; k < pairs.length; k += 2)
+    {
+      int minutes = pairs[k + 1] - pairs[k];
+      out.append(String.format("%n  leave %-8s arrive %-8s (%d:%02d)", Timetable.clock(pairs[k]), Timetable.clock(pairs[k + 1]),
+                               minutes / 60, minutes % 60));
+    }
+    return out.toString();
+  }//end of describeProfile() method
+
+  //answer of QUERIE #2, one line per tree edge
+  private String describeMST()
+  {
+    StringWriter text = new StringWriter();
+    try
+    {
+      ScheduleWriter out = new ScheduleWriter(text, OutputFormat.TEXT);
+      out.writeSpanningTree(forest.edges());
+      out.flush();
+    }
+    catch(IOException ex)
+    {
+      throw new UncheckedIOException(ex); // a StringWriter does not throw
+    }
+    return text.toString();
+  }//end of describeMST() method
+
+  //answer of QUERIE #4, one line per trip
+  private String describeTrips(double budget)
+  {
+    return listTrips(G, budget);
+  }//end of describeTrips() method
+
+  //the trips of 'graph' costing 'budget' or less, in the menu layout
+  private String listTrips(Digraph graph, double budget)
+  {
+    StringWriter text = new StringWriter();
+    try
+    {
+      ScheduleWriter out = new ScheduleWriter(text, OutputFormat.TEXT);
+      out.writeTrips(graph, budget, true);
+      out.flush();
+    }
+    catch(IOException ex)
+    {
+      throw new UncheckedIOException(ex); // a StringWriter does not throw
+    }
+    return text.toString();
+  }//end of listTrips() method
+
+  //the number of trips costing 'budget' or less
+  private String describeTripCount(double budget)
+  {
+    TripCount count = findTrips(G, budget, new TripCount(), true);
+    return count.count() + " paths cost $" + budget + " or less";
+  }//end of describeTripCount() method
+
+  //the 'k' cheapest trips costing 'budget' or less, cheapest first
+  private String describeCheapestTrips(double budget, int k)
+  {
+    StringBuilder out = new StringBuilder("The " + k + " cheapest paths costing $" + budget + " or less:\n");
+    for (Trip trip : findTrips(G, budget, new CheapestTrips(k), true).trips())
+      appendTrip(out, trip.stops, trip.stops.length, trip.price);
+    return out.toString();
+  }//end of describeCheapestTrips() method
+
+  //runs the budget search from every city; in parallel each origin fills its own fork of 'sink'
+  //and the forks are joined back in origin order, so the result does not depend on the threads.
+  //Every origin searches the same version of the routes, pinned for the whole run
+  private <T extends TripSink> T findTrips(Digraph graph, double budget, T sink, boolean parallel)
+  {
+    try (GraphVersion routes = graph.pin())
+    {
+      if (!parallel)
       {
-        System.out.println(i+1 + ": " + cityNames[i]);
+        for (int i = 0; i < graph.v; i++)
+          graph.trips(routes, i, budget, sink);
+        return sink;
       }
-      System.out.print("Please enter source city (1-" + cityNames.length + "): ");
-      int source = Integer.parseInt(scan.nextLine());
-      System.out.print("Please enter destination city (1-" + cityNames.length + "): ");
-      int destination = Integer.parseInt(scan.nextLine());
-      source--;
-      destination--;
-      G.bfs(source);
-      if(!G.marked[destination])
+      TripSink[] parts = new TripSink[graph.v];
+      Thread caller = Thread.currentThread();
+      LongAdder settled = new LongAdder(); // work of the pool threads, credited to the caller for QueryMetrics
+      LongAdder relaxed = new LongAdder();
+      IntStream.range(0, graph.v).parallel().forEach(i ->
       {
-        System.out.println("There is no route from " + cityNames[source]
-                            + " to " + cityNames[destination]);
-      } 
-      else 
-      {  
-        Stack<Integer> stack = new Stack<Integer>();
-        stack.push(destination);
-
-        int s = destination;
-        while( s!=source  )
+        parts[i] = sink.fork();
+        SearchScratch s = scratch.get();
+        long settledBefore = s.settledTotal();
+        long relaxedBefore = s.relaxed;
+        graph.trips(routes, i, budget, parts[i]);
+        if (METRICS && Thread.currentThread() != caller)
         {
-          stack.push(G.edgeTo[s]);
-          s = G.edgeTo[s];
+          settled.add(s.settledTotal() - settledBefore);
+          relaxed.add(s.relaxed - relaxedBefore);
         }
+      });
+      for (TripSink part : parts)
+        sink.join(part);
+      if (METRICS)
+      {
+        SearchScratch s = scratch.get();
+        s.settledBefore += settled.sum();
+        s.relaxed += relaxed.sum();
+      }
+      return sink;
+    }
+  }//end of findTrips() method
 
-        System.out.print("The shortest route from "+cityNames[source]+" to "+cityNames[destination]
-          +" has "+G.distTo[destination]+" hop(s):");
-        
-        while(!stack.empty())
-        {
-          Integer p = stack.pop();
-          System.out.print(" "+cityNames[p]);
-        }
-        System.out.println();
-      }//end of if-else 'inner' loop
+  //one line of QUERIE #4: the price, then the cities in travel order
+  private void appendTrip(StringBuilder out, int[] path, int length, double price)
+  {
+    out.append("Price:$").append(price).append(" -- Path:");
+    for (int i = 0; i < length; i++)
+      out.append(' ').append(cityNames[path[i]]);
+    out.append('\n');
+  }//end of appendTrip() method
 
-      System.out.print("Please press ENTER to continue ...");
-      scan.nextLine();
-    }//end of if-else 'outer' loop
-  }//end of shortestHops() method
+  //QUERIE #3a or #3b with alternatives: the 'k' shortest (or cheapest) loopless routes, best first
+  private String describeAlternatives(int source, int destination, boolean byCost, int k)
+  {
+    long start = System.nanoTime();
+    KShortestPaths paths = new KShortestPaths(G, source, destination, byCost, router.landmarks(byCost), false);
+    StringBuilder out = new StringBuilder();
+    int n = 0;
+    while(n < k && paths.hasNext())
+    {
+      Route route = paths.next();
+      out.append(++n + ". ");
+      if(byCost)
+      {
+        out.append("$" + route.total() + ": " + cityNames[source]);
+        for(int i = 1; i < route.stops(); i++)
+          out.append("-[$" + route.leg(i) + "]-" + cityNames[route.stop(i)]);
+      }
+      else
+      {
+        out.append((int) route.total() + " miles: " + cityNames[source]);
+        for(int i = 1; i < route.stops(); i++)
+          out.append(" " + (int) route.leg(i) + " " + cityNames[route.stop(i)]);
+      }
+      out.append('\n');
+    }
+    double ms = (System.nanoTime() - start) / 1e6;
+    if(n == 0)
+      return "There is no route from " + cityNames[source] + " to " + cityNames[destination];
+    return String.format("The %d %s routes from %s to %s:%n", n, byCost ? "cheapest" : "shortest",
+                         cityNames[source], cityNames[destination])
+           + out + String.format("(%d spur searches settled %d cities in %.3f ms)", paths.spurSearches(), paths.settled(), ms);
+  }//end of describeAlternatives() method
+
+  //QUERIE #3b with at most 'maxHops' flights
+  private String describeCheapestWithin(int source, int destination, int maxHops)
+  {
+    Route route = hopLimited.get().cheapest(router.reverse(), G.v, source, destination, maxHops, true);
+    if(route.isEmpty())
+      return "There is no route from " + cityNames[source] + " to " + cityNames[destination] + " with at most " + maxHops + " flight(s)";
+    StringBuilder out = new StringBuilder();
+    out.append("The cheapest route from " + cityNames[source] + " to " + cityNames[destination] + " with at most " + maxHops +
+               " flight(s) costs $" + route.total() + " (" + (route.stops() - 1) + " flight(s)): " + cityNames[source]);
+    for(int i = 1; i < route.stops(); i++)
+      out.append("-[$" + route.leg(i) + "]-" + cityNames[route.stop(i)]);
+    return out.toString();
+  }//end of describeCheapestWithin() method
+
+  //answer of QUERIE #10: the trade-off between shorter and cheaper routes, shortest first
+  private String describeParetoRoutes(int source, int destination, int perCity)
+  {
+    ParetoSearch search = pareto.get();
+    long start = System.nanoTime();
+    List<Itinerary> found = search.search(router.reverse(), G.v, source, destination, perCity, PARETO_LABELS);
+    double ms = (System.nanoTime() - start) / 1e6;
+    if(found.isEmpty())
+      return "There is no route from " + cityNames[source] + " to " + cityNames[destination];
+    StringBuilder out = new StringBuilder();
+    out.append(found.size() + " route(s) from " + cityNames[source] + " to " + cityNames[destination] +
+               " that no other route beats on miles, price and hops:\n");
+    for(Itinerary route : found)
+    {
+      out.append(route.miles() + " miles, $" + route.price() + ", " + route.hops() + " hop(s): " + cityNames[source]);
+      for(int i = 1; i < route.stops(); i++)
+        out.append("-[" + route.mileLeg(i) + " mi $" + route.priceLeg(i) + "]-" + cityNames[route.stop(i)]);
+      out.append('\n');
+    }
+    out.append(String.format("(settled %d of %d labels in %.3f ms%s)", search.settled(), search.created(), ms,
+                             search.truncated() ? "; a label limit was reached, so routes may be missing" : ""));
+    return out.toString();
+  }//end of describeParetoRoutes() method
 
   //QUERIE #4 --> Given a dollar amount entered by the user, print out all trips whose cost is less than or equal to that amount
   private void superSaver()
@@ -333,11 +666,18 @@ public class AirlineSystem
       System.out.print("What is the maximum price you are willing to pay for a flight?:");
       double budget = Double.parseDouble(scan.nextLine());
 
-      System.out.println("List of paths costing $"+budget+" or less:");
-      for (int i = 0; i < G.v; i++) 
+      metrics.start();
+      try
+      {
+        ScheduleWriter out = new ScheduleWriter(System.out, OutputFormat.TEXT);
+        out.writeTrips(G, budget, true);
+        out.flush();
+      }
+      catch(IOException ex)
       {
-         G.dfs(i, budget);
-      }//end vertices for-loop
+        System.out.println("Error: " + ex.getMessage());
+      }
+      metrics.stop(QueryType.TRIPS, null);
 
       System.out.print("Please press ENTER to continue ...");
       scan.nextLine();
@@ -355,23 +695,15 @@ public class AirlineSystem
     } 
     else
     {
-      for(int i=0; i<cityNames.length; i++)
-      {
-         System.out.println(i+1 + ": " + cityNames[i]);
-      }
-
       boolean isUpdate = false; //checks if vertex to add is already in chart
       
-      System.out.print("Please enter source city (1-" + cityNames.length + "): ");
-      int from = Integer.parseInt(scan.nextLine());
-
-      System.out.print("Please enter destination city (1-" + cityNames.length + "): ");
-      int to = Integer.parseInt(scan.nextLine());
+      int from = readCity("source");
+      int to = readCity("destination");
 
       //if edge is already in graph --> alert user and ask if they would still like to update the edge values
-      if(G.containsEdge(new WeightedDirectedEdge(from-1, to-1, 0, 0)) )
+      if(G.containsEdge(new WeightedDirectedEdge(from, to, 0, 0)) )
       {
-        System.out.println("Edge "+cityNames[from-1]+"-"+cityNames[to-1]+" is already in the graph.");
+        System.out.println("Edge "+cityNames[from]+"-"+cityNames[to]+" is already in the graph.");
         System.out.print("Would you still like to update the values of the edge? (y/n):");
         char response = scan.nextLine().toLowerCase().charAt(0);
         if(response!='y')
@@ -391,24 +723,26 @@ public class AirlineSystem
       int cost = Integer.parseInt(scan.nextLine());
 
 
-      if(!isUpdate)
+      metrics.start();
+      boolean update = isUpdate;
+      G.edit(() -> //both directions reach queries in one version of the routes
       {
-        G.addEdge(new WeightedDirectedEdge(from-1, to-1, weight, cost) );
-        G.addEdge(new WeightedDirectedEdge(to-1, from-1, weight, cost) );//makes the graph bi-directional by adding 'complementary' path
-      }
-      else 
-      {
-        //if edge is already in the graph --> update it with the new values of user input
-        WeightedDirectedEdge temp1 = G.findEdge( new WeightedDirectedEdge(from-1, to-1,0,0) );
-        WeightedDirectedEdge temp2 = G.findEdge( new WeightedDirectedEdge(to-1, from-1,0,0) );
-        G.removeEdge(temp1);
-        G.removeEdge(temp2);
-        G.addEdge(new WeightedDirectedEdge(from-1, to-1, weight, cost) );
-        G.addEdge(new WeightedDirectedEdge(to-1, from-1, weight, cost) );//makes the graph bi-directional by adding 'complementary' path
- 
-      }
+        if(!update)
+        {
+          G.addEdge(new WeightedDirectedEdge(from, to, weight, cost) );
+          G.addEdge(new WeightedDirectedEdge(to, from, weight, cost) );//makes the graph bi-directional by adding 'complementary' path
+        }
+        else 
+        {
+          //if edge is already in the graph --> update it in place with the new values of user input
+          G.updateEdge(new WeightedDirectedEdge(from, to, weight, cost) );
+          if(!G.updateEdge(new WeightedDirectedEdge(to, from, weight, cost)) )
+            G.addEdge(new WeightedDirectedEdge(to, from, weight, cost) );//makes the graph bi-directional by adding 'complementary' path
+        }
+      });
+      metrics.stop(QueryType.ADD_ROUTE, null);
       
-      System.out.println("Added edge "+cityNames[from-1]+"-"+cityNames[to-1]+" to graph.");
+      System.out.println("Added edge "+cityNames[from]+"-"+cityNames[to]+" to graph.");
       System.out.print("Please press ENTER to continue ...");
       scan.nextLine();
         
@@ -427,29 +761,21 @@ public class AirlineSystem
     } 
     else
     {
-      for(int i=0; i<cityNames.length; i++)
-      {
-         System.out.println(i+1 + ": " + cityNames[i]);
-      }
-
       int from;
       int to;
       while(true)
       {
-        System.out.print("Please enter source city (1-" + cityNames.length + "): ");
-        from = Integer.parseInt(scan.nextLine());
+        from = readCity("source");
+        to = readCity("destination");
 
-        System.out.print("Please enter destination city (1-" + cityNames.length + "): ");
-        to = Integer.parseInt(scan.nextLine());
-
-        if( G.containsEdge(new WeightedDirectedEdge(from-1, to-1, 0, 0)) )
+        if( G.containsEdge(new WeightedDirectedEdge(from, to, 0, 0)) )
         {
           break;
         }
         //reject input if it is not an edge in the graph and ask user if they want to try a different input
         else
         {
-          System.out.println("Edge "+cityNames[from-1]+"-"+cityNames[to-1]+" is not in the graph.");
+          System.out.println("Edge "+cityNames[from]+"-"+cityNames[to]+" is not in the graph.");
           System.out.print("Would you like to try another edge? (y/n):");
           char response = scan.nextLine().toLowerCase().charAt(0);
           //exit if user does not input yes
@@ -460,17 +786,53 @@ public class AirlineSystem
       }//end of while loop
       
 
-      WeightedDirectedEdge temp1 = G.findEdge( new WeightedDirectedEdge(from-1, to-1,0,0) );
-      WeightedDirectedEdge temp2 = G.findEdge( new WeightedDirectedEdge(to-1, from-1,0,0) );
-      G.removeEdge(temp1);
-      G.removeEdge(temp2);
+      metrics.start();
+      WeightedDirectedEdge route = new WeightedDirectedEdge(from, to, 0, 0);
+      WeightedDirectedEdge back = new WeightedDirectedEdge(to, from, 0, 0);
+      G.edit(() -> //both directions leave in one version of the routes
+      {
+        G.removeEdge(route);
+        G.removeEdge(back);
+      });
+      metrics.stop(QueryType.REMOVE_ROUTE, null);
      
-      System.out.println("Removed edge "+cityNames[from-1]+"-"+cityNames[to-1]+" from graph.");
+      System.out.println("Removed edge "+cityNames[from]+"-"+cityNames[to]+" from graph.");
       System.out.print("Please press ENTER to continue ...");
       scan.nextLine();
     }//end of 'outer' if else statement
   }//end of removeRoute() method
 
+  //QUERIE #8 --> Apply a whole file of route additions, updates and removals at once
+  private void applyScheduleChanges() throws IOException
+  {
+    if(G == null)
+    {
+      System.out.println("Please import a graph first (option 1).");
+      System.out.print("Please press ENTER to continue ...");
+      scan.nextLine();
+    } 
+    else
+    {
+      System.out.println("Please enter schedule changes filename:");
+      String fileName = scan.nextLine();
+      long start = System.nanoTime();
+      RouteBatch batch = RouteBatch.read(fileName);
+      List<String> errors = G.applyBatch(batch);
+      if(!errors.isEmpty())
+      {
+        System.out.println("No changes applied, the file has " + errors.size() + " error(s):");
+        for(int i = 0; i < errors.size() && i < 10; i++)
+          System.out.println("  " + errors.get(i));
+      }
+      else
+      {
+        System.out.printf("Applied %d change(s) in %.1f ms.%n", batch.size(), (System.nanoTime() - start) / 1e6);
+      }
+      System.out.print("Please press ENTER to continue ...");
+      scan.nextLine();
+    }
+  }//end of applyScheduleChanges() method
+
   //QUERIE #7 --> Quit the program
   private void quit()
   {
@@ -478,324 +840,8235 @@ public class AirlineSystem
     System.exit(0);
   }
 
-  
-
-  /**
-  *  The <tt>Digraph</tt> class represents an directed graph of vertices
-  *  named 0 through v-1. It supports the following operations: add an edge to
-  *  the graph, iterate over all of edges leaving a vertex.Self-loops are
-  *  permitted.
-  */
-  private class Digraph
+  //QUERIE #9 --> Save the current routes so the next start can skip parsing the text file
+  private void saveSnapshot() throws IOException
   {
-    private final int v; // number of verticies 
-    private int e; // number of edges
-    private LinkedList<WeightedDirectedEdge>[] adj;
-    private boolean[] marked;  // marked[v] = is there an s-v path
-    private int[] edgeTo;      // edgeTo[v] = previous edge on shortest s-v path
-    private int[] distTo;      // distTo[v] = number of edges shortest s-v path
-    private double[] costTo;
-
-
-    /**
-    * Create an empty digraph with v vertices.
-    */
-    public Digraph(int v) 
+    if(G == null)
     {
-      if (v < 0) throw new RuntimeException("Number of vertices must be nonnegative");
-      this.v = v;
-      this.e = 0;
-      @SuppressWarnings("unchecked")
-      LinkedList<WeightedDirectedEdge>[] temp =
-      (LinkedList<WeightedDirectedEdge>[]) new LinkedList[v];
-      adj = temp;
-      for (int i = 0; i < v; i++)
-        adj[i] = new LinkedList<WeightedDirectedEdge>();
+      System.out.println("Please import a graph first (option 1).");
+    } 
+    else
+    {
+      System.out.println("Please enter snapshot filename:");
+      String fileName = scan.nextLine();
+      long start = System.nanoTime();
+      new GraphSnapshot().save(fileName, cityNames, G);
+      System.out.printf("Saved %d directed routes to %s in %.1f ms.%n", G.e(), fileName, (System.nanoTime() - start) / 1e6);
     }
+    System.out.print("Please press ENTER to continue ...");
+    scan.nextLine();
+  }//end of saveSnapshot() method
 
-    /**
-    * Add the edge e to this digraph.
-    */
-    public void addEdge(WeightedDirectedEdge edge) 
+  //QUERIE #10 --> Every route from the source to the destination that no other route beats on miles, price and hops
+  private void paretoRoutes()
+  {
+    if(G == null)
     {
-      int from = edge.from();
-      adj[from].add(edge);
-      e++;
+      System.out.println("Please import a graph first (option 1).");
     }
-
-    public void removeEdge(WeightedDirectedEdge edge) 
+    else
     {
-      int from = edge.from();
-      adj[from].remove(edge);
-      e--;
+      int source = readCity("source");
+      int destination = readCity("destination");
+      metrics.start();
+      System.out.println(metrics.stop(QueryType.PARETO, describeParetoRoutes(source, destination, PARETO_LABELS_PER_CITY)));
     }
+    System.out.print("Please press ENTER to continue ...");
+    scan.nextLine();
+  }//end of paretoRoutes() method
 
-    //returns true if edge is in graph
-    public boolean containsEdge(WeightedDirectedEdge edge)
+  //QUERIE #11 --> the earliest arrival by the timetable, or the best departures of the whole day
+  private void earliestArrival()
+  {
+    if(G == null)
+    {
+      System.out.println("Please import a graph first (option 1).");
+    }
+    else if(timetables == null)
     {
-      return findEdge(edge) != null;
+      System.out.println("There is no timetable; put the flights in a file named after the route file plus '.timetable'.");
     }
-
-    public WeightedDirectedEdge findEdge(WeightedDirectedEdge edge)
+    else
     {
-      for(int i = 0; i < v; i++)
+      int source = readCity("source");
+      int destination = readCity("destination");
+      while(true)
       {
-        for (WeightedDirectedEdge w : adj(i))
+        System.out.print("Please enter the earliest departure time (HH:MM, or ENTER for the whole day): ");
+        String time = scan.nextLine().trim();
+        try
+        {
+          metrics.start();
+          if(time.isEmpty())
+            System.out.println(metrics.stop(QueryType.PROFILE, describeProfile(source, destination)));
+          else
+            System.out.println(metrics.stop(QueryType.ARRIVE, describeEarliestArrival(source, destination, Timetable.parseClock(time))));
+          break;
+        }
+        catch(IllegalArgumentException ex)
         {
-          if(w.from() == edge.from() && w.to() == edge.to())
-            return w;
+          System.out.println("Sorry, " + ex.getMessage() + ".");
         }
-      }//end of for loop
-
-      return null;
-    }//end of findEdge() method
-
-
-    /**
-    * Return the edges leaving vertex v as an Iterable.
-    * To iterate over the edges leaving vertex v, use foreach notation:
-    * <tt>for (WeightedDirectedEdge e : graph.adj(v))</tt>.
-    */
-    public Iterable<WeightedDirectedEdge> adj(int v) 
-    {
-      return adj[v];
+      }
     }
+    System.out.print("Please press ENTER to continue ...");
+    scan.nextLine();
+  }//end of earliestArrival() method
 
-
-    //breadth first search -->  used for shortestHops() method in QUERIE 3c
-    public void bfs(int source) 
+  //asks for a city by number, name or the start of a name until the answer means exactly one;
+  //an ambiguous prefix is answered with its first few matches instead of the whole city list
+  private int readCity(String role)
+  {
+    while(true)
     {
-      marked = new boolean[this.v];
-      distTo = new int[this.e];
-      edgeTo = new int[this.v];
-
-      Queue<Integer> q = new LinkedList<Integer>();
-      for (int i = 0; i < v; i++)
+      System.out.print("Please enter " + role + " city (name, start of a name, or 1-" + cityNames.length + "): ");
+      try
       {
-        distTo[i] = INFINITY;
-        marked[i] = false;
+        return cities.resolve(scan.nextLine());
       }
-      distTo[source] = 0;
-      marked[source] = true;
-      q.add(source);
-
-      while (!q.isEmpty()) 
+      catch(IllegalArgumentException ex)
       {
-        int v = q.remove();
-        for (WeightedDirectedEdge w : adj(v)) 
-        {
-          if (!marked[w.to()]) 
-          {
-            edgeTo[w.to()] = v;
-            distTo[w.to()] = distTo[v] + 1;
-            marked[w.to()] = true;
-            q.add(w.to());
-          }//end of if statement
-        }//end of enhanced for loop
-      }//end of while() loop
-    }//end of bfs() method
+        System.out.println("Sorry, " + ex.getMessage() + ".");
+      }
+    }
+  }//end of readCity() method
 
+  //the calling thread's search buffers, big enough for a graph with v vertices
+  private SearchScratch scratch(int v)
+  {
+    SearchScratch s = scratch.get();
+    s.begin(v);
+    return s;
+  }
+
+  //the calling thread's second scratch, for the backward half of a bidirectional search
+  private SearchScratch backwardScratch(int v)
+  {
+    SearchScratch s = backwardScratch.get();
+    s.begin(v);
+    return s;
+  }
+
+  //packs a (from,to) pair into one primitive key for the RouteIndex
+  private static long routeKey(int from, int to)
+  {
+    return ((long) from << 32) | (to & 0xffffffffL);
+  }
+
+  //CRC32 of every route, to tell whether a saved structure was built from the same routes
+  private static long routeFingerprint(AdjacencyBlock[] blocks, int v)
+  {
+    CRC32 crc = new CRC32();
+    ByteBuffer bytes = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    bytes.putInt(v);
+    for (AdjacencyBlock block : blocks)
+    {
+      for (int i = 0; i < block.offsets.length + block.size(); i++)
+      {
+        if (bytes.remaining() < 16)
+        {
+          crc.update(bytes.array(), 0, bytes.position());
+          bytes.clear();
+        }
+        if (i < block.offsets.length)
+          bytes.putInt(block.offsets[i]);
+        else
+        {
+          int at = i - block.offsets.length;
+          bytes.putInt(block.targets[at]).putInt(block.miles[at]).putDouble(block.cost[at]);
+        }
+      }
+    }
+    crc.update(bytes.array(), 0, bytes.position());
+    return crc.getValue();
+  }
+
+  //non-interactive entry points, selected by the first command line argument
+  private void runCommandLine(String[] args)
+  {
+    try
+    {
+      if(args[0].equals("-bench"))
+      {
+        new Benchmark().run(Arrays.copyOfRange(args, 1, args.length));
+      }
+      else if(args[0].equals("-serve") && args.length >= 3 && args.length <= 5)
+      {
+        System.out.println(loadGraph(args[1]));
+        QueryServer server = new QueryServer(args.length >= 4 ? Integer.parseInt(args[3]) : DEFAULT_THREADS);
+        if(args.length == 5)
+          server.fares = new DistanceTable(args[4]);
+        server.serve(Integer.parseInt(args[2]));
+      }
+      else if(args[0].equals("-allpairs") && (args.length == 3 || args.length == 4))
+      {
+        System.out.println(loadGraph(args[1]));
+        int threads = (args.length == 4) ? Integer.parseInt(args[3]) : DEFAULT_THREADS;
+        long start = System.nanoTime();
+        DistanceTable table = new DistanceTable(G, threads);
+        table.save(args[2]);
+        System.out.printf("Saved all-pairs table for %d cities to %s in %.1f s.%n", G.v, args[2], (System.nanoTime() - start) / 1e9);
+      }
+      else if(args[0].equals("-batch") && (args.length == 2 || args.length == 3))
+      {
+        System.err.println(loadGraph(args[1]));
+        QueryServer server = new QueryServer(args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_THREADS);
+        server.runBatch(System.in, System.out);
+      }
+      else if(args[0].equals("-export") && args.length == 5)
+      {
+        //routes, mst or trips:budget --> a file, or standard output for '-'
+        loadGraph(args[1]);
+        OutputFormat format = OutputFormat.valueOf(args[3].toUpperCase());
+        OutputStream stream = args[4].equals("-") ? System.out : new FileOutputStream(args[4]);
+        ScheduleWriter out = new ScheduleWriter(stream, format);
+        if(args[2].equals("routes"))
+          out.writeRoutes(G);
+        else if(args[2].equals("mst"))
+          out.writeSpanningTree(forest.edges());
+        else if(args[2].startsWith("trips:"))
+          out.writeTrips(G, Double.parseDouble(args[2].substring(6)), false);
+        else
+          System.err.println("Unknown export: " + args[2] + ", expected routes, mst or trips:budget");
+        if(stream == System.out)
+          out.flush();
+        else
+          out.close();
+      }
+      else if(args[0].equals("-contract") && (args.length == 2 || args.length == 3))
+      {
+        //route file --> routes.txt.miles.ch and routes.txt.price.ch, reused by -serve and -batch
+        System.out.println(loadGraph(args[1]));
+        int threads = (args.length == 3) ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+        for(boolean byCost : new boolean[] {false, true})
+        {
+          ContractionHierarchy hierarchy = new ContractionHierarchy(G, byCost, threads);
+          hierarchy.save(hierarchies.fileName(byCost));
+          System.out.printf("%s%nSaved to %s.%n", hierarchy.describe(), hierarchies.fileName(byCost));
+        }
+      }
+      else if(args[0].equals("-generate") && (args.length == 3 || args.length == 4))
+      {
+        //a seeded hub-and-spoke network in the route file format
+        NetworkGenerator generator = new NetworkGenerator(Integer.parseInt(args[1]), args.length == 4 ? Long.parseLong(args[3]) : 1501);
+        generator.write(args[2]);
+        System.out.printf("Wrote %d cities and %d routes to %s.%n", generator.cities(), generator.routes(), args[2]);
+      }
+      else if(args[0].equals("-convert") && args.length == 3)
+      {
+        //route text file --> binary snapshot
+        RouteFileLoader loader = new RouteFileLoader(args[1]);
+        new GraphSnapshot().save(args[2], loader.cityNames(), loader.graph());
+        System.out.printf("Converted %d routes from %s to %s.%n", loader.routes(), args[1], args[2]);
+      }
+      else
+      {
+        System.out.println("Usage: java AirlineSystem -bench dijkstra|csr|batch|load|snapshot|allpairs|budget|mst|kruskal|render|p2p|ch|pareto|kpaths|hopfare|bfs|csa [sizes ...]");
+        System.out.println("       java AirlineSystem -bench suite [cities ...] [-seed n] [-warmup n] [-measure n] [-tolerance x] [-baseline file] [-save file]");
+        System.out.println("       java AirlineSystem -generate cities routes.txt [seed]");
+        System.out.println("       java AirlineSystem -convert routes.txt snapshot.bin");
+        System.out.println("       java AirlineSystem -contract routes.txt [threads]");
+        System.out.println("       java AirlineSystem -export routes.txt routes|mst|trips:budget text|csv|json out.txt|-");
+        System.out.println("       java AirlineSystem -serve routes.txt port [threads [allpairs.bin]]");
+        System.out.println("       java AirlineSystem -allpairs routes.txt allpairs.bin [threads]");
+        System.out.println("       java AirlineSystem -batch routes.txt [threads] < queries.txt");
+      }
+    }
+    catch(IOException ex)
+    {
+      System.out.println("Error: " + ex.getMessage());
+    }
+  }//end of runCommandLine() method
+
+
+
+  /**
+  *  The <tt>ScheduleWriter</tt> class renders routes, spanning tree edges
+  *  and budget trips as TEXT (the menu layout), CSV or JSON through one
+  *  64 KB buffered writer. City names are escaped for the format once, up
+  *  front, so every line is written as a few appends without building
+  *  strings. Budget trips are streamed as the search finds them, or, when
+  *  the search runs in parallel, buffered per origin and written in order.
+  */
+  private class ScheduleWriter implements Closeable
+  {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final Writer out;
+    private final OutputFormat format;
+    private final String[] names; // cityNames escaped for the format
+
+    public ScheduleWriter(OutputStream stream, OutputFormat format)
+    {
+      this(new OutputStreamWriter(stream, StandardCharsets.UTF_8), format);
+    }
+
+    public ScheduleWriter(Writer writer, OutputFormat format)
+    {
+      this.out = new BufferedWriter(writer, BUFFER_SIZE);
+      this.format = format;
+      this.names = new String[cityNames.length];
+      for (int i = 0; i < names.length; i++)
+        names[i] = (format == OutputFormat.CSV) ? csv(cityNames[i])
+                 : (format == OutputFormat.JSON) ? json(cityNames[i]) : cityNames[i];
+    }
+
+    //QUERIE #1: every route of the graph, grouped by the city it leaves
+    public void writeRoutes(Digraph graph) throws IOException
+    {
+      AdjacencyBlock[] blocks = graph.blocks();
+      begin("from,to,miles,cost");
+      boolean first = true;
+      for (int x = 0; x < graph.v; x++)
+      {
+        AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+        if (format == OutputFormat.TEXT)
+        {
+          out.write(names[x]);
+          out.write(": ");
+        }
+        for (int i = block.first(x), end = block.end(x); i < end; i++)
+        {
+          int to = block.targets[i];
+          switch (format)
+          {
+            case TEXT:
+              out.write(names[to]);
+              out.write("[miles:");
+              out.write(Integer.toString(block.miles[i]));
+              out.write("|cost:$");
+              out.write(Double.toString(block.cost[i]));
+              out.write("] ");
+              break;
+            case CSV:
+              row(names[x], names[to], Integer.toString(block.miles[i]), Double.toString(block.cost[i]));
+              break;
+            case JSON:
+              object(first, "from", names[x], "to", names[to], "miles", Integer.toString(block.miles[i]), "cost", Double.toString(block.cost[i]));
+              break;
+          }
+          first = false;
+        }
+        if (format == OutputFormat.TEXT)
+          out.write('\n');
+      }
+      end();
+    }
+
+    //QUERIE #2: the edges of a spanning tree
+    public void writeSpanningTree(List<WeightedDirectedEdge> edges) throws IOException
+    {
+      if (format == OutputFormat.TEXT)
+        out.write("The edges in MST graph along with their distances are as follows:\n");
+      begin("from,to,miles");
+      boolean first = true;
+      for (WeightedDirectedEdge w : edges)
+      {
+        switch (format)
+        {
+          case TEXT:
+            out.write(names[w.from()]);
+            out.write('-');
+            out.write(names[w.to()]);
+            out.write(": ");
+            out.write(Integer.toString(w.weight()));
+            out.write('\n');
+            break;
+          case CSV:
+            row(names[w.from()], names[w.to()], Integer.toString(w.weight()));
+            break;
+          case JSON:
+            object(first, "from", names[w.from()], "to", names[w.to()], "miles", Integer.toString(w.weight()));
+            break;
+        }
+        first = false;
+      }
+      end();
+    }
+
+    //QUERIE #4: every trip costing 'budget' or less. A sequential search writes each trip as
+    //it is found; a parallel one buffers the trips of every origin and writes them in origin order
+    public void writeTrips(Digraph graph, double budget, boolean parallel) throws IOException
+    {
+      if (format == OutputFormat.TEXT)
+        out.write("List of paths costing $" + budget + " or less:\n");
+      begin("price,stops,path");
+      try
+      {
+        findTrips(graph, budget, new TripWriter(out, null), parallel);
+      }
+      catch(UncheckedIOException ex)
+      {
+        throw ex.getCause();
+      }
+      end();
+    }
+
+    //the TripSink of writeTrips(); a fork() writes into its own buffer, which join() copies out
+    private final class TripWriter extends TripSink
+    {
+      private final Writer to;
+      private final StringWriter buffer; // null for the sink writing to 'out'
+      private boolean first = true;
+
+      public TripWriter(Writer to, StringWriter buffer)
+      {
+        this.to = to;
+        this.buffer = buffer;
+      }
+
+      public void trip(int[] path, int length, double price)
+      {
+        try
+        {
+          writeTrip(to, first, path, length, price);
+          first = false;
+        }
+        catch(IOException ex)
+        {
+          throw new UncheckedIOException(ex);
+        }
+      }
+
+      public TripSink fork()
+      {
+        StringWriter part = new StringWriter();
+        return new TripWriter(part, part);
+      }
+
+      public void join(TripSink part)
+      {
+        TripWriter trips = (TripWriter) part;
+        if (trips.first)
+          return; // the origin had no trips
+        try
+        {
+          if (format == OutputFormat.JSON && !first)
+            to.write(','); // the part began as the first object of its own list
+          to.append(trips.buffer.getBuffer());
+          first = false;
+        }
+        catch(IOException ex)
+        {
+          throw new UncheckedIOException(ex);
+        }
+      }
+    }//END OF PRIVATE CLASS TripWriter
+
+    private void writeTrip(Writer to, boolean first, int[] path, int length, double price) throws IOException
+    {
+      switch (format)
+      {
+        case TEXT:
+          to.write("Price:$");
+          to.write(Double.toString(price));
+          to.write(" -- Path:");
+          for (int i = 0; i < length; i++)
+          {
+            to.write(' ');
+            to.write(names[path[i]]);
+          }
+          to.write('\n');
+          break;
+        case CSV:
+          to.write(Double.toString(price));
+          to.write(',');
+          to.write(Integer.toString(length - 1));
+          to.write(',');
+          for (int i = 0; i < length; i++)
+          {
+            if (i > 0)
+              to.write(';');
+            to.write(names[path[i]]);
+          }
+          to.write('\n');
+          break;
+        case JSON:
+          to.write(first ? "\n  " : ",\n  ");
+          to.write("{\"price\": ");
+          to.write(Double.toString(price));
+          to.write(", \"path\": [");
+          for (int i = 0; i < length; i++)
+          {
+            if (i > 0)
+              to.write(", ");
+            to.write(names[path[i]]);
+          }
+          to.write("]}");
+          break;
+      }
+    }
+
+    //opens the CSV header or the JSON array
+    private void begin(String header) throws IOException
+    {
+      if (format == OutputFormat.CSV)
+      {
+        out.write(header);
+        out.write('\n');
+      }
+      else if (format == OutputFormat.JSON)
+        out.write('[');
+    }
+
+    private void end() throws IOException
+    {
+      if (format == OutputFormat.JSON)
+        out.write("\n]\n");
+    }
+
+    private void row(String... fields) throws IOException
+    {
+      for (int i = 0; i < fields.length; i++)
+      {
+        if (i > 0)
+          out.write(',');
+        out.write(fields[i]);
+      }
+      out.write('\n');
+    }
+
+    //one JSON object per line; names and values come in pairs and are already encoded
+    private void object(boolean first, String... pairs) throws IOException
+    {
+      out.write(first ? "\n  {" : ",\n  {");
+      for (int i = 0; i < pairs.length; i += 2)
+      {
+        if (i > 0)
+          out.write(", ");
+        out.write('"');
+        out.write(pairs[i]);
+        out.write("\": ");
+        out.write(pairs[i + 1]);
+      }
+      out.write('}');
+    }
+
+    public void flush() throws IOException
+    {
+      out.flush();
+    }
+
+    public void close() throws IOException
+    {
+      out.close();
+    }
+
+  }//END OF PRIVATE CLASS ScheduleWriter
+
+  //quotes a CSV field if it holds a comma, quote, semicolon or line break
+  private static String csv(String field)
+  {
+    for (int i = 0; i < field.length(); i++)
+    {
+      char c = field.charAt(i);
+      if (c == ',' || c == '"' || c == ';' || c == '\n' || c == '\r')
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+    return field;
+  }
+
+  //a JSON string literal
+  private static String json(String text)
+  {
+    StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+    for (int i = 0; i < text.length(); i++)
+    {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\')
+        quoted.append('\\').append(c);
+      else if (c < 0x20)
+        quoted.append(String.format("\\u%04x", (int) c));
+      else
+        quoted.append(c);
+    }
+    return quoted.append('"').toString();
+  }
+
+
+
+  /**
+  *  The <tt>DistanceTable</tt> class holds the miles of the shortest route and
+  *  the price of the cheapest route between every pair of cities. The rows are
+  *  computed in parallel, one single-source search per origin and metric, and
+  *  stored off-heap in tiles of at most 1 GB so tables larger than a Java
+  *  array still fit. A saved table is opened again by mapping the file, so
+  *  the OS pages rows in as they are used. File layout (little endian):
+  *  <pre>
+  *    int magic "AIRM", int version, int v, int 0
+  *    int[v*v] miles (-1 = no route), double[v*v] price (infinity = no route)
+  *    long CRC32 of the two matrices
+  *  </pre>
+  */
+  private class DistanceTable
+  {
+    private static final int MAGIC = 0x4D524941; // "AIRM" once written little endian
+    private static final int VERSION = 1;
+    private static final long TILE_BYTES = 1L << 30;
+    private final int v;
+    private final int rowsPerTile;
+    private final ByteBuffer[] miles; // tile t holds rows t*rowsPerTile and up, 4 bytes per entry
+    private final ByteBuffer[] price; // same rows, 8 bytes per entry
+
+    //computes the table for graph g with 'threads' worker threads
+    public DistanceTable(Digraph g, int threads)
+    {
+      v = g.v;
+      rowsPerTile = rowsPerTile(v);
+      int tiles = (v + rowsPerTile - 1) / Math.max(1, rowsPerTile);
+      miles = new ByteBuffer[tiles];
+      price = new ByteBuffer[tiles];
+      for(int t = 0; t < tiles; t++)
+      {
+        int rows = Math.min(rowsPerTile, v - t * rowsPerTile);
+        miles[t] = ByteBuffer.allocateDirect(rows * v * 4).order(ByteOrder.LITTLE_ENDIAN);
+        price[t] = ByteBuffer.allocateDirect(rows * v * 8).order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try
+      {
+        pool.submit(() -> IntStream.range(0, v).parallel().forEach(source -> fillRow(g, source))).get();
+      }
+      catch(InterruptedException | ExecutionException ex)
+      {
+        throw new RuntimeException("All-pairs computation failed: " + ex.getCause(), ex);
+      }
+      finally
+      {
+        pool.shutdown();
+      }
+    }//end of DistanceTable(g, threads) constructor
+
+    //opens a table saved by save()
+    public DistanceTable(String fileName) throws IOException
+    {
+      FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+      try
+      {
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        while(header.hasRemaining() && channel.read(header) > 0);
+        header.flip();
+        if(header.remaining() < 16 || header.getInt() != MAGIC)
+          throw new IOException(fileName + " is not an all-pairs table");
+        int version = header.getInt();
+        if(version != VERSION)
+          throw new IOException("Table " + fileName + " has version " + version + ", expected " + VERSION);
+        v = header.getInt();
+        rowsPerTile = rowsPerTile(v);
+        if(channel.size() != 16 + 12L * v * v + 8)
+          throw new IOException("Table " + fileName + " is truncated");
+
+        int tiles = (v + rowsPerTile - 1) / Math.max(1, rowsPerTile);
+        miles = new ByteBuffer[tiles];
+        price = new ByteBuffer[tiles];
+        CRC32 crc = new CRC32();
+        long offset = 16;
+        for(int pass = 0; pass < 2; pass++)
+        {
+          ByteBuffer[] matrix = (pass == 0) ? miles : price;
+          int entryBytes = (pass == 0) ? 4 : 8;
+          for(int t = 0; t < tiles; t++)
+          {
+            long bytes = (long) Math.min(rowsPerTile, v - t * rowsPerTile) * v * entryBytes;
+            matrix[t] = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            crc.update(matrix[t].duplicate());
+            offset += bytes;
+          }
+        }
+        ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, offset, 8).order(ByteOrder.LITTLE_ENDIAN);
+        if(trailer.getLong() != crc.getValue())
+          throw new IOException("Table " + fileName + " is corrupt (checksum mismatch)");
+      }
+      finally
+      {
+        channel.close();
+      }
+    }//end of DistanceTable(fileName) constructor
+
+    public int size()
+    {
+      return v;
+    }
+
+    //miles of the shortest route, or INFINITY if there is none
+    public int miles(int from, int to)
+    {
+      int value = miles[from / rowsPerTile].getInt(4 * ((from % rowsPerTile) * v + to));
+      return value < 0 ? INFINITY : value;
+    }
+
+    //price of the cheapest route, or Double.POSITIVE_INFINITY if there is none
+    public double price(int from, int to)
+    {
+      return price[from / rowsPerTile].getDouble(8 * ((from % rowsPerTile) * v + to));
+    }
+
+    public void save(String fileName) throws IOException
+    {
+      FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      try
+      {
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(v).putInt(0).flip();
+        write(channel, header);
+        CRC32 crc = new CRC32();
+        for(ByteBuffer[] matrix : new ByteBuffer[][] {miles, price})
+        {
+          for(ByteBuffer tile : matrix)
+          {
+            crc.update(tile.duplicate().clear());
+            write(channel, tile.duplicate().clear());
+          }
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putLong(crc.getValue()).flip();
+        write(channel, trailer);
+      }
+      finally
+      {
+        channel.close();
+      }
+    }//end of save() method
+
+    //one search per metric from 'source', copied into row 'source' of each matrix
+    private void fillRow(Digraph g, int source)
+    {
+      ByteBuffer milesTile = miles[source / rowsPerTile];
+      ByteBuffer priceTile = price[source / rowsPerTile];
+      int base = (source % rowsPerTile) * v;
+
+      SearchScratch s = g.search(source, -1, false);
+      for(int x = 0; x < v; x++)
+        milesTile.putInt(4 * (base + x), s.isSettled(x) ? (int) s.dist[x] : -1);
+
+      s = g.search(source, -1, true);
+      for(int x = 0; x < v; x++)
+        priceTile.putDouble(8 * (base + x), s.isSettled(x) ? s.dist[x] : Double.POSITIVE_INFINITY);
+    }
+
+    //rows per tile so a price tile (8 bytes per entry) stays within TILE_BYTES
+    private int rowsPerTile(int v)
+    {
+      return (int) Math.max(1, Math.min(v, TILE_BYTES / (8L * Math.max(1, v))));
+    }
+
+    private void write(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+      while(buffer.hasRemaining())
+        channel.write(buffer);
+    }
+
+  }//END OF PRIVATE CLASS DistanceTable
+
+
+
+  /**
+  *  The <tt>QueryServer</tt> class answers queries without the menu, either
+  *  over a local TCP socket (<tt>-serve</tt>) or for a file of queries piped
+  *  through standard input (<tt>-batch</tt>). Requests are one per line, with
+  *  cities numbered from 1 as in the route file:
+  *  <pre>
+  *    DIST from to            shortest route by miles
+  *    COST from to            cheapest route
+  *    DIST|COST from to ALT   the same by bidirectional landmark search, with settled count and latency
+  *    DIST|COST from to BIDI  the same by plain bidirectional search
+  *    DIST|COST from to CH    the same by contraction hierarchy, built in the background on first use
+  *    DIST|COST from to TOP k the k shortest (cheapest) loopless routes, best first
+  *    COST from to HOPS n     the cheapest route with at most n flights
+  *    HOPS from to            fewest hops
+  *    REACH from              the number of cities reachable from 'from', by fewest hops
+  *    PARETO from to [limit]  every route no other beats on miles, price and hops, at most limit labels per city
+  *    BUDGET amount           all trips costing amount or less
+  *    BUDGET amount COUNT     the number of such trips
+  *    BUDGET amount TOP k     the k cheapest of them
+  *    MST                     minimum spanning tree by miles
+  *    FARE from to            miles and price from a precomputed DistanceTable
+  *    ARRIVE from to HH:MM    the earliest arrival by the timetable, leaving at HH:MM or later
+  *    PROFILE from to         every departure of the day with its earliest arrival, if no later one arrives as early
+  *    STATS                   path tree cache, spanning forest and route version counters
+  *    METRICS                 latency percentiles and work per query type
+  *    CITIES prefix           the number of city names starting with prefix and the first few of them
+  *    QUIT                    close the connection
+  *  </pre>
+  *  A city ('from', 'to') is a city number, a name or the unambiguous start
+  *  of a name, in any case.
+  *  Every reply is one or more lines followed by a line holding a single '.'.
+  *  Malformed requests are answered with a line starting with "ERROR".
+  *  Every connection is read on a thread of its own, and its requests are
+  *  answered on the fixed pool of worker threads, so an idle client that
+  *  stays connected holds no worker.
+  */
+  private class QueryServer
+  {
+    private static final int BATCH_CHUNK = 4096; // queries in flight at once in batch mode
+    private final ExecutorService pool;        // answers the requests
+    private final ExecutorService connections; // reads the requests of each connection and writes its replies
+    private DistanceTable fares; // answers FARE, null if no table was given
+
+    public QueryServer(int threads)
+    {
+      pool = Executors.newFixedThreadPool(threads, runnable -> {
+        Thread thread = new Thread(runnable, "query-worker");
+        thread.setDaemon(true);
+        return thread;
+      });
+      connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "query-connection");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    //answers one request line, recording its latency and work; the reply has no trailing newline
+    public String answer(String request)
+    {
+      String[] fields = request.trim().split("\\s+");
+      QueryType type = QueryType.of(fields[0]);
+      if (type == null)
+        return reply(fields);
+      metrics.start();
+      return metrics.stop(type, reply(fields));
+    }//end of answer() method
+
+    private String reply(String[] fields)
+    {
+      try
+      {
+        switch(fields[0].toUpperCase())
+        {
+          case "DIST":
+            if (fields.length == 5 && fields[3].equalsIgnoreCase("TOP"))
+              return describeAlternatives(city(fields[1]), city(fields[2]), false, Integer.parseInt(fields[4]));
+            if (fields.length == 4 && fields[3].equalsIgnoreCase("CH"))
+              return describeHierarchyRoute(city(fields[1]), city(fields[2]), false);
+            if (fields.length == 4 && (fields[3].equalsIgnoreCase("ALT") || fields[3].equalsIgnoreCase("BIDI")))
+              return describeLandmarkRoute(city(fields[1]), city(fields[2]), false, fields[3].equalsIgnoreCase("ALT"));
+            expect(fields, 3);
+            return describeShortestDistance(city(fields[1]), city(fields[2]));
+          case "COST":
+            if (fields.length == 5 && fields[3].equalsIgnoreCase("HOPS"))
+            {
+              int maxHops = Integer.parseInt(fields[4]);
+              if (maxHops < 0)
+                throw new RuntimeException("HOPS takes a number of flights, not " + maxHops);
+              return describeCheapestWithin(city(fields[1]), city(fields[2]), maxHops);
+            }
+            if (fields.length == 5 && fields[3].equalsIgnoreCase("TOP"))
+              return describeAlternatives(city(fields[1]), city(fields[2]), true, Integer.parseInt(fields[4]));
+            if (fields.length == 4 && fields[3].equalsIgnoreCase("CH"))
+              return describeHierarchyRoute(city(fields[1]), city(fields[2]), true);
+            if (fields.length == 4 && (fields[3].equalsIgnoreCase("ALT") || fields[3].equalsIgnoreCase("BIDI")))
+              return describeLandmarkRoute(city(fields[1]), city(fields[2]), true, fields[3].equalsIgnoreCase("ALT"));
+            expect(fields, 3);
+            return describeShortestCost(city(fields[1]), city(fields[2]));
+          case "HOPS":
+            expect(fields, 3);
+            return describeShortestHops(city(fields[1]), city(fields[2]));
+          case "REACH":
+            expect(fields, 2);
+            return describeReach(city(fields[1]));
+          case "PARETO":
+            if (fields.length == 4)
+              return describeParetoRoutes(city(fields[1]), city(fields[2]), Integer.parseInt(fields[3]));
+            expect(fields, 3);
+            return describeParetoRoutes(city(fields[1]), city(fields[2]), PARETO_LABELS_PER_CITY);
+          case "BUDGET":
+            if (fields.length == 3 && fields[2].equalsIgnoreCase("COUNT"))
+              return describeTripCount(Double.parseDouble(fields[1]));
+            if (fields.length == 4 && fields[2].equalsIgnoreCase("TOP"))
+              return describeCheapestTrips(Double.parseDouble(fields[1]), Integer.parseInt(fields[3])).trim();
+            expect(fields, 2);
+            return describeTrips(Double.parseDouble(fields[1])).trim();
+          case "MST":
+            expect(fields, 1);
+            return describeMST().trim();
+          case "FARE":
+            expect(fields, 3);
+            return describeFare(city(fields[1]), city(fields[2]));
+          case "ARRIVE":
+            expect(fields, 4);
+            return describeEarliestArrival(city(fields[1]), city(fields[2]), Timetable.parseClock(fields[3]));
+          case "PROFILE":
+            expect(fields, 3);
+            return describeProfile(city(fields[1]), city(fields[2]));
+          case "STATS":
+            expect(fields, 1);
+            return trees.stats() + "\n" + forest.stats() + "\n" + G.versionStats();
+          case "METRICS":
+            expect(fields, 1);
+            return metrics.table();
+          case "CITIES":
+            expect(fields, 2);
+            int matches = cities.count(fields[1]);
+            return matches + " city name(s) start with '" + fields[1] + "'" + (matches == 0 ? "" : ": " + cities.suggest(fields[1]));
+          default:
+            return "ERROR unknown query '" + fields[0] + "', expected DIST, COST, HOPS, REACH, PARETO, BUDGET, MST, FARE, ARRIVE, PROFILE, STATS, METRICS, CITIES or QUIT";
+        }
+      }
+      catch(RuntimeException ex)
+      {
+        return "ERROR " + ex.getMessage();
+      }
+    }//end of reply() method
+
+    //accepts connections on the loopback interface until the process is stopped
+    public void serve(int port) throws IOException
+    {
+      ServerSocket listener = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+      System.out.println("Answering queries on " + listener.getLocalSocketAddress() + " with "
+                         + ((ThreadPoolExecutor) pool).getCorePoolSize() + " worker thread(s).");
+      while(true)
+      {
+        Socket socket = listener.accept();
+        connections.execute(() -> handle(socket));
+      }
+    }//end of serve() method
+
+    //answers the requests of one connection in order; pipelined requests are answered in parallel on the workers
+    private void handle(Socket socket)
+    {
+      try
+      {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+        ArrayList<Future<String>> replies = new ArrayList<Future<String>>();
+        String request;
+        while((request = in.readLine()) != null && !request.trim().equalsIgnoreCase("QUIT"))
+        {
+          if(!request.trim().isEmpty())
+          {
+            final String query = request;
+            replies.add(pool.submit(() -> answer(query)));
+          }
+          if(!in.ready() || replies.size() == BATCH_CHUNK) // the client has no more pipelined requests
+          {
+            write(out, replies);
+            out.flush();
+          }
+        }
+        write(out, replies);
+        out.flush();
+      }
+      catch(IOException ex)
+      {
+        System.err.println("Connection " + socket.getRemoteSocketAddress() + " failed: " + ex.getMessage());
+      }
+      finally
+      {
+        try
+        {
+          socket.close();
+        }
+        catch(IOException ex)
+        {
+          // nothing left to do for this connection
+        }
+      }
+    }//end of handle() method
+
+    //answers every line of 'input' on the worker threads, writing replies in request order
+    public void runBatch(InputStream input, PrintStream output) throws IOException
+    {
+      BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+      Writer out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+      ArrayList<Future<String>> replies = new ArrayList<Future<String>>(BATCH_CHUNK);
+      long start = System.nanoTime();
+      long count = 0;
+      String request;
+      do
+      {
+        request = in.readLine();
+        if(request != null && !request.trim().isEmpty())
+        {
+          final String query = request;
+          replies.add(pool.submit(() -> answer(query)));
+        }
+        if(replies.size() == BATCH_CHUNK || (request == null && !replies.isEmpty()))
+        {
+          count += replies.size();
+          write(out, replies);
+        }
+      } while(request != null);
+      out.flush();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.err.printf("Answered %d queries in %.2f s (%.0f queries/s).%n", count, seconds, count / seconds);
+    }//end of runBatch() method
+
+    private String describeFare(int source, int destination)
+    {
+      if(fares == null || fares.size() != cityNames.length)
+        return "ERROR no all-pairs table for this graph was loaded";
+      if(fares.miles(source, destination) == INFINITY)
+        return "There is no route from " + cityNames[source] + " to " + cityNames[destination];
+      return cityNames[source] + " to " + cityNames[destination] + ": shortest " + fares.miles(source, destination)
+             + " miles, cheapest $" + fares.price(source, destination);
+    }
+
+    //writes the replies in request order, each waited for in turn, and forgets them
+    private void write(Writer out, List<Future<String>> replies) throws IOException
+    {
+      for(Future<String> reply : replies)
+      {
+        out.write(result(reply));
+        out.write("\n.\n");
+      }
+      replies.clear();
+    }
+
+    private String result(Future<String> reply)
+    {
+      try
+      {
+        return reply.get();
+      }
+      catch(InterruptedException | ExecutionException ex)
+      {
+        return "ERROR " + ex;
+      }
+    }
+
+    private void expect(String[] fields, int count)
+    {
+      if(fields.length != count)
+        throw new RuntimeException(fields[0].toUpperCase() + " takes " + (count - 1) + " argument(s)");
+    }
+
+    //a 1-based city number, city name or unambiguous name prefix --> 0-based vertex
+    private int city(String field)
+    {
+      return cities.resolve(field);
+    }
+
+  }//END OF PRIVATE CLASS QueryServer
+
+
+
+  /**
+  *  The <tt>Benchmark</tt> class times the graph queries on seeded random
+  *  networks. Run with <tt>java -Xmx4g AirlineSystem -bench dijkstra 10000 100000</tt>.
+  */
+  private class Benchmark
+  {
+    private static final int QUERIES = 20;
+    private static final int ROUTES_PER_CITY = 4;
+    private static final int MAX_SCAN_VERTICES = 20000; // the O(V^2) scan is skipped above this
+    private static final int FLIGHTS_PER_ROUTE = 4;     // flights a day on every route of a random timetable
+    private final Random random = new Random(1501);
+
+    public void run(String[] args)
+    {
+      String which = args.length > 0 ? args[0] : "dijkstra";
+      if(which.equals("suite"))
+      {
+        //city counts and options, see BenchmarkSuite; a regression exits with status 1
+        try
+        {
+          if(!new BenchmarkSuite().run(Arrays.copyOfRange(args, 1, args.length)))
+            System.exit(1);
+        }
+        catch(IOException ex)
+        {
+          System.out.println("Benchmark suite failed: " + ex.getMessage());
+          System.exit(1);
+        }
+        return;
+      }
+      if(which.equals("p2p"))
+      {
+        //sizes or route files
+        for(String arg : (args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"10000", "100000", "1000000"}))
+          benchmarkPointToPoint(arg);
+        return;
+      }
+      if(which.equals("ch"))
+      {
+        //sizes of map networks, random:size for randomGraph() networks, or route files
+        for(String arg : (args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"10000", "100000", "1000000"}))
+          benchmarkHierarchy(arg);
+        return;
+      }
+      if(which.equals("bfs"))
+      {
+        for(String arg : (args.length > 1 ? Arrays.copyOfRange(args, 1, args.length)
+                                          : new String[] {"random:100000", "random:1000000", "100000", "1000000"}))
+          benchmarkLevelSearch(arg);
+        return;
+      }
+      if(which.equals("csa"))
+      {
+        //as for ch, or hub:size for a NetworkGenerator network
+        for(String arg : (args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"hub:10000", "hub:100000", "10000"}))
+          benchmarkTimetable(arg);
+        return;
+      }
+      if(which.equals("hopfare"))
+      {
+        //as for ch
+        for(String arg : (args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"10000", "100000", "1000000"}))
+          benchmarkHopFare(arg);
+        return;
+      }
+      if(which.equals("kpaths"))
+      {
+        //as for ch
+        for(String arg : (args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"a5data2.txt", "10000", "100000"}))
+          benchmarkAlternatives(arg);
+        return;
+      }
+      if(which.equals("pareto"))
+      {
+        //as for ch
+        for(String arg : (args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"10000", "100000", "1000000"}))
+          benchmarkPareto(arg);
+        return;
+      }
+      int[] sizes = {10000, 100000, 1000000};
+      if(args.length > 1)
+      {
+        sizes = new int[args.length - 1];
+        for(int i = 1; i < args.length; i++)
+          sizes[i-1] = Integer.parseInt(args[i]);
+      }
+
+      if(which.equals("dijkstra"))
+      {
+        for(int size : sizes)
+          benchmarkDijkstras(size);
+      }
+      else if(which.equals("batch"))
+      {
+        for(int size : (args.length > 1 ? sizes : new int[] {200000}))
+          benchmarkBatch(size);
+      }
+      else if(which.equals("load"))
+      {
+        for(int size : (args.length > 1 ? sizes : new int[] {2000000}))
+          benchmarkLoad(size);
+      }
+      else if(which.equals("snapshot"))
+      {
+        for(int size : (args.length > 1 ? sizes : new int[] {5000000}))
+          benchmarkSnapshot(size);
+      }
+      else if(which.equals("allpairs"))
+      {
+        for(int size : (args.length > 1 ? sizes : new int[] {2000}))
+          benchmarkAllPairs(size);
+      }
+      else if(which.equals("render"))
+      {
+        for(int size : (args.length > 1 ? sizes : new int[] {250000}))
+          benchmarkRender(size);
+      }
+      else if(which.equals("kruskal"))
+      {
+        for(int size : (args.length > 1 ? sizes : new int[] {10000, 100000, 1000000}))
+          benchmarkKruskal(size);
+      }
+      else if(which.equals("mst"))
+      {
+        for(int size : (args.length > 1 ? sizes : new int[] {10000, 100000, 1000000}))
+          benchmarkSpanningForest(size);
+      }
+      else if(which.equals("budget"))
+      {
+        for(int size : (args.length > 1 ? sizes : new int[] {5000}))
+          benchmarkBudget(size);
+      }
+      else if(which.equals("csr"))
+      {
+        //sizes are route counts here; 1M routes between 250k cities by default
+        for(int size : (args.length > 1 ? sizes : new int[] {1000000}))
+          benchmarkAdjacency(size);
+      }
+      else
+      {
+        System.out.println("Unknown benchmark: " + which);
+      }
+    }//end of run() method
+
+    //builds a connected bi-directional network with about ROUTES_PER_CITY routes per city
+    public Digraph randomGraph(int v)
+    {
+      return new Digraph(v, randomRoutes(v, ROUTES_PER_CITY / 2));
+    }
+
+    //each city gets 'routes' routes (both directions), the first to an earlier city
+    //so the network is connected
+    public RouteBuffer randomRoutes(int v, int routes)
+    {
+      RouteBuffer buffer = new RouteBuffer(2 * routes * v);
+      cityNames = new String[v];
+      for(int i = 0; i < v; i++)
+      {
+        cityNames[i] = "City" + i;
+        for(int r = 0; i > 0 && r < routes; r++)
+        {
+          int to = (r == 0) ? random.nextInt(i) : random.nextInt(v);
+          if(to == i)
+            continue;
+          int weight = 50 + random.nextInt(5000);
+          double cost = 25 + random.nextInt(200000) / 100.0;
+          buffer.add(i, to, weight, cost);
+          buffer.add(to, i, weight, cost);
+        }
+      }
+      return buffer;
+    }//end of randomRoutes() method
+
+    //a mapGraph() of 'arg' cities, a randomGraph() for random:size, a NetworkGenerator hub-and-spoke
+    //network for hub:size, or else the route file 'arg'; null if the file cannot be read
+    private Digraph network(String arg)
+    {
+      try
+      {
+        if(arg.matches("\\d+"))
+          return mapGraph(Integer.parseInt(arg));
+        if(arg.matches("random:\\d+"))
+          return randomGraph(Integer.parseInt(arg.substring(7)));
+        String fileName = arg;
+        if(arg.matches("hub:\\d+"))
+        {
+          File file = File.createTempFile("airline-hub", ".txt");
+          file.deleteOnExit();
+          new NetworkGenerator(Integer.parseInt(arg.substring(4)), 1501).write(file.getPath());
+          fileName = file.getPath();
+        }
+        RouteFileLoader loader = new RouteFileLoader(fileName);
+        cityNames = loader.cityNames();
+        return loader.graph();
+      }
+      catch(IOException ex)
+      {
+        System.out.println("Cannot read " + arg + ": " + ex.getMessage());
+        return null;
+      }
+    }
+
+    //cities scattered over a square map, each with routes (both directions) to its nearest
+    //ROUTES_PER_CITY neighbours, and one city in a hundred with a long haul route to anywhere;
+    //miles as the crow flies. Unlike randomGraph() it has the local structure of a real network
+    public Digraph mapGraph(int v)
+    {
+      int side = Math.max(1, (int) Math.sqrt(v / 2.0)); // about two cities per grid cell
+      double[] x = new double[v], y = new double[v];
+      int[] cellStart = new int[side * side + 1];
+      int[] cell = new int[v];
+      for(int i = 0; i < v; i++)
+      {
+        x[i] = random.nextDouble() * side;
+        y[i] = random.nextDouble() * side;
+        cell[i] = Math.min(side - 1, (int) y[i]) * side + Math.min(side - 1, (int) x[i]);
+        cellStart[cell[i] + 1]++;
+      }
+      for(int c = 0; c < side * side; c++)
+        cellStart[c + 1] += cellStart[c];
+      int[] byCell = new int[v];
+      int[] fill = Arrays.copyOf(cellStart, side * side);
+      for(int i = 0; i < v; i++)
+        byCell[fill[cell[i]]++] = i;
+
+      cityNames = new String[v];
+      RouteBuffer buffer = new RouteBuffer(2 * ROUTES_PER_CITY * v + v / 50 + 2);
+      int routes = ROUTES_PER_CITY;
+      for(int i = 0; i < v; i++)
+      {
+        cityNames[i] = "City" + i;
+        int[] nearest = new int[routes];
+        double[] gap = new double[routes];
+        Arrays.fill(nearest, -1);
+        Arrays.fill(gap, Double.MAX_VALUE);
+        int cx = cell[i] % side, cy = cell[i] / side;
+        for(int ny = Math.max(0, cy - 1); ny <= Math.min(side - 1, cy + 1); ny++)
+        {
+          for(int nx = Math.max(0, cx - 1); nx <= Math.min(side - 1, cx + 1); nx++)
+          {
+            for(int k = cellStart[ny * side + nx]; k < cellStart[ny * side + nx + 1]; k++)
+            {
+              int j = byCell[k];
+              double d = Math.hypot(x[i] - x[j], y[i] - y[j]);
+              if(j == i || d >= gap[routes - 1])
+                continue;
+              int at = routes - 1;
+              for(; at > 0 && gap[at - 1] > d; at--)
+              {
+                gap[at] = gap[at - 1];
+                nearest[at] = nearest[at - 1];
+              }
+              gap[at] = d;
+              nearest[at] = j;
+            }
+          }
+        }
+        for(int r = 0; r < routes && nearest[r] >= 0; r++)
+        {
+          int weight = 1 + (int) (gap[r] * 300);
+          double cost = 25 + Math.round(weight * (8 + random.nextInt(8))) / 100.0;
+          buffer.add(i, nearest[r], weight, cost);
+          buffer.add(nearest[r], i, weight, cost);
+        }
+        if(i % 100 == 0)
+        {
+          int j = random.nextInt(v);
+          int weight = 1 + (int) (Math.hypot(x[i] - x[j], y[i] - y[j]) * 300);
+          double cost = 25 + Math.round(weight * (8 + random.nextInt(8))) / 100.0;
+          buffer.add(i, j, weight, cost);
+          buffer.add(j, i, weight, cost);
+        }
+      }
+      return new Digraph(v, buffer);
+    }//end of mapGraph() method
+
+    public void benchmarkDijkstras(int v)
+    {
+      Digraph graph = randomGraph(v);
+      int[] sources = new int[QUERIES];
+      int[] destinations = new int[QUERIES];
+      for(int q = 0; q < QUERIES; q++)
+      {
+        sources[q] = random.nextInt(v);
+        destinations[q] = random.nextInt(v);
+      }
+
+      System.out.println("Dijkstra on " + v + " cities, " + graph.e() + " directed routes, "
+                         + QUERIES + " queries per metric:");
+      for(int metric = 0; metric < 2; metric++)
+      {
+        boolean byCost = (metric == 1);
+        String label = byCost ? "price" : "miles";
+
+        long start = System.nanoTime();
+        for(int q = 0; q < QUERIES; q++)
+        {
+          if(byCost)
+            graph.dijkstrasCost(sources[q], destinations[q]);
+          else
+            graph.dijkstras(sources[q], destinations[q]);
+        }
+        double heapMs = (System.nanoTime() - start) / 1e6 / QUERIES;
+        System.out.printf("  %-5s indexed heap: %10.3f ms/query%n", label, heapMs);
+
+        if(v > MAX_SCAN_VERTICES)
+        {
+          System.out.printf("  %-5s linear scan : skipped (O(V^2) above %d cities)%n", label, MAX_SCAN_VERTICES);
+          continue;
+        }
+        start = System.nanoTime();
+        for(int q = 0; q < QUERIES; q++)
+        {
+          linearScan(graph, sources[q], byCost);
+        }
+        double scanMs = (System.nanoTime() - start) / 1e6 / QUERIES;
+        System.out.printf("  %-5s linear scan : %10.3f ms/query (%.1fx slower)%n", label, scanMs, scanMs / heapMs);
+      }
+    }//end of benchmarkDijkstras() method
+
+    //applies 'count' random adds, updates and removes to a 100k city network as one batch
+    public void benchmarkBatch(int count)
+    {
+      int v = 100000;
+      Digraph graph = randomGraph(v);
+      RouteBatch batch = new RouteBatch();
+      HashSet<Long> touched = new HashSet<Long>();
+      for(int i = 0; batch.size() < count; i++)
+      {
+        int from = random.nextInt(v);
+        AdjacencyBlock block = graph.block(from);
+        int degree = block.end(from) - block.first(from);
+        int op = random.nextInt(3);
+        int to = (op == 0 || degree == 0) ? random.nextInt(v) : block.targets[block.first(from) + random.nextInt(degree)];
+        if(to == from || !touched.add(routeKey(from, to)) || !touched.add(routeKey(to, from)))
+          continue;
+        EditType type = (op == 0 || degree == 0) ? EditType.ADD : (op == 1) ? EditType.UPDATE : EditType.REMOVE;
+        if(type == EditType.ADD && graph.containsEdge(new WeightedDirectedEdge(from, to, 0, 0)))
+          continue;
+        batch.add(new RouteEdit(type, from, to, 50 + random.nextInt(5000), 25 + random.nextInt(2000), i));
+      }
+
+      long start = System.nanoTime();
+      batch.validate(graph);
+      long validated = System.nanoTime();
+      List<String> errors = graph.applyBatch(batch);
+      long applied = System.nanoTime();
+      System.out.printf("Batch of %d edits on %d cities: validate %.1f ms, validate and apply %.1f ms, %d errors%n",
+                        count, v, (validated - start) / 1e6, (applied - validated) / 1e6, errors.size());
+    }//end of benchmarkBatch() method
+
+    //writes a route file with 'routeCount' routes and loads it with Scanner and with RouteFileLoader
+    public void benchmarkLoad(int routeCount)
+    {
+      try
+      {
+        File file = File.createTempFile("routes", ".txt");
+        file.deleteOnExit();
+        int v = Math.max(2, routeCount / 4);
+        RouteBuffer routes = randomRoutes(v, 4);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16));
+        out.println(v);
+        for(String name : cityNames)
+          out.println(name);
+        for(int i = 0; i < routes.size(); i += 2)
+          out.printf("%d %d %d %.2f%n", routes.from[i] + 1, routes.to[i] + 1, routes.miles[i], routes.cost[i]);
+        out.close();
+        System.out.printf("Loading %d routes (%.1f MB):%n", routes.size() / 2, file.length() / 1e6);
+
+        long start = System.nanoTime();
+        String[] scannedNames = new String[v];
+        Digraph scanned = scannerLoad(file, scannedNames);
+        double scannerMs = (System.nanoTime() - start) / 1e6;
+        System.out.printf("  Scanner         : %9.1f ms (%10.0f routes/s)%n", scannerMs, routes.size() / 2 / (scannerMs / 1000));
+
+        RouteFileLoader loader = new RouteFileLoader(file.getPath());
+        System.out.printf("  RouteFileLoader : %9.1f ms (%10.0f routes/s), %s%n", loader.millis(),
+                          loader.routes() / (loader.millis() / 1000),
+                          sameGraph(scanned, loader.graph()) && Arrays.equals(scannedNames, loader.cityNames())
+                            ? "identical graph" : "GRAPHS DIFFER");
+      }
+      catch(IOException ex)
+      {
+        System.out.println("Load benchmark failed: " + ex.getMessage());
+      }
+    }//end of benchmarkLoad() method
+
+    //saves a network with 'routeCount' routes as a snapshot and opens it again
+    public void benchmarkSnapshot(int routeCount)
+    {
+      try
+      {
+        File file = File.createTempFile("routes", ".bin");
+        file.deleteOnExit();
+        int v = Math.max(2, routeCount / 4);
+        Digraph graph = new Digraph(v, randomRoutes(v, 4));
+        String[] names = cityNames;
+
+        long start = System.nanoTime();
+        new GraphSnapshot().save(file.getPath(), names, graph);
+        double saveMs = (System.nanoTime() - start) / 1e6;
+
+        usedMemory(); // collect the generator's garbage so it is not timed as part of open
+        GraphSnapshot snapshot = new GraphSnapshot();
+        snapshot.load(file.getPath());
+        System.out.printf("Snapshot of %d routes (%.1f MB): save %.1f ms, open %.1f ms, %s%n", graph.e() / 2,
+                          file.length() / 1e6, saveMs, snapshot.millis(),
+                          sameGraph(graph, snapshot.graph()) && Arrays.equals(names, snapshot.cityNames())
+                            ? "identical graph" : "GRAPHS DIFFER");
+      }
+      catch(IOException ex)
+      {
+        System.out.println("Snapshot benchmark failed: " + ex.getMessage());
+      }
+    }//end of benchmarkSnapshot() method
+
+    //the original Scanner based readGraph(), kept only as the baseline to compare against
+    private Digraph scannerLoad(File file, String[] names) throws IOException
+    {
+      Scanner fileScan = new Scanner(new FileInputStream(file));
+      int v = Integer.parseInt(fileScan.nextLine());
+      RouteBuffer routes = new RouteBuffer(4 * v);
+      for(int i=0; i<v; i++)
+        names[i] = fileScan.nextLine();
+      while(fileScan.hasNext())
+      {
+        int from = fileScan.nextInt();
+        int to = fileScan.nextInt();
+        int weight = fileScan.nextInt();
+        double cost = fileScan.nextDouble();
+        routes.add(from-1, to-1, weight, cost);
+        routes.add(to-1, from-1, weight, cost);
+        if(fileScan.hasNextLine())
+          fileScan.nextLine();
+      }
+      fileScan.close();
+      return new Digraph(v, routes);
+    }
+
+    private boolean sameGraph(Digraph a, Digraph b)
+    {
+      if(a.v != b.v || a.e() != b.e())
+        return false;
+      for(int i = 0; i < a.blocks().length; i++)
+      {
+        AdjacencyBlock x = a.blocks()[i];
+        AdjacencyBlock y = b.blocks()[i];
+        if(!Arrays.equals(x.offsets, y.offsets) || !Arrays.equals(x.targets, y.targets)
+           || !Arrays.equals(x.miles, y.miles) || !Arrays.equals(x.cost, y.cost))
+          return false;
+      }
+      return true;
+    }
+
+    //all-pairs table wall-clock time with 1, 2, 4 ... up to all available cores
+    public void benchmarkAllPairs(int v)
+    {
+      Digraph graph = randomGraph(v);
+      new DistanceTable(graph, DEFAULT_THREADS); // warm up the JIT
+      System.out.println("All-pairs table for " + v + " cities, " + graph.e() + " directed routes:");
+      double single = 0;
+      for(int threads = 1; ; threads = Math.min(2 * threads, DEFAULT_THREADS))
+      {
+        long start = System.nanoTime();
+        new DistanceTable(graph, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if(threads == 1)
+          single = seconds;
+        System.out.printf("  %3d thread(s): %8.2f s (%.2fx)%n", threads, seconds, single / seconds);
+        if(threads == DEFAULT_THREADS)
+          break;
+      }
+    }//end of benchmarkAllPairs() method
+
+    //writes every route of a random network to a temporary file the way printGraph() used to,
+    //through a PrintStream set up like System.out, and through ScheduleWriter in each format
+    public void benchmarkRender(int v)
+    {
+      try
+      {
+        Digraph graph = randomGraph(v);
+        File file = File.createTempFile("routes", ".out");
+        file.deleteOnExit();
+        System.out.println("Writing " + graph.e() + " routes of " + v + " cities:");
+        for(int pass = 0; pass < 2; pass++) // the first pass warms up the JIT
+        {
+          long start = System.nanoTime();
+          try(PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 8192), true))
+          {
+            for (int i = 0; i < graph.v; i++)
+            {
+              out.print(cityNames[i] + ": ");
+              for (WeightedDirectedEdge e : graph.adj(i))
+                out.print(cityNames[e.to()] + "[miles:" + e.weight() +"|cost:$" +e.cost()+"] ");
+              out.println();
+            }
+          }
+          double legacy = (System.nanoTime() - start) / 1e9;
+          if(pass == 1)
+            System.out.printf("  System.out style print : %7.2f s, %6.1f MB%n", legacy, file.length() / 1e6);
+
+          for(OutputFormat format : OutputFormat.values())
+          {
+            start = System.nanoTime();
+            try(ScheduleWriter out = new ScheduleWriter(new FileOutputStream(file), format))
+            {
+              out.writeRoutes(graph);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if(pass == 1)
+              System.out.printf("  ScheduleWriter %-4s    : %7.2f s, %6.1f MB (%.1fx)%n", format, seconds, file.length() / 1e6, legacy / seconds);
+          }
+        }
+      }
+      catch(IOException ex)
+      {
+        System.out.println("Render benchmark failed: " + ex.getMessage());
+      }
+    }//end of benchmarkRender() method
+
+    //compares settled cities and latency of the one-directional early-exit dijkstras(), bidirectional
+    //Dijkstra and bidirectional ALT on a random network of 'arg' cities or on the route file 'arg'
+    public void benchmarkPointToPoint(String arg)
+    {
+      Digraph graph;
+      try
+      {
+        if(arg.matches("\\d+"))
+          graph = randomGraph(Integer.parseInt(arg));
+        else
+        {
+          RouteFileLoader loader = new RouteFileLoader(arg);
+          graph = loader.graph();
+          cityNames = loader.cityNames();
+        }
+      }
+      catch(IOException ex)
+      {
+        System.out.println("Cannot read " + arg + ": " + ex.getMessage());
+        return;
+      }
+      int v = graph.v;
+      int queries = Math.max(QUERIES, Math.min(1000, 10000000 / v));
+      int[] sources = new int[queries];
+      int[] destinations = new int[queries];
+      for(int q = 0; q < queries; q++)
+      {
+        sources[q] = random.nextInt(v);
+        destinations[q] = random.nextInt(v);
+      }
+
+      LandmarkRouter router = new LandmarkRouter(graph);
+      System.out.println("Point-to-point search on " + v + " cities, " + graph.e() + " directed routes, "
+                         + queries + " queries per metric:");
+      for(boolean byCost : new boolean[] {false, true})
+      {
+        long start = System.nanoTime();
+        router.landmarks(byCost);
+        System.out.printf("  %s: %d landmarks in %.1f ms%n", byCost ? "price" : "miles", router.count, (System.nanoTime() - start) / 1e6);
+
+        String[] labels = {"dijkstras (early exit)", "bidirectional", "bidirectional ALT"};
+        double[][] totals = new double[3][queries];
+        for(int method = 0; method < 3; method++)
+        {
+          long settled = 0;
+          long elapsed = 0;
+          for(int pass = 0; pass < 2; pass++) // the first pass warms up the JIT
+          {
+            settled = 0;
+            start = System.nanoTime();
+            for(int q = 0; q < queries; q++)
+            {
+              Route route = (method == 0) ? (byCost ? graph.dijkstrasCost(sources[q], destinations[q]) : graph.dijkstras(sources[q], destinations[q]))
+                          : router.route(sources[q], destinations[q], byCost, method == 2);
+              totals[method][q] = route.isEmpty() ? -1 : route.total();
+              settled += (method == 0) ? scratch.get().settledCount : router.lastSettled();
+            }
+            elapsed = System.nanoTime() - start;
+          }
+          boolean same = true;
+          for(int q = 0; q < queries; q++)
+            same &= Math.abs(totals[method][q] - totals[0][q]) <= 1e-9 * Math.max(1, Math.abs(totals[0][q]));
+          System.out.printf("    %-23s: %10.3f ms/query, %9.0f settled/query (%5.2f%% of cities)%s%n", labels[method],
+                            elapsed / 1e6 / queries, (double) settled / queries, 100.0 * settled / queries / v,
+                            same ? "" : "  TOTALS DIFFER");
+        }
+      }
+    }//end of benchmarkPointToPoint() method
+
+    //contraction time on one thread and on DEFAULT_THREADS, the save/load round trip, and query latency and
+    //settled cities against bidirectional ALT, on a mapGraph() or randomGraph() network or a route file
+    public void benchmarkHierarchy(String arg)
+    {
+      Digraph graph = network(arg);
+      if(graph == null)
+        return;
+      int v = graph.v;
+      int queries = Math.max(QUERIES, Math.min(1000, 10000000 / v));
+      int[] sources = new int[queries];
+      int[] destinations = new int[queries];
+      for(int q = 0; q < queries; q++)
+      {
+        sources[q] = random.nextInt(v);
+        destinations[q] = random.nextInt(v);
+      }
+
+      LandmarkRouter router = new LandmarkRouter(graph);
+      System.out.println("Contraction hierarchy on " + arg + ": " + v + " cities, " + graph.e() + " directed routes, "
+                         + queries + " queries per metric:");
+      for(boolean byCost : new boolean[] {false, true})
+      {
+        long start = System.nanoTime();
+        new ContractionHierarchy(graph, byCost, 1);
+        double single = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        ContractionHierarchy built = new ContractionHierarchy(graph, byCost, DEFAULT_THREADS);
+        double parallel = (System.nanoTime() - start) / 1e6;
+        ContractionHierarchy hierarchy;
+        try
+        {
+          File file = File.createTempFile("bench", ".ch");
+          file.deleteOnExit();
+          built.save(file.getPath());
+          hierarchy = new ContractionHierarchy(file.getPath());
+          if(!hierarchy.matches(graph))
+            System.out.println("    LOADED HIERARCHY DOES NOT MATCH");
+        }
+        catch(IOException ex)
+        {
+          System.out.println("Cannot save the hierarchy: " + ex.getMessage());
+          return;
+        }
+        System.out.printf("  %s%n    contraction: %.1f ms on 1 thread, %.1f ms on %d (%.1fx)%n",
+                          hierarchy.describe(), single, parallel, DEFAULT_THREADS, single / parallel);
+
+        String[] labels = {"bidirectional ALT", "contraction hierarchy"};
+        double[][] totals = new double[2][queries];
+        boolean legsAddUp = true;
+        for(int method = 0; method < 2; method++)
+        {
+          long settled = 0;
+          long elapsed = 0;
+          for(int pass = 0; pass < 2; pass++) // the first pass warms up the JIT
+          {
+            settled = 0;
+            start = System.nanoTime();
+            for(int q = 0; q < queries; q++)
+            {
+              Route route = (method == 0) ? router.route(sources[q], destinations[q], byCost, true)
+                          : hierarchy.route(sources[q], destinations[q]);
+              totals[method][q] = route.isEmpty() ? -1 : route.total();
+              settled += (method == 0) ? router.lastSettled() : hierarchy.lastSettled();
+              if(method == 1 && !route.isEmpty())
+              {
+                double sum = 0;
+                for(int i = 1; i < route.stops(); i++)
+                  sum += route.leg(i);
+                legsAddUp &= Math.abs(sum - route.total()) <= 1e-9 * Math.max(1, route.total());
+              }
+            }
+            elapsed = System.nanoTime() - start;
+          }
+          boolean same = true;
+          for(int q = 0; q < queries; q++)
+            same &= Math.abs(totals[method][q] - totals[0][q]) <= 1e-9 * Math.max(1, Math.abs(totals[0][q]));
+          System.out.printf("    %-23s: %10.3f ms/query, %9.0f settled/query (%5.2f%% of cities)%s%n", labels[method],
+                            elapsed / 1e6 / queries, (double) settled / queries, 100.0 * settled / queries / v,
+                            same ? "" : "  TOTALS DIFFER");
+        }
+        if(!legsAddUp)
+          System.out.println("    UNPACKED LEGS DO NOT ADD UP TO THE TOTAL");
+      }
+    }//end of benchmarkHierarchy() method
+
+    //fewest hops from a city to every other: the queue-based bfs() against LevelSearch, with
+    //parents (the same routes as bfs()) and for hop counts only, on one thread and in parallel
+    public void benchmarkLevelSearch(String arg)
+    {
+      Digraph graph = network(arg);
+      if(graph == null)
+        return;
+      int v = graph.v;
+      int queries = Math.max(QUERIES, Math.min(200, 20000000 / v));
+      int[] sources = new int[queries];
+      for(int q = 0; q < queries; q++)
+        sources[q] = random.nextInt(v);
+      ReverseArcs arcs = new ReverseArcs(graph.blocks(), v);
+      LevelSearch search = new LevelSearch();
+      System.out.println("Fewest hops to every city on " + arg + ": " + v + " cities, " + graph.e() + " directed routes, "
+                         + queries + " searches, " + ForkJoinPool.getCommonPoolParallelism() + " worker thread(s):");
+
+      String[] labels = {"bfs()", "parents, 1 thread", "parents, parallel", "hop counts, 1 thread", "hop counts, parallel"};
+      double base = 0;
+      for(int method = 0; method < labels.length; method++)
+      {
+        boolean parents = method < 3;
+        boolean parallel = method % 2 == 0;
+        long elapsed = 0, scanned = 0, reached = 0;
+        int bottomUp = 0, levels = 0;
+        for(int pass = 0; pass < 2; pass++) // the first pass warms up the JIT
+        {
+          scanned = reached = bottomUp = levels = 0;
+          long start = System.nanoTime();
+          for(int q = 0; q < queries; q++)
+          {
+            if(method == 0)
+            {
+              graph.breadthFirst(sources[q], -1);
+              continue;
+            }
+            levels += search.search(arcs, v, sources[q], -1, parents, parallel);
+            bottomUp += search.bottomUpLevels();
+            scanned += search.scanned();
+            for(int k = 0; k < search.levels(); k++)
+              reached += search.levelSize(k);
+          }
+          elapsed = System.nanoTime() - start;
+        }
+        double ms = elapsed / 1e6 / queries;
+        if(method == 0)
+          base = ms;
+        System.out.printf("  %-21s: %8.3f ms/search (%5.1fx)%s%n", labels[method], ms, base / ms,
+                          method == 0 ? "" : String.format(", %8.0f reached in %5.1f levels (%4.1f bottom-up), %10.0f routes looked at",
+                                                           (double) reached / queries, (double) levels / queries,
+                                                           (double) bottomUp / queries, (double) scanned / queries));
+      }
+
+      //the hop counts must agree with bfs(), and with parents the routes too
+      int mismatches = 0;
+      for(int q = 0; q < Math.min(queries, 5); q++)
+      {
+        SearchScratch s = graph.breadthFirst(sources[q], -1);
+        int[] hops = new int[v];
+        int[] edgeTo = new int[v];
+        for(int x = 0; x < v; x++)
+        {
+          hops[x] = s.isReached(x) ? (int) s.dist[x] : -1;
+          edgeTo[x] = s.edgeTo[x];
+        }
+        for(int method = 1; method < labels.length; method++)
+        {
+          search.search(arcs, v, sources[q], -1, method < 3, method % 2 == 0);
+          for(int x = 0; x < v; x++)
+            if(search.hops(x) != hops[x] || (method < 3 && hops[x] > 0 && search.parent[x] != edgeTo[x]))
+              mismatches++;
+        }
+      }
+      System.out.println("  " + (mismatches == 0 ? "hop counts and parents match bfs()" : mismatches + " MISMATCHES against bfs()"));
+    }//end of benchmarkLevelSearch() method
+
+    //cheapest route within n flights: textbook Bellman-Ford (every route, fresh arrays every round)
+    //against HopLimitedSearch on one thread and in parallel
+    public void benchmarkHopFare(String arg)
+    {
+      Digraph graph = network(arg);
+      if(graph == null)
+        return;
+      int v = graph.v;
+      int queries = Math.max(QUERIES, Math.min(200, 2000000 / v));
+      int[] sources = new int[queries];
+      int[] destinations = new int[queries];
+      for(int q = 0; q < queries; q++)
+      {
+        sources[q] = random.nextInt(v);
+        destinations[q] = random.nextInt(v);
+      }
+      ReverseArcs arcs = new ReverseArcs(graph.blocks(), v);
+      HopLimitedSearch search = new HopLimitedSearch();
+      System.out.println("Cheapest route within n flights on " + arg + ": " + v + " cities, " + graph.e() + " directed routes, "
+                         + queries + " queries:");
+      for(int hops : new int[] {2, 4, 8, 32})
+      {
+        String[] labels = {"textbook Bellman-Ford", "rolling, 1 thread", "rolling, parallel"};
+        double[] totals = new double[3];
+        for(int method = 0; method < 3; method++)
+        {
+          long elapsed = 0, offers = 0;
+          for(int pass = 0; pass < 2; pass++) // the first pass warms up the JIT
+          {
+            totals[method] = offers = 0;
+            long start = System.nanoTime();
+            for(int q = 0; q < queries; q++)
+            {
+              double total;
+              if(method == 0)
+                total = textbookHopFare(graph, sources[q], destinations[q], hops);
+              else
+              {
+                Route route = search.cheapest(arcs, v, sources[q], destinations[q], hops, method == 2);
+                total = route.isEmpty() ? Double.POSITIVE_INFINITY : route.total();
+                offers += search.offers();
+              }
+              totals[method] += (total == Double.POSITIVE_INFINITY) ? -1 : total;
+            }
+            elapsed = System.nanoTime() - start;
+          }
+          System.out.printf("  n=%2d %-22s: %10.3f ms/query%s%s%n", hops, labels[method], elapsed / 1e6 / queries,
+                            method == 0 ? "" : String.format(", %9.0f offers/query", (double) offers / queries),
+                            Math.abs(totals[method] - totals[0]) > 1e-6 * Math.max(1, Math.abs(totals[0])) ? "  TOTALS DIFFER" : "");
+        }
+      }
+    }//end of benchmarkHopFare() method
+
+    //the baseline: every round copies the prices and relaxes every route
+    private double textbookHopFare(Digraph graph, int source, int destination, int hops)
+    {
+      double[] price = new double[graph.v];
+      Arrays.fill(price, Double.POSITIVE_INFINITY);
+      price[source] = 0;
+      for(int round = 0; round < hops; round++)
+      {
+        double[] next = price.clone();
+        for(int x = 0; x < graph.v; x++)
+        {
+          if(price[x] == Double.POSITIVE_INFINITY)
+            continue;
+          AdjacencyBlock block = graph.blocks()[x >>> BLOCK_SHIFT];
+          for(int i = block.first(x), end = block.end(x); i < end; i++)
+            next[block.targets[i]] = Math.min(next[block.targets[i]], price[x] + block.cost[i]);
+        }
+        price = next;
+      }
+      return price[destination];
+    }
+
+    //earliest arrival by the Connection Scan Algorithm against a time-dependent Dijkstra over each
+    //city's flights, and whole-day profiles checked against earliest arrival queries, on a random timetable
+    public void benchmarkTimetable(String arg)
+    {
+      Digraph graph = network(arg);
+      if(graph == null)
+        return;
+      int v = graph.v;
+      Timetable timetable = randomTimetable(graph);
+      int n = timetable.size();
+      int queries = Math.max(QUERIES, Math.min(1000, 20000000 / n));
+      int[] sources = new int[queries];
+      int[] destinations = new int[queries];
+      int[] times = new int[queries];
+      for(int q = 0; q < queries; q++)
+      {
+        sources[q] = random.nextInt(v);
+        destinations[q] = random.nextInt(v);
+        times[q] = random.nextInt(Timetable.DAY);
+      }
+      int[] first = new int[v + 1]; // the flights of city x are byCity[first[x]..first[x+1])
+      for(int c = 0; c < n; c++)
+        first[timetable.from[c] + 1]++;
+      for(int x = 0; x < v; x++)
+        first[x + 1] += first[x];
+      int[] byCity = new int[n];
+      int[] fill = Arrays.copyOf(first, v);
+      for(int c = 0; c < n; c++)
+        byCity[fill[timetable.from[c]]++] = c;
+      System.out.println("Timetable on " + arg + ": " + v + " cities, " + n + " flights a day, " + queries + " queries:");
+
+      long[] totals = new long[2];
+      String[] labels = {"time-dependent Dijkstra", "connection scan"};
+      for(int method = 0; method < 2; method++)
+      {
+        long elapsed = 0;
+        for(int pass = 0; pass < 2; pass++) // the first pass warms up the JIT
+        {
+          totals[method] = 0;
+          long start = System.nanoTime();
+          for(int q = 0; q < queries; q++)
+          {
+            int arrives;
+            if(method == 0)
+              arrives = textbookEarliestArrival(timetable, first, byCity, sources[q], destinations[q], times[q]);
+            else
+            {
+              SearchScratch s = scratch(v);
+              arrives = (timetable.earliestArrival(s, sources[q], destinations[q], times[q]) == null)
+                        ? Integer.MAX_VALUE : (int) s.dist[destinations[q]];
+            }
+            totals[method] += (arrives == Integer.MAX_VALUE) ? -1 : arrives;
+          }
+          elapsed = System.nanoTime() - start;
+        }
+        System.out.printf("  earliest arrival, %-23s: %9.3f ms/query%s%n", labels[method], elapsed / 1e6 / queries,
+                          totals[method] != totals[0] ? "  ARRIVALS DIFFER" : "");
+      }
+
+      int profiles = Math.max(1, queries / 10);
+      long pairs = 0;
+      long start = System.nanoTime();
+      for(int q = 0; q < profiles; q++)
+        pairs += timetable.profile(sources[q], destinations[q]).length / 2;
+      long elapsed = System.nanoTime() - start;
+      int wrong = 0;
+      for(int q = 0; q < profiles; q++)
+      {
+        int[] profile = timetable.profile(sources[q], destinations[q]);
+        for(int k = 0; k < profile.length; k += 2)
+        {
+          SearchScratch s = scratch(v);
+          if(timetable.earliestArrival(s, sources[q], destinations[q], profile[k]) == null || s.dist[destinations[q]] != profile[k + 1])
+            wrong++;
+        }
+      }
+      System.out.printf("  whole-day profile                        : %9.3f ms/query, %6.1f departures/query%s%n",
+                        elapsed / 1e6 / profiles, (double) pairs / profiles, wrong > 0 ? "  " + wrong + " PROFILE ENTRIES DIFFER" : "");
+    }//end of benchmarkTimetable() method
+
+    //FLIGHTS_PER_ROUTE flights a day on every route, at random times, flying 500 miles an hour plus half an hour
+    private Timetable randomTimetable(Digraph graph)
+    {
+      int n = FLIGHTS_PER_ROUTE * graph.e();
+      int[] from = new int[n];
+      int[] to = new int[n];
+      int[] departure = new int[n];
+      int[] arrival = new int[n];
+      int flights = 0;
+      for(int x = 0; x < graph.v; x++)
+      {
+        AdjacencyBlock block = graph.blocks()[x >>> BLOCK_SHIFT];
+        for(int i = block.first(x), end = block.end(x); i < end; i++)
+        {
+          for(int k = 0; k < FLIGHTS_PER_ROUTE; k++, flights++)
+          {
+            from[flights] = x;
+            to[flights] = block.targets[i];
+            departure[flights] = random.nextInt(Timetable.DAY);
+            arrival[flights] = departure[flights] + 30 + (int) (block.miles[i] * 60L / 500);
+          }
+        }
+      }
+      return Timetable.of(graph.v, from, to, departure, arrival, flights);
+    }
+
+    //the baseline: Dijkstra by arrival time, trying every flight of a city on every day at each settled city
+    private int textbookEarliestArrival(Timetable timetable, int[] first, int[] byCity, int source, int destination, int departAfter)
+    {
+      int[] time = new int[timetable.v];
+      Arrays.fill(time, Integer.MAX_VALUE);
+      IndexMinPQ pq = new IndexMinPQ(timetable.v);
+      time[source] = departAfter;
+      pq.insert(source, departAfter);
+      while(!pq.isEmpty())
+      {
+        int x = pq.delMin();
+        if(x == destination)
+          return time[x];
+        int ready = time[x] + (x == source ? 0 : Timetable.MIN_CONNECTION);
+        for(int k = first[x]; k < first[x + 1]; k++)
+        {
+          int c = byCity[k];
+          int y = timetable.to[c];
+          for(int day = 0; day < Timetable.DAYS; day++)
+          {
+            if(timetable.departure(c, day) < ready)
+              continue;
+            int arrives = timetable.arrival(c, day);
+            if(arrives < time[y])
+            {
+              if(time[y] == Integer.MAX_VALUE)
+                pq.insert(y, arrives);
+              else if(pq.contains(y))
+                pq.decreaseKey(y, arrives);
+              time[y] = arrives;
+            }
+            break; // later days arrive later
+          }
+        }
+      }
+      return Integer.MAX_VALUE;
+    }
+
+    //throughput of k shortest path queries: plain Yen against the landmark guided, Lawler pruned version,
+    //taking all k routes and only the first 3 of them
+    public void benchmarkAlternatives(String arg)
+    {
+      Digraph graph = network(arg);
+      if(graph == null)
+        return;
+      int v = graph.v;
+      int queries = Math.max(QUERIES, Math.min(2000, 200000 / v));
+      int[] sources = new int[queries];
+      int[] destinations = new int[queries];
+      for(int q = 0; q < queries; q++)
+      {
+        sources[q] = random.nextInt(v);
+        destinations[q] = random.nextInt(v);
+      }
+      LandmarkRouter router = new LandmarkRouter(graph);
+      if(v > MAX_SCAN_VERTICES)
+        System.out.println("(plain Yen is skipped above " + MAX_SCAN_VERTICES + " cities)");
+      System.out.println("K shortest routes on " + arg + ": " + v + " cities, " + graph.e() + " directed routes, "
+                         + queries + " queries per metric:");
+      for(boolean byCost : new boolean[] {false, true})
+      {
+        Landmarks bounds = router.landmarks(byCost);
+        System.out.println("  " + (byCost ? "price:" : "miles:"));
+        for(int[] run : new int[][] {{10, 10}, {50, 3}, {50, 50}}) // {k, routes taken}
+        {
+          double[] firstTotals = new double[2];
+          for(int mode = (v > MAX_SCAN_VERTICES) ? 1 : 0; mode < 2; mode++) // plain Yen, then guided
+          {
+            long spurs = 0, settled = 0, routes = 0;
+            double sum = 0;
+            long elapsed = 0;
+            for(int pass = 0; pass < 2; pass++) // the first pass warms up the JIT
+            {
+              spurs = settled = routes = 0;
+              sum = 0;
+              long start = System.nanoTime();
+              for(int q = 0; q < queries; q++)
+              {
+                KShortestPaths paths = new KShortestPaths(graph, sources[q], destinations[q], byCost, bounds, mode == 0);
+                for(int taken = 0; taken < Math.min(run[0], run[1]) && paths.hasNext(); taken++)
+                {
+                  sum += paths.next().total();
+                  routes++;
+                }
+                spurs += paths.spurSearches();
+                settled += paths.settled();
+              }
+              elapsed = System.nanoTime() - start;
+            }
+            firstTotals[mode] = sum;
+            System.out.printf("    k=%2d, first %2d, %-6s: %9.1f queries/s, %5.1f routes, %6.1f spur searches and %9.0f settled per query%s%n",
+                              run[0], run[1], mode == 0 ? "plain" : "guided", queries / (elapsed / 1e9),
+                              (double) routes / queries, (double) spurs / queries, (double) settled / queries,
+                              (mode == 1 && firstTotals[0] != 0 && Math.abs(firstTotals[1] - firstTotals[0]) > 1e-6 * Math.max(1, firstTotals[0])) ? "  TOTALS DIFFER" : "");
+          }
+        }
+      }
+    }//end of benchmarkAlternatives() method
+
+    //the Pareto search against the two single-metric searches it replaces, at a few label limits
+    public void benchmarkPareto(String arg)
+    {
+      Digraph graph = network(arg);
+      if(graph == null)
+        return;
+      int v = graph.v;
+      int[] sources = new int[QUERIES * 5];
+      int[] destinations = new int[QUERIES * 5];
+      for(int q = 0; q < sources.length; q++)
+      {
+        sources[q] = random.nextInt(v);
+        destinations[q] = random.nextInt(v);
+      }
+      System.out.println("Pareto routes on " + arg + ": " + v + " cities, " + graph.e() + " directed routes, "
+                         + sources.length + " queries:");
+      long elapsed = 0;
+      for(int pass = 0; pass < 2; pass++) // the first pass warms up the JIT
+      {
+        long start = System.nanoTime();
+        for(int q = 0; q < sources.length; q++)
+        {
+          graph.dijkstras(sources[q], destinations[q]);
+          graph.dijkstrasCost(sources[q], destinations[q]);
+        }
+        elapsed = System.nanoTime() - start;
+      }
+      System.out.printf("  dijkstras() + dijkstrasCost()  : %9.3f ms/query%n", elapsed / 1e6 / sources.length);
+      ParetoSearch search = new ParetoSearch();
+      ReverseArcs arcs = new ReverseArcs(graph.blocks(), v);
+      for(int perCity : new int[] {4, 16, PARETO_LABELS_PER_CITY})
+      {
+        long routes = 0, settled = 0, created = 0;
+        int truncated = 0;
+        for(int pass = 0; pass < 2; pass++)
+        {
+          routes = settled = created = truncated = 0;
+          long start = System.nanoTime();
+          for(int q = 0; q < sources.length; q++)
+          {
+            routes += search.search(arcs, v, sources[q], destinations[q], perCity, PARETO_LABELS).size();
+            settled += search.settled();
+            created += search.created();
+            truncated += search.truncated() ? 1 : 0;
+          }
+          elapsed = System.nanoTime() - start;
+        }
+        System.out.printf("  Pareto, %2d labels per city     : %9.3f ms/query, %5.1f routes, %8.0f settled and %8.0f created labels, %d truncated%n",
+                          perCity, elapsed / 1e6 / sources.length, (double) routes / sources.length,
+                          (double) settled / sources.length, (double) created / sources.length, truncated);
+      }
+    }//end of benchmarkPareto() method
+
+    //times the boxed, Collections.sort kruskals() this replaced against the primitive sort and Boruvka
+    public void benchmarkKruskal(int v)
+    {
+      Digraph graph = randomGraph(v);
+      List<WeightedDirectedEdge> legacy = null, sorted = null, rounds = null;
+      double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+      for(int pass = -2; pass < 3; pass++) // the negative passes warm up the JIT
+      {
+        long start = System.nanoTime();
+        legacy = boxedKruskals(graph);
+        long middle = System.nanoTime();
+        sorted = graph.kruskals();
+        long end = System.nanoTime();
+        rounds = graph.boruvka();
+        long last = System.nanoTime();
+        if(pass >= 0)
+        {
+          best[0] = Math.min(best[0], (middle - start) / 1e6);
+          best[1] = Math.min(best[1], (end - middle) / 1e6);
+          best[2] = Math.min(best[2], (last - end) / 1e6);
+        }
+      }
+      System.out.println("Minimum spanning forest of " + v + " cities, " + graph.e() + " directed routes (best of 3):");
+      System.out.printf("  boxed Collections.sort : %9.1f ms%n", best[0]);
+      System.out.printf("  packed parallelSort    : %9.1f ms (%.1fx)%n", best[1], best[0] / best[1]);
+      System.out.printf("  parallel Boruvka       : %9.1f ms (%.1fx) on %d core(s)%n", best[2], best[0] / best[2],
+                        Runtime.getRuntime().availableProcessors());
+      System.out.println("  same edges: " + (sameEdges(legacy, sorted) && sameEdges(legacy, rounds)));
+    }//end of benchmarkKruskal() method
+
+    //the original kruskals(): every directed route boxed, sorted by compareTo() and joined without path compression
+    private List<WeightedDirectedEdge> boxedKruskals(Digraph graph)
+    {
+      ArrayList<WeightedDirectedEdge> allEdges = new ArrayList<WeightedDirectedEdge>();
+      ArrayList<WeightedDirectedEdge> mstEdges = new ArrayList<WeightedDirectedEdge>();
+      for(int i = 0; i < graph.v; i++)
+        for(WeightedDirectedEdge w : graph.adj(i))
+          allEdges.add(w);
+      Collections.sort(allEdges);
+
+      int[] id = new int[graph.v];
+      int[] sz = new int[graph.v];
+      for(int i = 0; i < graph.v; i++)
+      {
+        id[i] = i;
+        sz[i] = 1;
+      }
+      for(WeightedDirectedEdge w : allEdges)
+      {
+        int i = w.to(), j = w.from();
+        while(i != id[i])
+          i = id[i];
+        while(j != id[j])
+          j = id[j];
+        if(i == j)
+          continue;
+        if(sz[i] < sz[j]) { id[i] = j; sz[j] += sz[i]; }
+        else              { id[j] = i; sz[i] += sz[j]; }
+        mstEdges.add(w);
+      }
+      return mstEdges;
+    }//end of boxedKruskals() method
+
+    //true if both lists hold the same routes in the same order
+    private boolean sameEdges(List<WeightedDirectedEdge> a, List<WeightedDirectedEdge> b)
+    {
+      if(a.size() != b.size())
+        return false;
+      for(int i = 0; i < a.size(); i++)
+      {
+        if(a.get(i).from() != b.get(i).from() || a.get(i).to() != b.get(i).to() || a.get(i).weight() != b.get(i).weight())
+          return false;
+      }
+      return true;
+    }
+
+    //times repairing the spanning forest after single route changes against rerunning kruskals()
+    public void benchmarkSpanningForest(int v)
+    {
+      final int updates = 2000;
+      Digraph graph = randomGraph(v);
+      for(int pass = 0; pass < 2; pass++)
+        graph.kruskals(); // warm up the JIT
+      long start = System.nanoTime();
+      for(int pass = 0; pass < 3; pass++)
+        graph.kruskals();
+      double kruskalMs = (System.nanoTime() - start) / 1e6 / 3;
+
+      start = System.nanoTime();
+      SpanningForest forest = new SpanningForest(graph);
+      double buildMs = (System.nanoTime() - start) / 1e6;
+
+      //each update adds, reprices or removes a route in both directions, like menu options 5 and 6
+      long[] nanos = new long[3];
+      int[] counts = new int[3];
+      for(int u = 0; u < updates; u++)
+      {
+        int from = random.nextInt(v);
+        AdjacencyBlock block = graph.block(from);
+        int degree = block.end(from) - block.first(from);
+        int op = (degree == 0) ? 0 : random.nextInt(3);
+        int to = (op == 0) ? random.nextInt(v) : block.targets[block.first(from) + random.nextInt(degree)];
+        if(to == from)
+          continue;
+        int miles = 50 + random.nextInt(5000);
+        start = System.nanoTime();
+        if(op == 0)
+        {
+          graph.addEdge(new WeightedDirectedEdge(from, to, miles, 100));
+          graph.addEdge(new WeightedDirectedEdge(to, from, miles, 100));
+        }
+        else if(op == 1)
+        {
+          graph.updateEdge(new WeightedDirectedEdge(from, to, miles, 100));
+          graph.updateEdge(new WeightedDirectedEdge(to, from, miles, 100));
+        }
+        else
+        {
+          graph.removeEdge(new WeightedDirectedEdge(from, to, 0, 0));
+          graph.removeEdge(new WeightedDirectedEdge(to, from, 0, 0));
+        }
+        nanos[op] += System.nanoTime() - start;
+        counts[op]++;
+      }
+
+      long expected = 0;
+      for(WeightedDirectedEdge w : graph.kruskals())
+        expected += w.weight();
+      System.out.println("Spanning forest on " + v + " cities, " + graph.e() + " directed routes:");
+      System.out.printf("  kruskals()      : %10.3f ms per run (initial build %.3f ms)%n", kruskalMs, buildMs);
+      String[] labels = {"add route", "reprice route", "remove route"};
+      for(int op = 0; op < 3; op++)
+      {
+        double ms = nanos[op] / 1e6 / Math.max(1, counts[op]);
+        System.out.printf("  %-15s : %10.3f ms per update incl. the edit (%d updates, %.0fx faster)%n",
+                          labels[op], ms, counts[op], kruskalMs / ms);
+      }
+      System.out.println("  " + forest.stats() + (forest.totalMiles() == expected ? ", matches kruskals()" : ", MISMATCH: kruskals() has " + expected + " miles"));
+    }//end of benchmarkSpanningForest() method
+
+    //times the budget trip search against the original recursive dfs at a few budgets
+    public void benchmarkBudget(int v)
+    {
+      Digraph graph = randomGraph(v);
+      findTrips(graph, 200, new TripCount(), true); // warm up the JIT
+      System.out.println("Budget trips on " + v + " cities, " + graph.e() + " directed routes:");
+      for(double budget : new double[] {200, 1000, 2000})
+      {
+        long start = System.nanoTime();
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < v; i++)
+          recursiveDfs(graph, i, budget, new boolean[v], new int[v], 0, i, out);
+        double legacy = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        long count = findTrips(graph, budget, new TripCount(), false).count();
+        double sequential = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        findTrips(graph, budget, new TripCount(), true);
+        double parallel = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        int length = listTrips(graph, budget).length();
+        double listed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("  $%-5.0f %10d trips: recursive dfs %7.2f s, count %7.2f s, parallel count %7.2f s, parallel list %7.2f s (%.1f MB)%n",
+                          budget, count, legacy, sequential, parallel, listed, length / 1e6);
+      }
+    }//end of benchmarkBudget() method
+
+    //the original recursive superSaver() dfs, kept only as the baseline to compare against
+    private void recursiveDfs(Digraph graph, int v, double budget, boolean[] marked, int[] edgeTo, double tCost, int source, StringBuilder out)
+    {
+      marked[v] = true;
+      for (WeightedDirectedEdge w : graph.adj(v))
+      {
+        edgeTo[w.to()] = v;
+        double totalCost = tCost + w.cost();
+        if(totalCost <= budget)
+        {
+          out.append("Price:$").append(totalCost).append(" -- Path: ").append(cityNames[w.to()]).append(' ');
+          for(int x = w.to(); x != v; )
+          {
+            x = edgeTo[x];
+            out.append(cityNames[x]).append(' ');
+          }
+          out.append('\n');
+        }
+        if(!marked[w.to()])
+          recursiveDfs(graph, w.to(), budget, marked, edgeTo, totalCost, source, out);
+      }
+    }//end of recursiveDfs() method
+
+    //compares the block arrays against the old LinkedList<WeightedDirectedEdge>[] adjacency
+    public void benchmarkAdjacency(int routeCount)
+    {
+      int v = Math.max(2, routeCount / 4);
+      RouteBuffer routes = randomRoutes(v, 4);
+
+      long before = usedMemory();
+      LinkedList<WeightedDirectedEdge>[] lists = linkedLists(v, routes);
+      long listBytes = usedMemory() - before;
+
+      before = usedMemory();
+      Digraph graph = new Digraph(v, routes);
+      long blockBytes = usedMemory() - before;
+
+      System.out.println("Adjacency storage for " + v + " cities, " + graph.e() + " directed routes:");
+      System.out.printf("  LinkedList : %8.1f MB (%5.1f bytes/route)%n", listBytes / 1e6, (double) listBytes / graph.e());
+      System.out.printf("  CSR blocks : %8.1f MB (%5.1f bytes/route)%n", blockBytes / 1e6, (double) blockBytes / graph.e());
+
+      long checksum = 0;
+      long start = 0;
+      for(int pass = -3; pass < 10; pass++)  // the negative passes warm up the JIT
+      {
+        if(pass == 0)
+          start = System.nanoTime();
+        for(int i = 0; i < v; i++)
+          for(WeightedDirectedEdge w : lists[i])
+            checksum += w.weight() + w.to();
+      }
+      double listRate = 10.0 * graph.e() / ((System.nanoTime() - start) / 1e9);
+
+      for(int pass = -3; pass < 10; pass++)
+      {
+        if(pass == 0)
+          start = System.nanoTime();
+        for(int i = 0; i < v; i++)
+        {
+          AdjacencyBlock block = graph.block(i);
+          for(int j = block.first(i), end = block.end(i); j < end; j++)
+            checksum -= block.miles[j] + block.targets[j];
+        }
+      }
+      double blockRate = 10.0 * graph.e() / ((System.nanoTime() - start) / 1e9);
+
+      System.out.printf("  LinkedList : %8.1f M routes/s full sweep%n", listRate / 1e6);
+      System.out.printf("  CSR blocks : %8.1f M routes/s full sweep (checksum %d)%n", blockRate / 1e6, checksum);
+
+      start = System.nanoTime();
+      for(int q = 0; q < QUERIES; q++)
+        graph.bfs(random.nextInt(v), -1);
+      System.out.printf("  CSR blocks : %8.3f ms/bfs%n", (System.nanoTime() - start) / 1e6 / QUERIES);
+    }//end of benchmarkAdjacency() method
+
+    @SuppressWarnings("unchecked")
+    private LinkedList<WeightedDirectedEdge>[] linkedLists(int v, RouteBuffer routes)
+    {
+      LinkedList<WeightedDirectedEdge>[] lists = (LinkedList<WeightedDirectedEdge>[]) new LinkedList[v];
+      for(int i = 0; i < v; i++)
+        lists[i] = new LinkedList<WeightedDirectedEdge>();
+      for(int i = 0; i < routes.size(); i++)
+        lists[routes.from[i]].add(new WeightedDirectedEdge(routes.from[i], routes.to[i], routes.miles[i], routes.cost[i]));
+      return lists;
+    }
+
+    private long usedMemory()
+    {
+      Runtime runtime = Runtime.getRuntime();
+      for(int i = 0; i < 3; i++)
+        System.gc();
+      return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    //the original scan-every-vertex dijkstras, kept only as the baseline to compare against
+    private double[] linearScan(Digraph graph, int source, boolean byCost)
+    {
+      boolean[] done = new boolean[graph.v];
+      double[] best = new double[graph.v];
+      Arrays.fill(best, Double.POSITIVE_INFINITY);
+      best[source] = 0;
+      done[source] = true;
+
+      int current = source;
+      while(current >= 0)
+      {
+        for (WeightedDirectedEdge w : graph.adj(current))
+        {
+          double candidate = best[current] + (byCost ? w.cost() : w.weight());
+          if(candidate < best[w.to()])
+            best[w.to()] = candidate;
+        }
+
+        double min = Double.POSITIVE_INFINITY;
+        current = -1;
+        for(int i = 0; i < best.length; i++)
+        {
+          if(!done[i] && best[i] < min)
+          {
+            min = best[i];
+            current = i;
+          }
+        }
+        if(current >= 0)
+          done[current] = true;
+      }
+      return best;
+    }//end of linearScan() method
+
+  }//END OF PRIVATE CLASS Benchmark
+
+
+
+  /**
+  *  The <tt>NetworkGenerator</tt> class makes seeded hub-and-spoke networks
+  *  and writes them as route files. About sqrt(v) hubs lie on a 6000 x 3000
+  *  mile map, with Zipf traffic weights. Every other city is a spoke near
+  *  a hub picked by weight, with a route to it. Some spokes also fly to a
+  *  hub nearby or to an earlier spoke of the same hub. Hubs are linked to
+  *  their nearest hubs, to an earlier hub (which keeps the network
+  *  connected) and by long hauls to hubs picked by weight. Miles are map
+  *  distances with a detour factor. A price is a fee plus a rate per mile
+  *  (lower between hubs) times a log-normal factor. Only StrictMath is
+  *  used, so a (cities, seed) pair gives the same file on every JVM.
+  */
+  private static final class NetworkGenerator
+  {
+    private static final double WIDTH = 6000, HEIGHT = 3000; // miles
+    private static final double SPOKE_SPREAD = 120;          // standard deviation of a spoke's offset from its hub, miles
+    private static final int NEAREST_HUBS = 4;
+    private static final int LONG_HAULS = 2;                 // per hub
+    private final String[] names;
+    private int[] from = new int[1024];
+    private int[] to = new int[1024];
+    private int[] miles = new int[1024];
+    private long[] cents = new long[1024];
+    private int routes;
+    private final double[] x, y;
+    private final Random random;
+
+    public NetworkGenerator(int cities, long seed)
+    {
+      if (cities < 2)
+        throw new RuntimeException("A network needs at least 2 cities, not " + cities);
+      random = new Random(seed);
+      int hubs = (int) Math.max(2, Math.min(cities / 2, Math.round(StrictMath.sqrt(cities))));
+      names = new String[cities];
+      x = new double[cities];
+      y = new double[cities];
+
+      double[] weight = new double[hubs + 1]; // cumulative Zipf weights
+      for (int h = 0; h < hubs; h++)
+      {
+        names[h] = "Hub" + (h + 1);
+        x[h] = random.nextDouble() * WIDTH;
+        y[h] = random.nextDouble() * HEIGHT;
+        weight[h + 1] = weight[h] + 1 / StrictMath.pow(h + 1, 0.8);
+      }
+
+      //the hub backbone
+      int[][] nearest = new int[hubs][];
+      HashSet<Long> linked = new HashSet<Long>();
+      for (int h = 0; h < hubs; h++)
+      {
+        nearest[h] = nearestHubs(h, hubs);
+        for (int n : nearest[h])
+          link(h, n, 0.09, linked);
+        if (h > 0)
+          link(h, random.nextInt(h), 0.09, linked);
+        for (int k = 0; k < LONG_HAULS; k++)
+          link(h, pick(weight, hubs), 0.07, linked);
+      }
+
+      //the spokes, grouped by hub so a spoke can link to an earlier one of its hub
+      int[] hubOf = new int[cities];
+      int[] start = new int[hubs + 1];
+      for (int c = hubs; c < cities; c++)
+      {
+        hubOf[c] = pick(weight, hubs);
+        start[hubOf[c] + 1]++;
+      }
+      for (int h = 0; h < hubs; h++)
+        start[h + 1] += start[h];
+      int[] next = Arrays.copyOf(start, hubs);
+      int[] group = new int[cities - hubs];
+      for (int c = hubs; c < cities; c++)
+        group[next[hubOf[c]]++] = c;
+      for (int c = hubs; c < cities; c++)
+      {
+        int h = hubOf[c];
+        names[c] = "City" + (c - hubs + 1);
+        x[c] = clamp(x[h] + random.nextGaussian() * SPOKE_SPREAD, WIDTH);
+        y[c] = clamp(y[h] + random.nextGaussian() * SPOKE_SPREAD, HEIGHT);
+      }
+      for (int i = 0; i < group.length; i++)
+      {
+        int c = group[i];
+        int h = hubOf[c];
+        add(c, h, 0.15);
+        if (random.nextDouble() < 0.3)
+          add(c, nearest[h][random.nextInt(nearest[h].length)], 0.15);
+        int position = i - start[h];
+        if (position > 0 && random.nextDouble() < 0.5)
+          add(c, group[start[h] + random.nextInt(position)], 0.18);
+      }
+    }//end of NetworkGenerator constructor
+
+    public int cities()
+    {
+      return names.length;
+    }
+
+    //route lines, each flown both ways
+    public int routes()
+    {
+      return routes;
+    }
+
+    //writes the network in the route file format RouteFileLoader reads
+    public void write(String fileName) throws IOException
+    {
+      try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.US_ASCII), 1 << 16))
+      {
+        StringBuilder line = new StringBuilder(64);
+        out.write(names.length + "\n");
+        for (String name : names)
+          out.write(name + "\n");
+        for (int i = 0; i < routes; i++)
+        {
+          line.setLength(0);
+          line.append(from[i] + 1).append(' ').append(to[i] + 1).append(' ').append(miles[i]).append(' ')
+              .append(cents[i] / 100).append('.').append((char) ('0' + cents[i] % 100 / 10)).append((char) ('0' + cents[i] % 10)).append('\n');
+          out.append(line);
+        }
+      }
+    }
+
+    //the NEAREST_HUBS hubs closest to h
+    private int[] nearestHubs(int h, int hubs)
+    {
+      int count = Math.min(NEAREST_HUBS, hubs - 1);
+      int[] best = new int[count];
+      double[] distance = new double[count];
+      Arrays.fill(distance, Double.POSITIVE_INFINITY);
+      for (int o = 0; o < hubs; o++)
+      {
+        double d = StrictMath.hypot(x[o] - x[h], y[o] - y[h]);
+        if (o == h || d >= distance[count - 1])
+          continue;
+        int i = count - 1;
+        for (; i > 0 && distance[i - 1] > d; i--)
+        {
+          distance[i] = distance[i - 1];
+          best[i] = best[i - 1];
+        }
+        distance[i] = d;
+        best[i] = o;
+      }
+      return best;
+    }
+
+    //a hub with probability proportional to its weight
+    private int pick(double[] weight, int hubs)
+    {
+      double target = random.nextDouble() * weight[hubs];
+      int at = Arrays.binarySearch(weight, 0, hubs + 1, target);
+      return Math.min(hubs - 1, Math.max(0, (at >= 0) ? at : -at - 2));
+    }
+
+    //a hub route, unless the two hubs are linked already
+    private void link(int a, int b, double rate, HashSet<Long> linked)
+    {
+      if (a != b && linked.add(((long) Math.min(a, b) << 32) | Math.max(a, b)))
+        add(a, b, rate);
+    }
+
+    private void add(int a, int b, double rate)
+    {
+      if (routes == from.length)
+      {
+        from = Arrays.copyOf(from, 2 * routes);
+        to = Arrays.copyOf(to, 2 * routes);
+        miles = Arrays.copyOf(miles, 2 * routes);
+        cents = Arrays.copyOf(cents, 2 * routes);
+      }
+      int distance = (int) Math.max(30, StrictMath.round(1.05 * StrictMath.hypot(x[a] - x[b], y[a] - y[b])));
+      double price = (35 + rate * distance) * StrictMath.exp(0.2 * random.nextGaussian());
+      from[routes] = a;
+      to[routes] = b;
+      miles[routes] = distance;
+      cents[routes++] = Math.max(1900, StrictMath.round(price * 100));
+    }
+
+    private static double clamp(double value, double max)
+    {
+      return Math.max(0, Math.min(max, value));
+    }
+
+  }//END OF PRIVATE CLASS NetworkGenerator
+
+
+
+  /**
+  *  The <tt>BenchmarkSuite</tt> class times the core queries and loading on
+  *  generated hub-and-spoke networks, reproducibly enough to gate
+  *  regressions on. Networks and query lists come from fixed seeds.
+  *  Warmup iterations run before the measured ones. Each iteration repeats
+  *  its batch of operations for at least 200 ms, and the result is the
+  *  median measured time per operation. A checksum of the answers shows two runs did the
+  *  same work. Run <tt>java AirlineSystem -bench suite 1000 100000 -save
+  *  base.txt</tt> once, then <tt>-baseline base.txt</tt>. A benchmark
+  *  slower than its baseline by more than the tolerance (25% unless
+  *  <tt>-tolerance</tt> says otherwise), or with another checksum, fails
+  *  the run with exit status 1.
+  */
+  private class BenchmarkSuite
+  {
+    private static final int QUERIES = 64;     // per iteration of a query benchmark
+    private static final double BUDGET = 150;  // of the budget trip (depth first) benchmark
+    private static final long ITERATION_NANOS = 200000000L; // an iteration repeats its batch of operations for at least this long
+    private int warmup = 3;
+    private int measure = 5;
+    private double tolerance = 0.25;
+    private long seed = 1501;
+    private String baseline;
+    private String save;
+    private final LinkedHashMap<String, String> results = new LinkedHashMap<String, String>(); // "name cities seed" --> "ns/op checksum"
+    private Map<String, String> expected = new HashMap<String, String>();
+    private boolean passed = true;
+
+    //arguments: city counts and -seed n, -warmup n, -measure n, -tolerance x, -baseline file, -save file;
+    //returns false if a benchmark regressed against the baseline
+    public boolean run(String[] args) throws IOException
+    {
+      ArrayList<Integer> sizes = new ArrayList<Integer>();
+      for (int i = 0; i < args.length; i++)
+      {
+        switch (args[i])
+        {
+          case "-seed":      seed = Long.parseLong(args[++i]); break;
+          case "-warmup":    warmup = Integer.parseInt(args[++i]); break;
+          case "-measure":   measure = Math.max(1, Integer.parseInt(args[++i])); break;
+          case "-tolerance": tolerance = Double.parseDouble(args[++i]); break;
+          case "-baseline":  baseline = args[++i]; break;
+          case "-save":      save = args[++i]; break;
+          default:           sizes.add(Integer.parseInt(args[i]));
+        }
+      }
+      if (sizes.isEmpty())
+        sizes.addAll(Arrays.asList(1000, 10000, 100000));
+      if (baseline != null)
+        expected = readResults(baseline);
+
+      System.out.printf("Benchmark suite: seed %d, %d warmup and %d measured iterations, median time per operation%n",
+                        seed, warmup, measure);
+      for (int cities : sizes)
+        runAll(cities);
+
+      if (save != null)
+      {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(save))))
+        {
+          out.println("# benchmark cities seed ns/op checksum");
+          for (Map.Entry<String, String> result : results.entrySet())
+            out.println(result.getKey() + " " + result.getValue());
+        }
+        System.out.println("Saved " + results.size() + " results to " + save + ".");
+      }
+      if (baseline != null)
+        System.out.println(passed ? "No regressions against " + baseline + "." : "REGRESSIONS against " + baseline + ".");
+      return passed;
+    }//end of run() method
+
+    private void runAll(int cities) throws IOException
+    {
+      NetworkGenerator generator = new NetworkGenerator(cities, seed);
+      File file = File.createTempFile("network", ".txt");
+      file.deleteOnExit();
+      generator.write(file.getPath());
+      System.out.printf("%d cities, %d routes (%.1f MB):%n", cities, generator.routes(), file.length() / 1e6);
+
+      RouteFileLoader[] loaded = new RouteFileLoader[1];
+      time("load", cities, 1, () ->
+      {
+        loaded[0] = new RouteFileLoader(file.getPath());
+        return loaded[0].graph().e();
+      });
+      Digraph graph = loaded[0].graph();
+      loaded[0] = null;
+
+      Random queries = new Random(seed + cities);
+      int[] sources = new int[QUERIES];
+      int[] destinations = new int[QUERIES];
+      for (int q = 0; q < QUERIES; q++)
+      {
+        sources[q] = queries.nextInt(cities);
+        destinations[q] = queries.nextInt(cities);
+      }
+      time("dijkstras", cities, QUERIES, () ->
+      {
+        double sum = 0;
+        for (int q = 0; q < QUERIES; q++)
+          sum += graph.dijkstras(sources[q], destinations[q]).total();
+        return sum;
+      });
+      time("dijkstrasCost", cities, QUERIES, () ->
+      {
+        double sum = 0;
+        for (int q = 0; q < QUERIES; q++)
+          sum += graph.dijkstrasCost(sources[q], destinations[q]).total();
+        return sum;
+      });
+      time("bfs", cities, QUERIES, () ->
+      {
+        double sum = 0;
+        for (int q = 0; q < QUERIES; q++)
+          sum += graph.bfs(sources[q], destinations[q]).total();
+        return sum;
+      });
+      time("trips", cities, QUERIES, () ->
+      {
+        TripCount count = new TripCount();
+        for (int q = 0; q < QUERIES; q++)
+          graph.trips(sources[q], BUDGET, count);
+        return count.count();
+      });
+      time("kruskals", cities, 1, () ->
+      {
+        double miles = 0;
+        for (WeightedDirectedEdge edge : graph.kruskals())
+          miles += edge.weight();
+        return miles;
+      });
+    }//end of runAll() method
+
+    //one benchmark: warmup iterations, then the median of the measured ones, checked against the baseline
+    private void time(String name, int cities, int operations, Callable<Number> iteration)
+    {
+      try
+      {
+        double[] nanos = new double[measure];
+        String checksum = null;
+        for (int i = -warmup; i < measure; i++)
+        {
+          System.gc(); // so no iteration pays for the garbage of the one before
+          long start = System.nanoTime();
+          long elapsed;
+          int batches = 0;
+          do
+          {
+            checksum = String.format("%.2f", iteration.call().doubleValue());
+            batches++;
+          } while ((elapsed = System.nanoTime() - start) < ITERATION_NANOS);
+          if (i >= 0)
+            nanos[i] = (double) elapsed / ((long) operations * batches);
+        }
+        Arrays.sort(nanos);
+        double median = (measure % 2 == 1) ? nanos[measure / 2] : (nanos[measure / 2 - 1] + nanos[measure / 2]) / 2;
+
+        String key = name + " " + cities + " " + seed;
+        results.put(key, String.format("%.0f %s", median, checksum));
+        String verdict = "";
+        String[] base = expected.containsKey(key) ? expected.get(key).split(" ") : null;
+        if (base != null)
+        {
+          double ratio = median / Double.parseDouble(base[0]);
+          boolean sameWork = base[1].equals(checksum);
+          verdict = String.format("  %+6.1f%% %s", 100 * (ratio - 1),
+                                  !sameWork ? "CHECKSUM CHANGED (was " + base[1] + ")" : ratio > 1 + tolerance ? "REGRESSION" : "ok");
+          passed &= sameWork && ratio <= 1 + tolerance;
+        }
+        else if (baseline != null)
+          verdict = "  (not in baseline)";
+        System.out.printf("  %-14s %14.1f us/op (min %.1f), checksum %s%s%n", name, median / 1e3, nanos[0] / 1e3, checksum, verdict);
+      }
+      catch (Exception ex)
+      {
+        passed = false;
+        System.out.println("  " + name + " failed: " + ex);
+      }
+    }//end of time() method
+
+    //"name cities seed ns/op checksum" lines, '#' starts a comment
+    private Map<String, String> readResults(String fileName) throws IOException
+    {
+      Map<String, String> read = new HashMap<String, String>();
+      try (BufferedReader in = new BufferedReader(new FileReader(fileName)))
+      {
+        for (String line = in.readLine(); line != null; line = in.readLine())
+        {
+          String[] fields = line.trim().split("\\s+");
+          if (fields.length == 5 && !fields[0].startsWith("#"))
+            read.put(fields[0] + " " + fields[1] + " " + fields[2], fields[3] + " " + fields[4]);
+        }
+      }
+      return read;
+    }
+
+  }//END OF PRIVATE CLASS BenchmarkSuite
+
+  
+
+  /**
+  *  The <tt>GraphVersion</tt> class is one published state of a Digraph's
+  *  routes: the blocks array, the number of routes and a version number.
+  *  Nothing in a version changes after it is published, so a query that
+  *  took a version keeps seeing exactly those routes while edits publish
+  *  newer ones. Consecutive versions share every AdjacencyBlock an edit did
+  *  not touch. A version no query refers to any more is reclaimed by the
+  *  garbage collector; pin() and close() count the queries that hold an
+  *  old version, so STATS can show how many are still in use. A replaced
+  *  version is listed as retired only while it is pinned: the close() that
+  *  releases its last pin takes it off the list.
+  */
+  private static final class GraphVersion implements AutoCloseable
+  {
+    private final long number;
+    private final int e;
+    private final AdjacencyBlock[] blocks; // blocks[b] holds the routes leaving vertices b*BLOCK_SIZE and up
+    private final AtomicInteger pins = new AtomicInteger();
+    private volatile Set<GraphVersion> retiredIn; // the Digraph's retired set, once replaced while pinned
+
+    public GraphVersion(long number, int e, AdjacencyBlock[] blocks)
+    {
+      this.number = number;
+      this.e = e;
+      this.blocks = blocks;
+    }
+
+    //returns the block holding the routes leaving vertex x
+    public AdjacencyBlock block(int x)
+    {
+      return blocks[x >>> BLOCK_SHIFT];
+    }
+
+    //lists this replaced version in 'retired' for as long as it stays pinned
+    public void retire(Set<GraphVersion> retired)
+    {
+      retiredIn = retired;
+      retired.add(this);
+      if (pins.get() == 0)
+        retired.remove(this); // the last pin was released meanwhile, before retiredIn was set
+    }
+
+    //releases the pin taken by Digraph.pin()
+    public void close()
+    {
+      if (pins.decrementAndGet() == 0)
+      {
+        Set<GraphVersion> retired = retiredIn; // read after the count, so a retire() under way sees the zero
+        if (retired != null)
+          retired.remove(this);
+      }
+    }
+
+  }//END OF PRIVATE CLASS GraphVersion
+
+
+
+  /**
+  *  The <tt>Digraph</tt> class represents an directed graph of vertices
+  *  named 0 through v-1. It supports the following operations: add an edge to
+  *  the graph, iterate over all of edges leaving a vertex.Self-loops are
+  *  permitted.
+  *  The routes are stored in compressed sparse row form: parallel primitive
+  *  arrays split into blocks of BLOCK_SIZE vertices (see <tt>AdjacencyBlock</tt>).
+  *  The routes are versioned copy-on-write (see <tt>GraphVersion</tt>): an
+  *  edit copies only the blocks of the vertices it changes into a new
+  *  version, which is published with a single write of the version
+  *  reference, so searches never wait for edits and never see half of one.
+  *  edit() makes several route changes one version. Writers take turns on
+  *  writeLock, which also guards the route index.
+  *  Queries keep their working state in a per-thread <tt>SearchScratch</tt>
+  *  and return immutable <tt>Route</tt>s, so many threads can query one graph.
+  */
+  private class Digraph
+  {
+    private final int v; // number of verticies 
+    private volatile GraphVersion version; // the current routes
+    private final Object writeLock = new Object();
+    private RouteIndex index;        // (from,to) --> position among the routes leaving 'from', built on first use
+    private AdjacencyBlock[] staged; // the blocks of the version edit() is building, null outside edit()
+    private int stagedE;
+    private long[] changed = new long[16]; // routeKey()s changed by the edit() under way
+    private int changedCount;
+    private final Set<GraphVersion> retired = ConcurrentHashMap.newKeySet(); // replaced and still pinned
+    private final List<RouteListener> listeners = new CopyOnWriteArrayList<RouteListener>();
+
+
+    /**
+    * Create an empty digraph with v vertices.
+    */
+    public Digraph(int v) 
+    {
+      this(v, new RouteBuffer(0));
+    }
+
+    /**
+    * Create a digraph with v vertices holding every route in the buffer.
+    * Routes keep their buffer order within each vertex's adjacency list.
+    */
+    public Digraph(int v, RouteBuffer routes)
+    {
+      if (v < 0) throw new RuntimeException("Number of vertices must be nonnegative");
+      this.v = v;
+      AdjacencyBlock[] blocks = new AdjacencyBlock[(v + BLOCK_SIZE - 1) >>> BLOCK_SHIFT];
+
+      //counting sort of the routes by 'from' vertex: one pass for degrees, one to place
+      int[] start = new int[v + 1];
+      for (int i = 0; i < routes.size(); i++)
+      {
+        int from = routes.from[i];
+        if (from < 0 || from >= v || routes.to[i] < 0 || routes.to[i] >= v)
+          throw new RuntimeException("Route " + (from+1) + "-" + (routes.to[i]+1) + " is outside of 1-" + v);
+        start[from + 1]++;
+      }
+      for (int i = 0; i < v; i++)
+        start[i + 1] += start[i];
+
+      for (int b = 0; b < blocks.length; b++)
+      {
+        int first = b << BLOCK_SHIFT;
+        int n = Math.min(BLOCK_SIZE, v - first);
+        int base = start[first];
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i <= n; i++)
+          offsets[i] = start[first + i] - base;
+        blocks[b] = new AdjacencyBlock(offsets, offsets[n]);
+      }
+
+      int[] next = new int[v];
+      for (int i = 0; i < routes.size(); i++)
+      {
+        int from = routes.from[i];
+        AdjacencyBlock block = blocks[from >>> BLOCK_SHIFT];
+        int slot = block.offsets[from & BLOCK_MASK] + next[from]++;
+        block.targets[slot] = routes.to[i];
+        block.miles[slot] = routes.miles[i];
+        block.cost[slot] = routes.cost[i];
+      }
+      version = new GraphVersion(1, routes.size(), blocks);
+    }//end of Digraph(v, routes) constructor
+
+    /**
+    * Create a digraph over already built blocks, e.g. read from a snapshot.
+    */
+    public Digraph(int v, int e, AdjacencyBlock[] blocks)
+    {
+      if (blocks.length != (v + BLOCK_SIZE - 1) >>> BLOCK_SHIFT)
+        throw new RuntimeException("Expected " + ((v + BLOCK_SIZE - 1) >>> BLOCK_SHIFT) + " blocks for " + v + " vertices");
+      this.v = v;
+      version = new GraphVersion(1, e, blocks);
+    }
+
+    //the current routes; a query that reads them more than once keeps the version
+    public GraphVersion version()
+    {
+      return version;
+    }
+
+    //the current version, counted as in use until its close()
+    public GraphVersion pin()
+    {
+      while (true)
+      {
+        GraphVersion pinned = version;
+        pinned.pins.incrementAndGet();
+        if (pinned == version)
+          return pinned;
+        pinned.close(); // replaced meanwhile, perhaps while this pin kept it retired
+      }
+    }
+
+    public AdjacencyBlock[] blocks()
+    {
+      return version.blocks;
+    }
+
+    //number of routes
+    public int e()
+    {
+      return version.e;
+    }
+
+    //returns the block holding the routes leaving vertex x
+    public AdjacencyBlock block(int x)
+    {
+      return version.block(x);
+    }
+
+    //the current version number and the older versions queries still hold
+    public String versionStats()
+    {
+      synchronized (writeLock)
+      {
+        StringBuilder out = new StringBuilder("routes: version " + version.number + ", " + version.e + " directed routes");
+        if (version.pins.get() > 0)
+          out.append(", pinned by ").append(version.pins.get()).append(" query(ies)");
+        ArrayList<GraphVersion> pinned = new ArrayList<GraphVersion>(retired);
+        pinned.sort((a, b) -> Long.compare(a.number, b.number));
+        for (GraphVersion old : pinned)
+          out.append("; version ").append(old.number).append(" still pinned by ").append(old.pins.get()).append(" query(ies)");
+        return out.toString();
+      }
+    }
+
+    /**
+    * Runs 'edits' (calls of addEdge(), removeEdge(), updateEdge() and
+    * applyBatch()) as one change. They build the next version on a private
+    * copy of the blocks array, which is published with one write of the
+    * version reference once they are all done; listeners then hear about
+    * every changed route, in order, before the next writer starts. An edit
+    * that throws publishes nothing. Inside edit() the edits run directly.
+    */
+    public void edit(Runnable edits)
+    {
+      synchronized (writeLock)
+      {
+        if (staged != null)
+        {
+          edits.run(); // part of an edit() already under way on this thread
+          return;
+        }
+        GraphVersion old = version;
+        staged = old.blocks.clone();
+        stagedE = old.e;
+        changedCount = 0;
+        try
+        {
+          edits.run();
+          if (changedCount > 0)
+          {
+            version = new GraphVersion(old.number + 1, stagedE, staged);
+            if (old.pins.get() > 0)
+              old.retire(retired);
+          }
+        }
+        catch (RuntimeException ex)
+        {
+          index = null; // it may hold part of the abandoned edit; rebuilt from the current version
+          throw ex;
+        }
+        finally
+        {
+          staged = null;
+        }
+
+        if (changedCount > 2 * BATCH_EVENT_LIMIT) // two directed routes per route edit
+        {
+          for (RouteListener listener : listeners)
+            listener.routesReplaced();
+        }
+        else
+        {
+          for (int i = 0; i < changedCount; i++)
+            fireRouteChanged((int) (changed[i] >>> 32), (int) changed[i]);
+        }
+      }
+    }//end of edit() method
+
+    //the block of vertex x in the version being edited
+    private AdjacencyBlock stagedBlock(int x)
+    {
+      return staged[x >>> BLOCK_SHIFT];
+    }
+
+    //replaces the block of vertex x in the version being edited and notes the changed route
+    private void stage(int x, AdjacencyBlock block, int to)
+    {
+      staged[x >>> BLOCK_SHIFT] = block;
+      if (changedCount == changed.length)
+        changed = Arrays.copyOf(changed, 2 * changedCount);
+      changed[changedCount++] = routeKey(x, to);
+    }
+
+    /**
+    * Add the edge e to this digraph.
+    */
+    public void addEdge(WeightedDirectedEdge edge) 
+    {
+      edit(() -> stageAdd(edge));
+    }
+
+    public void removeEdge(WeightedDirectedEdge edge) 
+    {
+      edit(() -> stageRemove(edge));
+    }
+
+    //sets the miles and cost of an existing edge, returns false if the edge is not in graph
+    public boolean updateEdge(WeightedDirectedEdge edge)
+    {
+      boolean[] found = new boolean[1];
+      edit(() -> found[0] = stageUpdate(edge));
+      return found[0];
+    }
+
+    private void stageAdd(WeightedDirectedEdge edge) 
+    {
+      int from = edge.from();
+      AdjacencyBlock old = stagedBlock(from);
+      int local = from & BLOCK_MASK;
+      int at = old.offsets[local + 1]; // appended after the last route leaving 'from'
+
+      AdjacencyBlock block = new AdjacencyBlock(old.offsets.clone(), old.size() + 1);
+      for (int i = local + 1; i < block.offsets.length; i++)
+        block.offsets[i]++;
+      block.copyFrom(old, 0, 0, at);
+      block.targets[at] = edge.to();
+      block.miles[at] = edge.weight();
+      block.cost[at] = edge.cost();
+      block.copyFrom(old, at, at + 1, old.size() - at);
+
+      stage(from, block, edge.to());
+      stagedE++;
+      if (index != null)
+        index.putIfAbsent(routeKey(from, edge.to()), at - old.offsets[local]);
+    }
+
+    private void stageRemove(WeightedDirectedEdge edge) 
+    {
+      int from = edge.from();
+      long key = routeKey(from, edge.to());
+      int position = index().get(key);
+      if (position < 0)
+        return;
+
+      AdjacencyBlock old = stagedBlock(from);
+      int local = from & BLOCK_MASK;
+      int at = old.offsets[local] + position;
+
+      AdjacencyBlock block = new AdjacencyBlock(old.offsets.clone(), old.size() - 1);
+      for (int i = local + 1; i < block.offsets.length; i++)
+        block.offsets[i]--;
+      block.copyFrom(old, 0, 0, at);
+      block.copyFrom(old, at + 1, at, old.size() - at - 1);
+
+      stage(from, block, edge.to());
+      stagedE--;
+
+      //the routes after the removed one each moved down one position
+      index.remove(key);
+      for (int i = at; i < block.offsets[local + 1]; i++)
+      {
+        long moved = routeKey(from, block.targets[i]);
+        int p = i - block.offsets[local];
+        if (index.get(moved) == p + 1)
+          index.put(moved, p);
+        else if (moved == key && index.get(key) < 0)
+          index.put(key, p); // a duplicate route now becomes the indexed one
+      }
+    }
+
+    private boolean stageUpdate(WeightedDirectedEdge edge)
+    {
+      int from = edge.from();
+      int position = index().get(routeKey(from, edge.to()));
+      if (position < 0)
+        return false;
+
+      AdjacencyBlock old = stagedBlock(from);
+      int at = old.first(from) + position;
+      AdjacencyBlock block = new AdjacencyBlock(old.offsets, old.size());
+      block.copyFrom(old, 0, 0, old.size());
+      block.miles[at] = edge.weight();
+      block.cost[at] = edge.cost();
+      stage(from, block, edge.to());
+      return true;
+    }
+
+    //returns true if edge is in graph
+    public boolean containsEdge(WeightedDirectedEdge edge)
+    {
+      return containsRoute(edge.from(), edge.to());
+    }
+
+    //looks the route up in the writers' index, so it waits for an edit under way
+    public boolean containsRoute(int from, int to)
+    {
+      synchronized (writeLock)
+      {
+        return index().get(routeKey(from, to)) >= 0;
+      }
+    }
+
+    public WeightedDirectedEdge findEdge(WeightedDirectedEdge edge)
+    {
+      int from = edge.from();
+      synchronized (writeLock)
+      {
+        int position = index().get(routeKey(from, edge.to()));
+        if (position < 0)
+          return null;
+        AdjacencyBlock block = (staged != null) ? stagedBlock(from) : block(from);
+        int at = block.first(from) + position;
+        return new WeightedDirectedEdge(from, edge.to(), block.miles[at], block.cost[at]);
+      }
+    }//end of findEdge() method
+
+    //the blocks index() describes: the version being edited if there is one; the caller holds writeLock
+    private AdjacencyBlock[] indexedBlocks()
+    {
+      return (staged != null) ? staged : version.blocks;
+    }
+
+    //builds the route index the first time a route is looked up, added or removed,
+    //from the version being edited if there is one; the caller holds writeLock
+    private RouteIndex index()
+    {
+      if (index == null)
+      {
+        AdjacencyBlock[] blocks = indexedBlocks();
+        RouteIndex built = new RouteIndex((staged != null) ? stagedE : version.e);
+        for (int x = 0; x < v; x++)
+        {
+          AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+          int first = block.first(x);
+          for (int i = first, end = block.end(x); i < end; i++)
+            built.putIfAbsent(routeKey(x, block.targets[i]), i - first);
+        }
+        index = built;
+      }
+      return index;
+    }//end of index() method
+
+    /**
+    * Validate the batch and, if it has no problems, apply every edit in one
+    * pass, both inside one edit() so no other writer comes in between. Each
+    * block with a changed vertex is rebuilt once, the new blocks are
+    * published as one version and the route index is rebuilt on its next
+    * use. Returns the problems found; nothing is applied unless it is empty.
+    */
+    public List<String> applyBatch(RouteBatch batch)
+    {
+      ArrayList<String> problems = new ArrayList<String>();
+      edit(() ->
+      {
+        problems.addAll(batch.validate(this));
+        if (problems.isEmpty())
+          stageBatch(batch);
+      });
+      return problems;
+    }
+
+    private void stageBatch(RouteBatch batch)
+    {
+      //each route edit touches both directions; sort the directed edits by
+      //'from' vertex, keeping the file order for edits of the same vertex
+      long[] order = new long[2 * batch.size()];
+      for (int i = 0; i < batch.size(); i++)
+      {
+        RouteEdit edit = batch.get(i);
+        order[2*i] = ((long) edit.from << 32) | (2*i);
+        order[2*i + 1] = ((long) edit.to << 32) | (2*i + 1);
+      }
+      Arrays.sort(order);
+
+      int edges = stagedE;
+      int k = 0;
+      while (k < order.length)
+      {
+        int b = (int) (order[k] >>> 32) >>> BLOCK_SHIFT;
+        AdjacencyBlock old = staged[b];
+        int first = b << BLOCK_SHIFT;
+        int n = old.offsets.length - 1;
+        RouteBuffer routes = new RouteBuffer(old.size() + 16);
+        int[] offsets = new int[n + 1];
+
+        for (int local = 0; local < n; local++)
+        {
+          int x = first + local;
+          offsets[local] = routes.size();
+          for (int i = old.offsets[local]; i < old.offsets[local + 1]; i++)
+            routes.add(x, old.targets[i], old.miles[i], old.cost[i]);
+
+          for (; k < order.length && (int) (order[k] >>> 32) == x; k++)
+          {
+            int seq = (int) order[k];
+            RouteEdit edit = batch.get(seq / 2);
+            int to = (seq % 2 == 0) ? edit.to : edit.from;
+            int at = routes.find(offsets[local], x, to);
+            if (changedCount == changed.length)
+              changed = Arrays.copyOf(changed, 2 * changedCount);
+            changed[changedCount++] = routeKey(x, to);
+            if (edit.type == EditType.REMOVE)
+            {
+              if (at >= 0)
+              {
+                routes.remove(at);
+                edges--;
+              }
+            }
+            else if (at >= 0 && edit.type == EditType.UPDATE)
+            {
+              routes.miles[at] = edit.miles;
+              routes.cost[at] = edit.cost;
+            }
+            else
+            {
+              routes.add(x, to, edit.miles, edit.cost);
+              edges++;
+            }
+          }//end of edits for vertex x
+        }
+        offsets[n] = routes.size();
+
+        AdjacencyBlock block = new AdjacencyBlock(offsets, routes.size());
+        System.arraycopy(routes.to, 0, block.targets, 0, routes.size());
+        System.arraycopy(routes.miles, 0, block.miles, 0, routes.size());
+        System.arraycopy(routes.cost, 0, block.cost, 0, routes.size());
+        staged[b] = block;
+      }//end of while loop over changed blocks
+
+      stagedE = edges;
+      index = null;
+    }//end of stageBatch() method
+
+    public void addListener(RouteListener listener)
+    {
+      listeners.add(listener);
+    }
+
+    private void fireRouteChanged(int from, int to)
+    {
+      for (RouteListener listener : listeners)
+        listener.routeChanged(from, to);
+    }
+
+
+    /**
+    * Return the edges leaving vertex v as an Iterable.
+    * To iterate over the edges leaving vertex v, use foreach notation:
+    * <tt>for (WeightedDirectedEdge e : graph.adj(v))</tt>.
+    * The edge objects are created on the fly, so the queries below read the
+    * block arrays directly instead.
+    */
+    public Iterable<WeightedDirectedEdge> adj(int v) 
+    {
+      AdjacencyBlock block = block(v);
+      int first = block.first(v);
+      int end = block.end(v);
+      ArrayList<WeightedDirectedEdge> edges = new ArrayList<WeightedDirectedEdge>(end - first);
+      for (int i = first; i < end; i++)
+        edges.add(new WeightedDirectedEdge(v, block.targets[i], block.miles[i], block.cost[i]));
+      return edges;
+    }
+
+
+    //breadth first search -->  used for shortestHops() method in QUERIE 3c
+    //stops as soon as the destination is reached (destination -1 searches the whole graph)
+    public Route bfs(int source, int destination) 
+    {
+      SearchScratch s = breadthFirst(source, destination);
+      return s.route(source, destination, destination >= 0 && s.isReached(destination));
+    }
+
+    //the search behind bfs(), returning the calling thread's scratch with the reached vertices
+    private SearchScratch breadthFirst(int source, int destination) 
+    {
+      AdjacencyBlock[] blocks = version.blocks; // the whole search runs on one version of the routes
+      SearchScratch s = scratch(this.v);
+      int[] queue = s.queue;
+      int head = 0;
+      int tail = 0;
+      s.reach(source, 0, -1);
+      queue[tail++] = source;
+
+      while (head < tail && (destination < 0 || !s.isReached(destination))) 
+      {
+        int v = queue[head++];
+        AdjacencyBlock block = blocks[v >>> BLOCK_SHIFT];
+        int first = block.first(v);
+        int end = block.end(v);
+        if (METRICS)
+          s.relaxed += end - first;
+        for (int i = first; i < end; i++) 
+        {
+          int to = block.targets[i];
+          if (!s.isReached(to)) 
+          {
+            s.reach(to, s.dist[v] + 1, v);
+            queue[tail++] = to;
+          }//end of if statement
+        }//end of for loop
+      }//end of while() loop
+      if (METRICS)
+        s.settledBefore += head; // a breadth first search scans its cities without settling them
+      return s;
+    }//end of breadthFirst() method
+
+
+    //budget trip search --> used for superSaver() method (QUERIE #4)
+    //passes every simple path leaving 'source' whose total price is at most 'budget' to the sink.
+    //The path is kept on an explicit stack: s.queue[] holds the cities, s.edgeTo[] the next arc
+    //to try at each depth and s.dist[] the price so far; s.settle() marks the cities on the path
+    public void trips(int source, double budget, TripSink sink)
+    {
+      trips(version, source, budget, sink);
+    }
+
+    //the same on a version the caller pinned, so the trips from every source see the same routes
+    public void trips(GraphVersion routes, int source, double budget, TripSink sink)
+    {
+      AdjacencyBlock[] blocks = routes.blocks;
+      SearchScratch s = scratch(this.v);
+      int[] path = s.queue;
+      int[] next = s.edgeTo;
+      double[] price = s.dist;
+
+      int depth = 0;
+      path[0] = source;
+      next[0] = blocks[source >>> BLOCK_SHIFT].first(source);
+      price[0] = 0;
+      s.settle(source);
+      while (depth >= 0)
+      {
+        int v = path[depth];
+        AdjacencyBlock block = blocks[v >>> BLOCK_SHIFT];
+        int end = block.end(v);
+        int i = next[depth];
+        while (i < end && (s.isSettled(block.targets[i]) || price[depth] + block.cost[i] > budget))
+          i++; // prune: the city is already on the path or the fare is over budget
+        if (METRICS)
+          s.relaxed += Math.min(i + 1, end) - next[depth];
+        if (i == end)
+        {
+          s.unsettle(v);
+          depth--;
+          continue;
+        }
+        next[depth] = i + 1;
+
+        int to = block.targets[i];
+        depth++;
+        path[depth] = to;
+        price[depth] = price[depth - 1] + block.cost[i];
+        next[depth] = blocks[to >>> BLOCK_SHIFT].first(to);
+        s.settle(to);
+        sink.trip(path, depth + 1, price[depth]);
+      }
+    }//end of trips() method
+
+    //dijkstras used for shortestDistance() method in QUERIE 3a
+    public Route dijkstras(int source, int destination) 
+    {
+      return shortestPath(source, destination, false);
+    }//end of dijkstras() mehtod
+
+    //dijkstras used for shortestCost() method in QUERIE 3b
+    public Route dijkstrasCost(int source, int destination) 
+    {
+      return shortestPath(source, destination, true);
+    }//end of dijkstrasCost() mehtod
+
+    private Route shortestPath(int source, int destination, boolean byCost)
+    {
+      SearchScratch s = search(source, destination, byCost);
+      return s.route(source, destination, destination >= 0 && s.isSettled(destination));
+    }
+
+    /* Shared engine behind dijkstras() and dijkstrasCost(). byCost selects the
+       metric (false --> miles, true --> price). The next vertex to settle comes
+       off an indexed min-heap instead of a scan of every vertex, and the search
+       stops as soon as the destination is settled (destination -1 settles the
+       whole graph). All working state lives in the calling thread's
+       SearchScratch, which is returned holding the settled vertices, their
+       distances and edgeTo[]. */
+    private SearchScratch search(int source, int destination, boolean byCost)
+    {
+      AdjacencyBlock[] blocks = version.blocks; // the whole search runs on one version of the routes
+      SearchScratch s = scratch(this.v);
+      IndexMinPQ pq = s.heap;
+      s.reach(source, 0, -1);
+      pq.insert(source, 0);
+
+      while (!pq.isEmpty()) 
+      {
+        int current = pq.delMin();
+        s.settle(current);
+        if(current == destination)
+          break;
+
+        double base = s.dist[current];
+        AdjacencyBlock block = blocks[current >>> BLOCK_SHIFT];
+        int first = block.first(current);
+        int end = block.end(current);
+        if (METRICS)
+          s.relaxed += end - first;
+        for (int i = first; i < end; i++) 
+        {
+          int to = block.targets[i];
+          if(s.isSettled(to))
+            continue;
+
+          double candidate = base + (byCost ? block.cost[i] : block.miles[i]);
+          if (!s.isReached(to))
+          {
+            s.reach(to, candidate, current);
+            pq.insert(to, candidate);
+          }
+          else if (candidate < s.dist[to]) 
+          {
+            s.reach(to, candidate, current);
+            pq.decreaseKey(to, candidate);
+          }
+        }//end of for() loop
+      }//end of while() loop
+
+      pq.clear();
+      return s;
+    }//end of search() method
+
+    //the complete shortest path tree from 'source' by the given metric
+    public PathTree pathTree(int source, Metric metric)
+    {
+      SearchScratch s = (metric == Metric.HOPS) ? breadthFirst(source, -1) : search(source, -1, metric == Metric.PRICE);
+      double[] dist = new double[v];
+      int[] edgeTo = new int[v];
+      for (int x = 0; x < v; x++)
+      {
+        boolean done = (metric == Metric.HOPS) ? s.isReached(x) : s.isSettled(x);
+        dist[x] = done ? s.dist[x] : Double.POSITIVE_INFINITY;
+        edgeTo[x] = done ? s.edgeTo[x] : -1;
+      }
+      return new PathTree(source, metric, dist, edgeTo);
+    }
+
+    //returns the edges of a minimum spanning forest by miles, in the order they were chosen.
+    //Each route becomes a packed (miles, candidate) long so the sort is a primitive parallel sort;
+    //ties go to the route leaving the lower numbered city, then to the earlier adjacency position
+    public ArrayList<WeightedDirectedEdge> kruskals()
+    {
+      SpanningCandidates candidates = new SpanningCandidates(this);
+      long[] keys = candidates.keys();
+      Arrays.parallelSort(keys);
+
+      ArrayList<WeightedDirectedEdge> mstEdges = new ArrayList<WeightedDirectedEdge>();
+      UF uf = new UF(v);
+      for (int k = 0; k < keys.length && mstEdges.size() < v - 1; k++)
+      {
+        int c = (int) keys[k];
+        //add the edge to the MST if it doesn't form a cycle
+        if (!uf.union(candidates.to[c], candidates.from[c]))
+          mstEdges.add(candidates.edge(c));
+      }
+      return mstEdges;
+    }//end of kruskals() method
+
+    //the same forest as kruskals(), found by Boruvka rounds that run in parallel: every
+    //component picks its smallest key leaving it, all picks are joined, and routes that
+    //now lie inside one component are filtered out before the next round
+    public ArrayList<WeightedDirectedEdge> boruvka()
+    {
+      SpanningCandidates candidates = new SpanningCandidates(this);
+      long[] keys = candidates.keys();
+      UF uf = new UF(v);
+      int[] root = new int[v];
+      AtomicLongArray best = new AtomicLongArray(v);
+      long[] chosen = new long[Math.max(0, v - 1)];
+      int count = 0;
+
+      for (int x = 0; x < v; x++)
+        root[x] = x;
+      while (keys.length > 0)
+      {
+        for (int x = 0; x < v; x++)
+          best.set(x, Long.MAX_VALUE);
+        long[] live = keys;
+        IntStream.range(0, live.length).parallel().forEach(k ->
+        {
+          int c = (int) live[k];
+          lowerTo(best, root[candidates.from[c]], live[k]);
+          lowerTo(best, root[candidates.to[c]], live[k]);
+        });
+        for (int x = 0; x < v; x++)
+        {
+          long key = best.get(x);
+          if (key != Long.MAX_VALUE && root[x] == x)
+          {
+            int c = (int) key;
+            if (!uf.union(candidates.from[c], candidates.to[c]))
+              chosen[count++] = key;
+          }
+        }
+        for (int x = 0; x < v; x++)
+          root[x] = uf.find(x);
+        keys = Arrays.stream(keys).parallel()
+                     .filter(key -> root[candidates.from[(int) key]] != root[candidates.to[(int) key]])
+                     .toArray();
+      }
+
+      Arrays.parallelSort(chosen, 0, count);
+      ArrayList<WeightedDirectedEdge> mstEdges = new ArrayList<WeightedDirectedEdge>(count);
+      for (int k = 0; k < count; k++)
+        mstEdges.add(candidates.edge((int) chosen[k]));
+      return mstEdges;
+    }//end of boruvka() method
+
+    //lowers best[i] to 'key' unless it already holds a smaller one
+    private void lowerTo(AtomicLongArray best, int i, long key)
+    {
+      long current;
+      while (key < (current = best.get(i)) && !best.compareAndSet(i, current, key))
+        ;
+    }
+
+  }//END OF PRIVATE CLASS Digraph
+
+
+
+  /**
+  *  The <tt>RouteFileLoader</tt> class reads a route file: the number of
+  *  cities, one city name per line, then one 'from to miles cost' route per
+  *  line (cities numbered from 1). Bytes are read through a FileChannel into
+  *  a large buffer and numbers are parsed by hand; a first pass counts the
+  *  lines so the route arrays are allocated once at their final size.
+  */
+  private class RouteFileLoader
+  {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] bytes = buffer.array();
+    private int pos;
+    private int limit;
+    private int line = 1;
+    private byte[] text = new byte[64]; // current city name or number being decoded
+
+    private String[] names;
+    private Digraph graph;
+    private int routeCount;
+    private long nanos;
+
+    public RouteFileLoader(String fileName) throws IOException
+    {
+      long start = System.nanoTime();
+      channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+      try
+      {
+        long lines = countLines();
+        channel.position(0);
+        limit = pos = 0;
+
+        int v = Integer.parseInt(readLine().trim());
+        names = new String[v];
+        for(int i = 0; i < v; i++)
+        {
+          names[i] = readLine();
+        }
+
+        RouteBuffer routes = new RouteBuffer((int) Math.min(Integer.MAX_VALUE - 8, 2 * Math.max(0, lines - v)));
+        while(skipWhitespace())
+        {
+          int from = parseInt();
+          int to = parseInt();
+          int weight = parseInt(); // weight (miles) of 'from-to' on graph
+          double cost = parseDouble(); // cost of 'from-to' on graph
+          routes.add(from-1, to-1, weight, cost);
+          routes.add(to-1, from-1, weight, cost);//makes the graph bi-directional by adding 'complementary' path
+          routeCount++;
+          skipLine();
+        }
+        graph = new Digraph(v, routes);
+      }
+      finally
+      {
+        channel.close();
+      }
+      nanos = System.nanoTime() - start;
+    }//end of RouteFileLoader constructor
+
+    public String[] cityNames()
+    {
+      return names;
+    }
+
+    public Digraph graph()
+    {
+      return graph;
+    }
+
+    //number of route lines read (each becomes two directed edges)
+    public int routes()
+    {
+      return routeCount;
+    }
+
+    public double millis()
+    {
+      return nanos / 1e6;
+    }
+
+    private long countLines() throws IOException
+    {
+      long lines = 1;
+      while(fill())
+      {
+        for(int i = 0; i < limit; i++)
+        {
+          if(bytes[i] == '\n')
+            lines++;
+        }
+      }
+      return lines;
+    }
+
+    //refills the buffer, returns false at the end of the file
+    private boolean fill() throws IOException
+    {
+      buffer.clear();
+      int n = channel.read(buffer);
+      pos = 0;
+      limit = Math.max(n, 0);
+      return n > 0;
+    }
+
+    private int peek() throws IOException
+    {
+      if(pos == limit && !fill())
+        return -1;
+      return bytes[pos];
+    }
+
+    //the rest of the current line without its line terminator, like Scanner.nextLine()
+    private String readLine() throws IOException
+    {
+      int length = 0;
+      int c;
+      while((c = peek()) != -1)
+      {
+        pos++;
+        if(c == '\n')
+          break;
+        if(length == text.length)
+          text = Arrays.copyOf(text, 2 * length);
+        text[length++] = (byte) c;
+      }
+      if(c == -1 && length == 0)
+        throw new RuntimeException("Route file ended at line " + line + ", expected a city name");
+      line++;
+      if(length > 0 && text[length - 1] == '\r')
+        length--;
+      return new String(text, 0, length, Charset.defaultCharset());
+    }
+
+    //skips spaces and line breaks, returns false at the end of the file
+    private boolean skipWhitespace() throws IOException
+    {
+      int c;
+      while((c = peek()) != -1)
+      {
+        if(c == '\n')
+          line++;
+        else if(c != ' ' && c != '\t' && c != '\r')
+          return true;
+        pos++;
+      }
+      return false;
+    }
+
+    private void skipLine() throws IOException
+    {
+      int c;
+      while((c = peek()) != -1)
+      {
+        pos++;
+        if(c == '\n')
+        {
+          line++;
+          return;
+        }
+      }
+    }
+
+    //copies the next whitespace separated token into text[], returns its length
+    private int token() throws IOException
+    {
+      if(!skipWhitespace())
+        throw new RuntimeException("Route file ended at line " + line + ", expected a number");
+      int length = 0;
+      int c;
+      while((c = peek()) > ' ')
+      {
+        if(length == text.length)
+          text = Arrays.copyOf(text, 2 * length);
+        text[length++] = (byte) c;
+        pos++;
+      }
+      return length;
+    }
+
+    private int parseInt() throws IOException
+    {
+      int length = token();
+      int i = (text[0] == '-' || text[0] == '+') ? 1 : 0;
+      if(i == length || length - i > 9)
+        return Integer.parseInt(tokenString(length));
+      int value = 0;
+      for(; i < length; i++)
+      {
+        int digit = text[i] - '0';
+        if(digit < 0 || digit > 9)
+          throw badNumber(length);
+        value = value * 10 + digit;
+      }
+      return text[0] == '-' ? -value : value;
+    }
+
+    /* Plain decimals with at most 15 significant digits are exact as a long
+       mantissa, and dividing by an exact power of ten rounds the same way as
+       Double.parseDouble. Anything else (exponents, long fractions) falls back
+       to Double.parseDouble. */
+    private double parseDouble() throws IOException
+    {
+      int length = token();
+      int i = (text[0] == '-' || text[0] == '+') ? 1 : 0;
+      long mantissa = 0;
+      int digits = 0;    // significant digits so far
+      int fraction = -1; // digits after the decimal point, -1 before one is seen
+      boolean sawDigit = false;
+      for(; i < length; i++)
+      {
+        int c = text[i];
+        if(c == '.' && fraction < 0)
+        {
+          fraction = 0;
+          continue;
+        }
+        int digit = c - '0';
+        if(digit < 0 || digit > 9 || digits == 15 || fraction == 15)
+          return Double.parseDouble(tokenString(length));
+        mantissa = mantissa * 10 + digit;
+        sawDigit = true;
+        if(mantissa != 0)
+          digits++;
+        if(fraction >= 0)
+          fraction++;
+      }
+      if(!sawDigit)
+        throw badNumber(length);
+      double value = (fraction > 0) ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+      return text[0] == '-' ? -value : value;
+    }
+
+    private String tokenString(int length)
+    {
+      return new String(text, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private RuntimeException badNumber(int length)
+    {
+      return new RuntimeException("Route file line " + line + ": '" + tokenString(length) + "' is not a number");
+    }
+
+  }//END OF PRIVATE CLASS RouteFileLoader
+
+
+
+  /**
+  *  The <tt>CityDirectory</tt> class finds cities by what a user types: a
+  *  city number (1-based), a whole name, or the start of a name, all without
+  *  regard to case. Whole names are looked up in a HashMap; prefixes by
+  *  binary search in the names sorted once at load time, so completing a
+  *  prefix costs O(log V) plus the matches listed and nothing ever has to
+  *  print every city. The directory is immutable and shared by all threads.
+  */
+  private static final class CityDirectory
+  {
+    private static final int SUGGESTIONS = 10; // matches named when a prefix is ambiguous
+    private final String[] names;
+    private final HashMap<String, Integer> byName; // lower case name --> first city with that name
+    private final String[] keys;                   // lower case names in sorted order
+    private final int[] ids;                       // ids[i] is the city named keys[i]
+
+    public CityDirectory(String[] names)
+    {
+      this.names = names;
+      int v = names.length;
+      byName = new HashMap<String, Integer>(Math.max(16, (int) (v / 0.75f) + 1));
+      String[] lower = new String[v];
+      Integer[] order = new Integer[v];
+      for (int i = 0; i < v; i++)
+      {
+        lower[i] = key(names[i]);
+        byName.putIfAbsent(lower[i], i);
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> lower[a].compareTo(lower[b])); // stable: equal names stay in city order
+      keys = new String[v];
+      ids = new int[v];
+      for (int i = 0; i < v; i++)
+      {
+        ids[i] = order[i];
+        keys[i] = lower[ids[i]];
+      }
+    }
+
+    public int size()
+    {
+      return names.length;
+    }
+
+    //the city with exactly this name (ignoring case), -1 if there is none
+    public int find(String name)
+    {
+      Integer id = byName.get(key(name));
+      return (id == null) ? -1 : id;
+    }
+
+    //the number of cities whose name starts with 'prefix'
+    public int count(String prefix)
+    {
+      return from(prefix, true) - from(prefix, false);
+    }
+
+    //the first 'limit' cities, in name order, whose name starts with 'prefix'
+    public int[] complete(String prefix, int limit)
+    {
+      int first = from(prefix, false);
+      return Arrays.copyOfRange(ids, first, first + Math.min(limit, from(prefix, true) - first));
+    }
+
+    //the city meant by a number or a whole name, as a data file must give it
+    public int exact(String text)
+    {
+      String field = text.trim();
+      if (field.matches("\\d{1,9}"))
+        return resolve(field);
+      int city = find(field);
+      if (city < 0)
+        throw new IllegalArgumentException("no city is named '" + field + "'");
+      return city;
+    }
+
+    //the one city meant by a number, a whole name or an unambiguous prefix
+    public int resolve(String text)
+    {
+      String field = text.trim();
+      if (field.isEmpty())
+        throw new IllegalArgumentException("no city given");
+      if (field.matches("\\d{1,9}"))
+      {
+        int city = Integer.parseInt(field);
+        if (city < 1 || city > names.length)
+          throw new IllegalArgumentException("city " + field + " is not in 1-" + names.length);
+        return city - 1;
+      }
+      int exact = find(field);
+      if (exact >= 0)
+        return exact;
+      int matches = count(field);
+      if (matches == 1)
+        return complete(field, 1)[0];
+      if (matches == 0)
+        throw new IllegalArgumentException("no city name starts with '" + field + "'");
+      throw new IllegalArgumentException("'" + field + "' matches " + matches + " cities: " + suggest(field));
+    }
+
+    //up to SUGGESTIONS of the cities starting with 'prefix', as "Name (number)"
+    public String suggest(String prefix)
+    {
+      int matches = count(prefix);
+      StringBuilder out = new StringBuilder();
+      for (int id : complete(prefix, SUGGESTIONS))
+        out.append(out.length() == 0 ? "" : ", ").append(names[id]).append(" (").append(id + 1).append(')');
+      if (matches > SUGGESTIONS)
+        out.append(", ... ").append(matches - SUGGESTIONS).append(" more");
+      return out.toString();
+    }
+
+    //the index in keys[] of the first name starting with 'prefix' (past == false) or of the first one after them
+    private int from(String prefix, boolean past)
+    {
+      String low = key(prefix);
+      int lo = 0;
+      int hi = keys.length;
+      while (lo < hi)
+      {
+        int mid = (lo + hi) >>> 1;
+        int order = keys[mid].compareTo(low);
+        boolean before = (order < 0) || (past && keys[mid].startsWith(low));
+        if (before)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo;
+    }
+
+    private static String key(String name)
+    {
+      return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+  }//END OF PRIVATE CLASS CityDirectory
+
+
+
+  /**
+  *  The <tt>Timetable</tt> class holds the scheduled flights of the routes
+  *  and answers "when is the earliest I can arrive?" by the Connection Scan
+  *  Algorithm. Every flight is a connection (from, to, departure, arrival)
+  *  in minutes after midnight, kept in four parallel int arrays sorted by
+  *  departure. An earliest arrival query is one forward sweep over the
+  *  connections leaving after the departure time, and a profile query (the
+  *  best arrival for every departure of the day) one backward sweep, so
+  *  both read contiguous memory instead of popping cities off a heap. The
+  *  flights run every day: a sweep goes over the day's connections again
+  *  for each further day, so journeys may last up to DAYS calendar days.
+  *  Changing flights takes MIN_CONNECTION minutes. A Timetable never
+  *  changes; restrictTo() copies it without the flights of removed routes.
+  *
+  *  The file has one flight per line, cities by number or whole name; an arrival
+  *  earlier than the departure is on the next day. Blank lines and '#'
+  *  comments are skipped:
+  *  <pre>
+  *    from to departure arrival          e.g.  Berlin Rome 08:15 10:20
+  *  </pre>
+  */
+  private static final class Timetable
+  {
+    private static final int DAY = 24 * 60;
+    private static final int DAYS = 3;            // calendar days a journey may span
+    private static final int MIN_CONNECTION = 30; // minutes between arriving and the next departure
+    private final int v;
+    private final int[] from;
+    private final int[] to;
+    private final int[] departure; // ascending, within the day
+    private final int[] arrival;   // after the departure, possibly on a later day
+
+    private Timetable(int v, int[] from, int[] to, int[] departure, int[] arrival)
+    {
+      this.v = v;
+      this.from = from;
+      this.to = to;
+      this.departure = departure;
+      this.arrival = arrival;
+    }
+
+    //the first 'flights' flights of the arrays, in any order; departure[i] < DAY and arrival[i] > departure[i]
+    public static Timetable of(int v, int[] from, int[] to, int[] departure, int[] arrival, int flights)
+    {
+      long[] keys = new long[flights]; // departure, then flight number, so the sort is stable
+      for (int i = 0; i < flights; i++)
+        keys[i] = ((long) departure[i] << 32) | i;
+      Arrays.sort(keys);
+      Timetable timetable = new Timetable(v, new int[flights], new int[flights], new int[flights], new int[flights]);
+      for (int c = 0; c < flights; c++)
+      {
+        int i = (int) keys[c];
+        timetable.from[c] = from[i];
+        timetable.to[c] = to[i];
+        timetable.departure[c] = departure[i];
+        timetable.arrival[c] = arrival[i];
+      }
+      return timetable;
+    }
+
+    //reads a timetable file; every flight must fly one of the routes of 'graph'
+    public static Timetable read(String fileName, CityDirectory cities, Digraph graph) throws IOException
+    {
+      int[] flight = new int[4 * 1024]; // from, to, departure, arrival of each flight
+      int flights = 0;
+      BufferedReader reader = new BufferedReader(new FileReader(fileName), 1 << 16);
+      try
+      {
+        String line;
+        int number = 0;
+        while((line = reader.readLine()) != null)
+        {
+          number++;
+          line = line.trim();
+          if(line.isEmpty() || line.startsWith("#"))
+            continue;
+          String[] fields = line.split("\\s+");
+          try
+          {
+            if(fields.length != 4)
+              throw new IllegalArgumentException("expected 'from to departure arrival'");
+            int a = cities.exact(fields[0]);
+            int b = cities.exact(fields[1]);
+            int departs = parseClock(fields[2]);
+            int arrives = parseClock(fields[3]);
+            if(arrives <= departs)
+              arrives += DAY;
+            if(!graph.containsRoute(a, b))
+              throw new IllegalArgumentException("there is no route " + fields[0] + "-" + fields[1]);
+            if(4 * flights == flight.length)
+              flight = Arrays.copyOf(flight, 2 * flight.length);
+            flight[4 * flights] = a;
+            flight[4 * flights + 1] = b;
+            flight[4 * flights + 2] = departs;
+            flight[4 * flights + 3] = arrives;
+            flights++;
+          }
+          catch(IllegalArgumentException ex)
+          {
+            throw new IOException("line " + number + ": " + ex.getMessage());
+          }
+        }
+      }
+      finally
+      {
+        reader.close();
+      }
+      int[][] columns = new int[4][flights];
+      for (int i = 0; i < flights; i++)
+        for (int k = 0; k < 4; k++)
+          columns[k][i] = flight[4 * i + k];
+      return of(graph.v, columns[0], columns[1], columns[2], columns[3], flights);
+    }//end of read() method
+
+    //the same timetable without the flights whose route is no longer in 'graph'
+    public Timetable restrictTo(Digraph graph)
+    {
+      int[] keep = new int[departure.length];
+      int n = 0;
+      for (int c = 0; c < departure.length; c++)
+      {
+        if (graph.containsRoute(from[c], to[c]))
+          keep[n++] = c;
+      }
+      Timetable timetable = new Timetable(v, new int[n], new int[n], new int[n], new int[n]);
+      for (int k = 0; k < n; k++)
+      {
+        timetable.from[k] = from[keep[k]];
+        timetable.to[k] = to[keep[k]];
+        timetable.departure[k] = departure[keep[k]];
+        timetable.arrival[k] = arrival[keep[k]];
+      }
+      return timetable;
+    }
+
+    //flights per day
+    public int size()
+    {
+      return departure.length;
+    }
+
+    /* The journey from source to destination, leaving at 'departAfter'
+       (minutes after midnight) or later, that arrives first: its flights as
+       {flight, day, flight, day, ...} where day 0 is the day of departure;
+       empty if source == destination, null if no journey gets there within
+       DAYS days. s.dist[] holds the arrival time at each reached city and
+       s.edgeTo[] the flight that got there first, as day * size() + flight.
+       Flights are scanned in order of departure and one can be taken if its
+       city was reached in time to change planes (no change time at the
+       source); the scan ends at the first flight that leaves after the best
+       arrival found. */
+    public int[] earliestArrival(SearchScratch s, int source, int destination, int departAfter)
+    {
+      int n = departure.length;
+      s.reach(source, departAfter, -1);
+      int best = Integer.MAX_VALUE;
+      int scanned = 0;
+      int c = firstDeparting(departAfter);
+      for (int day = 0; day < DAYS; day++, c = 0)
+      {
+        int shift = day * DAY;
+        for (; c < n && departure[c] + shift < best; c++, scanned++)
+        {
+          int x = from[c];
+          if (!s.isReached(x) || s.dist[x] + (x == source ? 0 : MIN_CONNECTION) > departure[c] + shift)
+            continue;
+          int y = to[c];
+          int arrives = arrival[c] + shift;
+          if (!s.isReached(y) || arrives < s.dist[y])
+          {
+            s.reach(y, arrives, day * n + c);
+            if (y == destination)
+              best = arrives;
+          }
+        }
+        if (c < n)
+          break;
+      }
+      if (METRICS)
+        s.relaxed += scanned;
+      if (!s.isReached(destination))
+        return null;
+      int legs = 0;
+      for (int x = destination; x != source; x = from[s.edgeTo[x] % n])
+        legs++;
+      int[] journey = new int[2 * legs];
+      for (int x = destination; x != source; x = from[s.edgeTo[x] % n])
+      {
+        journey[--legs * 2] = s.edgeTo[x] % n;
+        journey[legs * 2 + 1] = s.edgeTo[x] / n;
+      }
+      return journey;
+    }//end of earliestArrival() method
+
+    /* Every departure from source within the first day paired with the
+       earliest arrival at destination on a journey leaving then, keeping only
+       the pairs no later departure arrives as early as: {departure0, arrival0,
+       departure1, arrival1, ...} by ascending departure. The flights of all
+       DAYS days are scanned latest first; each city keeps its own such list
+       (departures descending, so arrivals descending too), and a flight into
+       city y is worth its arrival if y is the destination, or else the best
+       arrival of y's list among the departures that leave time to change
+       planes. */
+    public int[] profile(int source, int destination)
+    {
+      int[][] departs = new int[v][];
+      int[][] arrives = new int[v][];
+      int[] size = new int[v];
+      for (int day = DAYS - 1; day >= 0; day--)
+      {
+        int shift = day * DAY;
+        for (int c = departure.length - 1; c >= 0; c--)
+        {
+          int x = from[c];
+          int y = to[c];
+          if (x == destination)
+            continue;
+          int leaves = departure[c] + shift;
+          int lands = arrival[c] + shift;
+          int t = (y == destination) ? lands : bestFrom(departs[y], arrives[y], size[y], lands + MIN_CONNECTION);
+          int n = size[x];
+          if (t == Integer.MAX_VALUE || (n > 0 && arrives[x][n - 1] <= t))
+            continue; // no way on, or a later departure arrives as early
+          if (n > 0 && departs[x][n - 1] == leaves)
+          {
+            arrives[x][n - 1] = t;
+            continue;
+          }
+          if (n == 0)
+          {
+            departs[x] = new int[4];
+            arrives[x] = new int[4];
+          }
+          else if (n == departs[x].length)
+          {
+            departs[x] = Arrays.copyOf(departs[x], 2 * n);
+            arrives[x] = Arrays.copyOf(arrives[x], 2 * n);
+          }
+          departs[x][n] = leaves;
+          arrives[x][n] = t;
+          size[x] = n + 1;
+        }
+      }
+      int n = size[source];
+      int count = 0;
+      while (count < n && departs[source][n - 1 - count] < DAY)
+        count++;
+      int[] pairs = new int[2 * count];
+      for (int k = 0; k < count; k++)
+      {
+        pairs[2 * k] = departs[source][n - 1 - k];
+        pairs[2 * k + 1] = arrives[source][n - 1 - k];
+      }
+      return pairs;
+    }//end of profile() method
+
+    //departure and arrival of flight c on the given day, in minutes after midnight of day 0
+    public int departure(int c, int day)
+    {
+      return departure[c] + day * DAY;
+    }
+
+    public int arrival(int c, int day)
+    {
+      return arrival[c] + day * DAY;
+    }
+
+    //the earliest arrival of a city's profile list among departures at 'time' or later
+    private static int bestFrom(int[] departs, int[] arrives, int size, int time)
+    {
+      int lo = 0;
+      int hi = size; // departs[0..lo) >= time, departs[hi..size) < time
+      while (lo < hi)
+      {
+        int mid = (lo + hi) >>> 1;
+        if (departs[mid] >= time)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return (lo == 0) ? Integer.MAX_VALUE : arrives[lo - 1];
+    }
+
+    //the first flight leaving at 'time' or later
+    private int firstDeparting(int time)
+    {
+      int lo = 0;
+      int hi = departure.length;
+      while (lo < hi)
+      {
+        int mid = (lo + hi) >>> 1;
+        if (departure[mid] < time)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo;
+    }
+
+    //"HH:MM" or "H:MM" --> minutes after midnight
+    public static int parseClock(String text)
+    {
+      if (!text.matches("\\d{1,2}:\\d\\d"))
+        throw new IllegalArgumentException("expected a time like 08:15, not '" + text + "'");
+      int colon = text.indexOf(':');
+      int hours = Integer.parseInt(text.substring(0, colon));
+      int minutes = Integer.parseInt(text.substring(colon + 1));
+      if (hours > 23 || minutes > 59)
+        throw new IllegalArgumentException("there is no time " + text);
+      return 60 * hours + minutes;
+    }
+
+    //minutes after midnight --> "HH:MM", with "+1" for the next day
+    public static String clock(int minutes)
+    {
+      String time = String.format("%02d:%02d", minutes % DAY / 60, minutes % 60);
+      return (minutes >= DAY) ? time + "+" + (minutes / DAY) : time;
+    }
+
+  }//END OF PRIVATE CLASS Timetable
+
+
+
+  /**
+  *  The <tt>TimetableService</tt> class keeps the Timetable read with a
+  *  Digraph in step with its routes: after any route change the current
+  *  timetable is the scheduled one without the flights of the routes that
+  *  are gone, so a route that is removed and added again gets its flights
+  *  back. A route change only marks the timetable stale; the first query
+  *  after it rebuilds it, outside the graph's write lock. Queries take the
+  *  current timetable and keep using it.
+  */
+  private class TimetableService implements RouteListener
+  {
+    private final Digraph graph;
+    private final Timetable scheduled;  // as read from the file
+    private volatile Timetable current;
+    private volatile boolean stale;     // routes changed since 'current' was made
+
+    public TimetableService(Digraph graph, Timetable scheduled)
+    {
+      this.graph = graph;
+      this.scheduled = scheduled;
+      current = scheduled;
+      graph.addListener(this);
+    }
+
+    public Timetable timetable()
+    {
+      if (stale)
+        rebuild();
+      return current;
+    }
+
+    private synchronized void rebuild()
+    {
+      if (!stale)
+        return; // another query rebuilt it meanwhile
+      stale = false; // a change during the rebuild marks it stale again
+      current = scheduled.restrictTo(graph);
+    }
+
+    public void routeChanged(int from, int to)
+    {
+      stale = true;
+    }
+
+    public void routesReplaced()
+    {
+      stale = true;
+    }
+
+  }//END OF PRIVATE CLASS TimetableService
+
+
+
+  /**
+  *  The <tt>GraphSnapshot</tt> class saves a graph and its city names in a
+  *  versioned binary file and opens it again through a memory mapping, so
+  *  the adjacency blocks are bulk copied instead of parsed. Layout (little
+  *  endian, the byte order of the usual hosts, so the copies need no swapping):
+  *  <pre>
+  *    int magic "AIRG", int version, int v, int e
+  *    v x (int length, UTF-8 bytes)                      city names
+  *    per block: int n, int size, int[n+1] offsets,
+  *               int[size] targets, int[size] miles, double[size] cost
+  *    long CRC32 of everything above
+  *  </pre>
+  */
+  private class GraphSnapshot
+  {
+    private static final int MAGIC = 0x47524941; // "AIRG" once written little endian
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private String[] names;
+    private Digraph graph;
+    private long nanos;
+
+    //true if the file starts with the snapshot magic number
+    public boolean isSnapshot(String fileName) throws IOException
+    {
+      FileInputStream in = new FileInputStream(fileName);
+      try
+      {
+        byte[] head = new byte[4];
+        return in.read(head) == 4 && ByteBuffer.wrap(head).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+
+    public void save(String fileName, String[] cityNames, Digraph g) throws IOException
+    {
+      FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      try
+      {
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        GraphVersion routes = g.version(); // the count and the blocks of one version
+        AdjacencyBlock[] blocks = routes.blocks;
+
+        out.putInt(MAGIC).putInt(VERSION).putInt(g.v).putInt(routes.e);
+        for(String name : cityNames)
+        {
+          byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+          out = room(channel, crc, out, 4 + bytes.length);
+          out.putInt(bytes.length).put(bytes);
+        }
+        for(AdjacencyBlock block : blocks)
+        {
+          out = room(channel, crc, out, 8);
+          out.putInt(block.offsets.length - 1).putInt(block.size());
+          out = putInts(channel, crc, out, block.offsets);
+          out = putInts(channel, crc, out, block.targets);
+          out = putInts(channel, crc, out, block.miles);
+          for(int i = 0; i < block.cost.length; i++)
+          {
+            if(out.remaining() < 8)
+              out = room(channel, crc, out, 8);
+            out.putDouble(block.cost[i]);
+          }
+        }
+        flush(channel, crc, out);
+        out.putLong(crc.getValue());
+        out.flip();
+        while(out.hasRemaining())
+          channel.write(out);
+      }
+      finally
+      {
+        channel.close();
+      }
+    }//end of save() method
+
+    public void load(String fileName) throws IOException
+    {
+      long start = System.nanoTime();
+      FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+      try
+      {
+        long size = channel.size();
+        if(size > Integer.MAX_VALUE)
+          throw new IOException("Snapshot " + fileName + " is larger than 2 GB");
+        if(size < 24)
+          throw new IOException("Snapshot " + fileName + " is truncated");
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        in.order(ByteOrder.LITTLE_ENDIAN);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer body = in.duplicate();
+        body.limit((int) size - 8);
+        crc.update(body);
+        if(crc.getValue() != in.getLong((int) size - 8))
+          throw new IOException("Snapshot " + fileName + " is corrupt (checksum mismatch)");
+
+        if(in.getInt() != MAGIC)
+          throw new IOException(fileName + " is not a route snapshot");
+        int version = in.getInt();
+        if(version != VERSION)
+          throw new IOException("Snapshot " + fileName + " has version " + version + ", expected " + VERSION);
+        int v = in.getInt();
+        int e = in.getInt();
+
+        names = new String[v];
+        byte[] bytes = new byte[64];
+        for(int i = 0; i < v; i++)
+        {
+          int length = in.getInt();
+          if(length > bytes.length)
+            bytes = new byte[Math.max(length, 2 * bytes.length)];
+          in.get(bytes, 0, length);
+          names[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        AdjacencyBlock[] blocks = new AdjacencyBlock[(v + BLOCK_SIZE - 1) >>> BLOCK_SHIFT];
+        for(int b = 0; b < blocks.length; b++)
+        {
+          int n = in.getInt();
+          int routes = in.getInt();
+          int[] offsets = new int[n + 1];
+          in.asIntBuffer().get(offsets);
+          in.position(in.position() + 4 * offsets.length);
+          AdjacencyBlock block = new AdjacencyBlock(offsets, routes);
+          in.asIntBuffer().get(block.targets);
+          in.position(in.position() + 4 * routes);
+          in.asIntBuffer().get(block.miles);
+          in.position(in.position() + 4 * routes);
+          in.asDoubleBuffer().get(block.cost);
+          in.position(in.position() + 8 * routes);
+          blocks[b] = block;
+        }
+        graph = new Digraph(v, e, blocks);
+      }
+      catch(BufferUnderflowException ex)
+      {
+        throw new IOException("Snapshot " + fileName + " is truncated");
+      }
+      finally
+      {
+        channel.close();
+      }
+      nanos = System.nanoTime() - start;
+    }//end of load() method
+
+    public String[] cityNames()
+    {
+      return names;
+    }
+
+    public Digraph graph()
+    {
+      return graph;
+    }
+
+    public double millis()
+    {
+      return nanos / 1e6;
+    }
+
+    //makes sure 'out' has room for 'bytes' more bytes, writing it to the channel if needed
+    private ByteBuffer room(FileChannel channel, CRC32 crc, ByteBuffer out, int bytes) throws IOException
+    {
+      if(out.remaining() >= bytes)
+        return out;
+      flush(channel, crc, out);
+      return (bytes <= out.capacity()) ? out : ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer putInts(FileChannel channel, CRC32 crc, ByteBuffer out, int[] values) throws IOException
+    {
+      int i = 0;
+      while(i < values.length)
+      {
+        if(out.remaining() < 4)
+          out = room(channel, crc, out, 4);
+        int count = Math.min(values.length - i, out.remaining() / 4);
+        out.asIntBuffer().put(values, i, count);
+        out.position(out.position() + 4 * count);
+        i += count;
+      }
+      return out;
+    }
+
+    private void flush(FileChannel channel, CRC32 crc, ByteBuffer out) throws IOException
+    {
+      out.flip();
+      crc.update(out.duplicate());
+      while(out.hasRemaining())
+        channel.write(out);
+      out.clear();
+    }
+
+  }//END OF PRIVATE CLASS GraphSnapshot
+
+
+
+  /**
+  *  The <tt>AdjacencyBlock</tt> class holds the routes leaving BLOCK_SIZE
+  *  consecutive vertices as parallel primitive arrays. The routes leaving
+  *  vertex x are at offsets[x & BLOCK_MASK] up to offsets[(x & BLOCK_MASK)+1].
+  *  A block is never changed once it is part of a graph; edits build a new one.
+  */
+  private class AdjacencyBlock
+  {
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] miles;
+    private final double[] cost;
+
+    public AdjacencyBlock(int[] offsets, int size)
+    {
+      this.offsets = offsets;
+      this.targets = new int[size];
+      this.miles = new int[size];
+      this.cost = new double[size];
+    }
+
+    public int size()
+    {
+      return targets.length;
+    }
+
+    //index of the first route leaving vertex x
+    public int first(int x)
+    {
+      return offsets[x & BLOCK_MASK];
+    }
+
+    //one past the index of the last route leaving vertex x
+    public int end(int x)
+    {
+      return offsets[(x & BLOCK_MASK) + 1];
+    }
+
+    //returns the index of the first route from local vertex 'local' to 'to', or -1
+    public int find(int local, int to)
+    {
+      for (int i = offsets[local]; i < offsets[local + 1]; i++)
+      {
+        if (targets[i] == to)
+          return i;
+      }
+      return -1;
+    }
+
+    public void copyFrom(AdjacencyBlock other, int from, int to, int length)
+    {
+      System.arraycopy(other.targets, from, targets, to, length);
+      System.arraycopy(other.miles, from, miles, to, length);
+      System.arraycopy(other.cost, from, cost, to, length);
+    }
+
+  }//END OF PRIVATE CLASS AdjacencyBlock
+
+
+
+  /**
+  *  The <tt>RouteBuffer</tt> class collects routes as growable parallel
+  *  primitive arrays so that a <tt>Digraph</tt> can be built in one pass.
+  */
+  private class RouteBuffer
+  {
+    private int n;
+    private int[] from;
+    private int[] to;
+    private int[] miles;
+    private double[] cost;
+
+    public RouteBuffer(int capacity)
+    {
+      capacity = Math.max(capacity, 16);
+      from = new int[capacity];
+      to = new int[capacity];
+      miles = new int[capacity];
+      cost = new double[capacity];
+    }
+
+    public int size()
+    {
+      return n;
+    }
+
+    public void add(int v, int w, int weight, double price)
+    {
+      if (n == from.length)
+      {
+        int capacity = n + (n >> 1);
+        from = Arrays.copyOf(from, capacity);
+        to = Arrays.copyOf(to, capacity);
+        miles = Arrays.copyOf(miles, capacity);
+        cost = Arrays.copyOf(cost, capacity);
+      }
+      from[n] = v;
+      to[n] = w;
+      miles[n] = weight;
+      cost[n] = price;
+      n++;
+    }
+
+    //index of the first route v-w at or after position 'start', or -1
+    public int find(int start, int v, int w)
+    {
+      for (int i = start; i < n; i++)
+      {
+        if (from[i] == v && to[i] == w)
+          return i;
+      }
+      return -1;
+    }
+
+    public void remove(int i)
+    {
+      int length = n - i - 1;
+      System.arraycopy(from, i + 1, from, i, length);
+      System.arraycopy(to, i + 1, to, i, length);
+      System.arraycopy(miles, i + 1, miles, i, length);
+      System.arraycopy(cost, i + 1, cost, i, length);
+      n--;
+    }
+
+  }//END OF PRIVATE CLASS RouteBuffer
+
+
+
+  private enum EditType { ADD, UPDATE, REMOVE }
+
+  //what a path search minimizes: total miles, total price or number of hops
+  private enum Metric { MILES, PRICE, HOPS }
+
+  //how ScheduleWriter lays out routes, tree edges and trips
+  private enum OutputFormat { TEXT, CSV, JSON }
+
+  //the kinds of query QueryMetrics keeps apart
+  private enum QueryType
+  {
+    MILES("miles"), PRICE("price"), HOPS("hops"), REACH("reach"), PARETO("pareto"), TRIPS("budget"),
+    MST("mst"), FARE("fare"), ARRIVE("arrive"), PROFILE("profile"), ADD_ROUTE("add route"), REMOVE_ROUTE("remove route");
+
+    private final String label;
+
+    QueryType(String label)
+    {
+      this.label = label;
+    }
+
+    //the type of a QueryServer request keyword, null for requests that are not recorded
+    public static QueryType of(String keyword)
+    {
+      switch (keyword.toUpperCase())
+      {
+        case "DIST":    return MILES;
+        case "COST":    return PRICE;
+        case "HOPS":    return HOPS;
+        case "REACH":   return REACH;
+        case "PARETO":  return PARETO;
+        case "BUDGET":  return TRIPS;
+        case "MST":     return MST;
+        case "FARE":    return FARE;
+        case "ARRIVE":  return ARRIVE;
+        case "PROFILE": return PROFILE;
+        default:        return null;
+      }
+    }
+  }
+
+  /**
+  *  The <tt>RouteEdit</tt> class is one line of a schedule change file.
+  *  Cities are stored 0-based; the file uses the 1-based numbers of the
+  *  route file.
+  */
+  private static class RouteEdit
+  {
+    private final EditType type;
+    private final int from;
+    private final int to;
+    private final int miles;
+    private final double cost;
+    private final int line;
+
+    public RouteEdit(EditType type, int from, int to, int miles, double cost, int line)
+    {
+      this.type = type;
+      this.from = from;
+      this.to = to;
+      this.miles = miles;
+      this.cost = cost;
+      this.line = line;
+    }
+
+  }//END OF PRIVATE CLASS RouteEdit
+
+
+
+  /**
+  *  The <tt>RouteBatch</tt> class is an ordered list of route edits that is
+  *  validated as a whole and then applied with <tt>Digraph.applyBatch()</tt>,
+  *  which validates it again under the graph's write lock.
+  *  Like addRoute() and removeRoute(), every edit changes both directions.
+  *  The file format is one edit per line, blank lines and '#' comments are
+  *  skipped:
+  *  <pre>
+  *    add    from to miles cost
+  *    update from to miles cost
+  *    remove from to
+  *  </pre>
+  */
+  private static class RouteBatch
+  {
+    private final ArrayList<RouteEdit> edits = new ArrayList<RouteEdit>();
+    private final ArrayList<String> errors = new ArrayList<String>(); // parse errors
+
+    public static RouteBatch read(String fileName) throws IOException
+    {
+      RouteBatch batch = new RouteBatch();
+      BufferedReader reader = new BufferedReader(new FileReader(fileName), 1 << 16);
+      String line;
+      int number = 0;
+      while((line = reader.readLine()) != null)
+      {
+        number++;
+        line = line.trim();
+        if(line.isEmpty() || line.startsWith("#"))
+          continue;
+        batch.parse(line, number);
+      }
+      reader.close();
+      return batch;
+    }//end of read() method
+
+    private void parse(String line, int number)
+    {
+      String[] fields = line.split("\\s+");
+      if(fields.length != 3 && fields.length != 5)
+      {
+        errors.add("line " + number + ": expected 'add|update from to miles cost' or 'remove from to'");
+        return;
+      }
+      try
+      {
+        String op = fields[0].toLowerCase();
+        int from = Integer.parseInt(fields[1]) - 1;
+        int to = Integer.parseInt(fields[2]) - 1;
+        if(op.equals("remove") && fields.length == 3)
+          add(new RouteEdit(EditType.REMOVE, from, to, 0, 0, number));
+        else if(op.equals("add") && fields.length == 5)
+          add(new RouteEdit(EditType.ADD, from, to, Integer.parseInt(fields[3]), Double.parseDouble(fields[4]), number));
+        else if(op.equals("update") && fields.length == 5)
+          add(new RouteEdit(EditType.UPDATE, from, to, Integer.parseInt(fields[3]), Double.parseDouble(fields[4]), number));
+        else
+          errors.add("line " + number + ": expected 'add|update from to miles cost' or 'remove from to'");
+      }
+      catch(RuntimeException ex)
+      {
+        errors.add("line " + number + ": " + ex.getMessage());
+      }
+    }//end of parse() method
+
+    public void add(RouteEdit edit)
+    {
+      edits.add(edit);
+    }
+
+    public RouteEdit get(int i)
+    {
+      return edits.get(i);
+    }
+
+    public int size()
+    {
+      return edits.size();
+    }
+
+    /**
+    * Checks the whole batch against graph g, replaying the edits in order so
+    * that e.g. a remove followed by an add of the same route is accepted.
+    * Returns the problems found; the batch may only be applied if it is empty.
+    */
+    public List<String> validate(AirlineSystem.Digraph g)
+    {
+      ArrayList<String> problems = new ArrayList<String>(errors);
+      HashMap<Long, Boolean> pending = new HashMap<Long, Boolean>(); // route --> exists after earlier edits
+      for(RouteEdit edit : edits)
+      {
+        String where = "line " + edit.line + ": ";
+        if(edit.from < 0 || edit.from >= g.v || edit.to < 0 || edit.to >= g.v)
+        {
+          problems.add(where + "city number outside of 1-" + g.v);
+          continue;
+        }
+        //the edit is applied in both directions, so both must be in the same state
+        long key = routeKey(edit.from, edit.to);
+        long back = routeKey(edit.to, edit.from);
+        boolean exists = exists(g, pending, key);
+        boolean backExists = exists(g, pending, back);
+        if(edit.type == EditType.ADD && (exists || backExists))
+          problems.add(where + "route " + describe(exists ? key : back) + " already exists");
+        else if(edit.type != EditType.ADD && !(exists && backExists))
+          problems.add(where + "route " + describe(exists ? back : key) + " does not exist");
+        else if(edit.type != EditType.REMOVE && (edit.miles < 0 || edit.cost < 0))
+          problems.add(where + "miles and cost must be nonnegative");
+        pending.put(key, edit.type != EditType.REMOVE);
+        pending.put(back, edit.type != EditType.REMOVE);
+      }
+      return problems;
+    }//end of validate() method
+
+    //whether the directed route exists after the earlier edits of the batch
+    private static boolean exists(AirlineSystem.Digraph g, HashMap<Long, Boolean> pending, long key)
+    {
+      Boolean known = pending.get(key);
+      return (known != null) ? known : g.containsRoute((int) (key >>> 32), (int) key);
+    }
+
+    private static String describe(long key)
+    {
+      return ((int) (key >>> 32) + 1) + "-" + ((int) key + 1);
+    }
+
+  }//END OF PRIVATE CLASS RouteBatch
+
+
+
+  /**
+  *  A <tt>RouteListener</tt> is told about every route change of a Digraph,
+  *  after the change is visible to new queries.
+  */
+  private interface RouteListener
+  {
+    //the directed route from --> to was added, repriced or removed
+    void routeChanged(int from, int to);
+
+    //too many routes changed at once to report them one by one
+    void routesReplaced();
+  }
+
+
+
+  /**
+  *  The <tt>PathTree</tt> class is an immutable shortest path tree: the
+  *  distance (miles, price or hops) of every city from one source and the
+  *  previous city on its path. Unreachable cities have infinite distance.
+  */
+  private static final class PathTree
+  {
+    private final int source;
+    private final Metric metric;
+    private final double[] dist;
+    private final int[] edgeTo;
+
+    public PathTree(int source, Metric metric, double[] dist, int[] edgeTo)
+    {
+      this.source = source;
+      this.metric = metric;
+      this.dist = dist;
+      this.edgeTo = edgeTo;
+    }
+
+    public Route route(int destination)
+    {
+      if (dist[destination] == Double.POSITIVE_INFINITY)
+        return Route.NONE;
+      return Route.trace(source, destination, dist, edgeTo);
+    }
+
+    //true if the tree's path to 'to' runs through the route from --> to
+    public boolean uses(int from, int to)
+    {
+      return edgeTo[to] == from;
+    }
+
+    //true if a route from --> to with this value would shorten the path to 'to'
+    public boolean improvedBy(int from, int to, double value)
+    {
+      return dist[from] + value < dist[to];
+    }
+
+  }//END OF PRIVATE CLASS PathTree
+
+
+
+  /**
+  *  The <tt>PathTreeCache</tt> class keeps the most recently used shortest
+  *  path trees, keyed by (source, metric), so repeated queries from popular
+  *  origins skip the search. It holds at most as many trees as fit in its
+  *  byte budget and evicts the least recently used one. When a route
+  *  changes, only the trees whose path uses that route, or that the route
+  *  would shorten, are dropped.
+  */
+  private class PathTreeCache implements RouteListener
+  {
+    private final Digraph graph;
+    private final LinkedHashMap<Long, PathTree> trees;
+    private final int capacity;
+    private long generation;         // bumped by every route change; a tree searched across a change is not kept
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public PathTreeCache(Digraph graph, long bytes)
+    {
+      this.graph = graph;
+      this.capacity = (int) Math.max(1, Math.min(1 << 20, bytes / (12L * Math.max(1, graph.v))));
+      this.trees = new LinkedHashMap<Long, PathTree>(16, 0.75f, true)
+      {
+        protected boolean removeEldestEntry(Map.Entry<Long, PathTree> eldest)
+        {
+          boolean full = size() > capacity;
+          if (full)
+            evictions.increment();
+          return full;
+        }
+      };
+      graph.addListener(this);
+    }
+
+    public Route route(Metric metric, int source, int destination)
+    {
+      return tree(metric, source).route(destination);
+    }
+
+    public PathTree tree(Metric metric, int source)
+    {
+      long key = ((long) source << 2) | metric.ordinal();
+      long searched;
+      synchronized (this)
+      {
+        PathTree tree = trees.get(key);
+        if (tree != null)
+        {
+          hits.increment();
+          return tree;
+        }
+        searched = generation;
+      }
+      misses.increment();
+      PathTree tree = graph.pathTree(source, metric); // searched outside the lock
+      synchronized (this)
+      {
+        if (generation == searched)
+          trees.put(key, tree);
+      }
+      return tree;
+    }
+
+    public synchronized void routeChanged(int from, int to)
+    {
+      generation++;
+      WeightedDirectedEdge edge = graph.findEdge(new WeightedDirectedEdge(from, to, 0, 0));
+      Iterator<PathTree> it = trees.values().iterator();
+      while (it.hasNext())
+      {
+        PathTree tree = it.next();
+        double value = (edge == null) ? Double.POSITIVE_INFINITY
+                     : (tree.metric == Metric.MILES) ? edge.weight()
+                     : (tree.metric == Metric.PRICE) ? edge.cost() : 1;
+        if (tree.uses(from, to) || tree.improvedBy(from, to, value))
+        {
+          it.remove();
+          invalidations.increment();
+        }
+      }
+    }
+
+    public synchronized void routesReplaced()
+    {
+      generation++;
+      invalidations.add(trees.size());
+      trees.clear();
+    }
+
+    public synchronized String stats()
+    {
+      long h = hits.sum();
+      long m = misses.sum();
+      return String.format("path tree cache: %d/%d trees, %d hits, %d misses (%.1f%% hit rate), %d evicted, %d invalidated",
+                           trees.size(), capacity, h, m, (h + m == 0) ? 0.0 : 100.0 * h / (h + m),
+                           evictions.sum(), invalidations.sum());
+    }
+
+  }//END OF PRIVATE CLASS PathTreeCache
+
+
+
+  /**
+  *  The <tt>LatencyHistogram</tt> class counts latencies in log-linear
+  *  buckets, in the manner of HdrHistogram: 64 linear sub-buckets per power
+  *  of two, so any value is reported within about 3%. Recording is one
+  *  atomic increment and needs no lock. Readers see a histogram that may
+  *  be a few recordings behind, which is fine for monitoring.
+  */
+  private static final class LatencyHistogram
+  {
+    private static final int SUB_BITS = 6;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * HALF + HALF);
+
+    public void record(long nanos)
+    {
+      counts.incrementAndGet(index(Math.max(0, nanos)));
+    }
+
+    //the smallest recorded value that 'fraction' of the recordings do not exceed, 0 if there are none
+    public long percentile(double fraction)
+    {
+      long total = 0;
+      for (int i = 0; i < counts.length(); i++)
+        total += counts.get(i);
+      long rank = (long) Math.ceil(fraction * total);
+      long seen = 0;
+      for (int i = 0; i < counts.length(); i++)
+      {
+        seen += counts.get(i);
+        if (seen >= Math.max(1, rank) && seen > 0)
+          return highest(i);
+      }
+      return 0;
+    }
+
+    public void reset()
+    {
+      for (int i = 0; i < counts.length(); i++)
+        counts.set(i, 0);
+    }
+
+    //bucket b holds the values whose top bit is b + SUB_BITS - 1, split by their next bits
+    private static int index(long value)
+    {
+      int bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+      return bucket * HALF + (int) (value >>> bucket);
+    }
+
+    //the largest value of bucket i
+    private static long highest(int i)
+    {
+      int bucket = Math.max(0, i / HALF - 1);
+      long sub = i - bucket * HALF;
+      return ((sub + 1) << bucket) - 1;
+    }
+
+  }//END OF PRIVATE CLASS LatencyHistogram
+
+
+
+  /**
+  *  The <tt>QueryMetrics</tt> class records, per query type, the latency
+  *  histogram and the work of every query: cities settled and routes
+  *  looked at by the answering thread's searches (including the pool
+  *  threads of a parallel trip search), and the bytes the answering thread
+  *  allocated. A query is bracketed by start() and stop(), which keep their
+  *  snapshot in a thread local; everything else is lock-free counters. The
+  *  numbers are published as one MBean per query type and as a text table
+  *  (METRICS query, or every n seconds to standard error with
+  *  -Dairline.metrics.dump=n). Running with -Dairline.metrics=false skips
+  *  all of it at run time, including the counting inside the searches.
+  */
+  private class QueryMetrics
+  {
+    private final LatencyHistogram[] latency = new LatencyHistogram[QueryType.values().length];
+    private final LongAdder[] count = new LongAdder[latency.length];
+    private final LongAdder[] nanos = new LongAdder[latency.length];
+    private final LongAccumulator[] max = new LongAccumulator[latency.length];
+    private final LongAdder[] settled = new LongAdder[latency.length];
+    private final LongAdder[] relaxed = new LongAdder[latency.length];
+    private final LongAdder[] allocated = new LongAdder[latency.length];
+    private final ThreadLocal<long[]> probe = ThreadLocal.withInitial(() -> new long[4]); // start, settled, relaxed, allocated
+    private final com.sun.management.ThreadMXBean threads; // null if allocations cannot be counted
+    private boolean published;
+
+    public QueryMetrics()
+    {
+      for (int t = 0; t < latency.length; t++)
+      {
+        latency[t] = new LatencyHistogram();
+        count[t] = new LongAdder();
+        nanos[t] = new LongAdder();
+        max[t] = new LongAccumulator(Math::max, 0);
+        settled[t] = new LongAdder();
+        relaxed[t] = new LongAdder();
+        allocated[t] = new LongAdder();
+      }
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      threads = (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    //begins a query on this thread
+    public void start()
+    {
+      if (!METRICS)
+        return;
+      long[] p = probe.get();
+      SearchScratch s = scratch.get();
+      p[1] = s.settledTotal();
+      p[2] = s.relaxed;
+      p[3] = allocatedBytes();
+      p[0] = System.nanoTime();
+    }
+
+    //ends the query begun by start() on this thread and returns its answer
+    public <T> T stop(QueryType type, T answer)
+    {
+      if (!METRICS)
+        return answer;
+      long[] p = probe.get();
+      long elapsed = System.nanoTime() - p[0];
+      SearchScratch s = scratch.get();
+      int t = type.ordinal();
+      latency[t].record(elapsed);
+      count[t].increment();
+      nanos[t].add(elapsed);
+      max[t].accumulate(elapsed);
+      settled[t].add(s.settledTotal() - p[1]);
+      relaxed[t].add(s.relaxed - p[2]);
+      if (p[3] >= 0)
+        allocated[t].add(allocatedBytes() - p[3]);
+      return answer;
+    }
+
+    //one line per query type that ran
+    public String table()
+    {
+      if (!METRICS)
+        return "Query metrics are off (-Dairline.metrics=false)";
+      StringBuilder out = new StringBuilder(String.format("%-14s %9s %10s %10s %10s %10s %10s %12s %12s %12s",
+                                                          "query", "count", "mean us", "p50 us", "p99 us", "p99.9 us", "max us",
+                                                          "settled/q", "routes/q", "bytes/q"));
+      for (QueryType type : QueryType.values())
+      {
+        int t = type.ordinal();
+        long n = count[t].sum();
+        if (n == 0)
+          continue;
+        out.append(String.format("%n%-14s %9d %10.1f %10.1f %10.1f %10.1f %10.1f %12.0f %12.0f %12s", type.label, n,
+                                 nanos[t].sum() / 1e3 / n, micros(t, 0.5), micros(t, 0.99), micros(t, 0.999), max[t].get() / 1e3, (double) settled[t].sum() / n,
+                                 (double) relaxed[t].sum() / n, threads == null ? "n/a" : String.valueOf(allocated[t].sum() / n)));
+      }
+      return out.toString();
+    }
+
+    //registers the MBeans and starts the periodic dump, once; a failure only costs the publishing
+    public synchronized void publish()
+    {
+      if (!METRICS || published)
+        return;
+      published = true;
+      try
+      {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (QueryType type : QueryType.values())
+          server.registerMBean(new QueryMetricsBean(type), new ObjectName("AirlineSystem:type=QueryMetrics,query=" + type));
+      }
+      catch (JMException ex)
+      {
+        System.err.println("Query metrics are not published over JMX: " + ex.getMessage());
+      }
+      long seconds = Long.getLong("airline.metrics.dump", 0);
+      if (seconds > 0)
+      {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "metrics-dump");
+          thread.setDaemon(true);
+          return thread;
+        });
+        timer.scheduleAtFixedRate(() -> System.err.println(table()), seconds, seconds, TimeUnit.SECONDS);
+      }
+    }
+
+    //a percentile of type t in microseconds; the bucket bound is capped by the exact maximum
+    private double micros(int t, double fraction)
+    {
+      return Math.min(latency[t].percentile(fraction), max[t].get()) / 1e3;
+    }
+
+    //this thread's allocations so far, -1 if they cannot be counted
+    private long allocatedBytes()
+    {
+      return (threads == null) ? -1 : threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+    *  One query type's numbers as a JMX MBean,
+    *  AirlineSystem:type=QueryMetrics,query=MILES and so on.
+    */
+    private class QueryMetricsBean implements DynamicMBean
+    {
+      private final int t;
+      private final MBeanInfo info;
+
+      public QueryMetricsBean(QueryType type)
+      {
+        t = type.ordinal();
+        String[] names = {"Count", "MeanMicros", "P50Micros", "P99Micros", "P999Micros", "MaxMicros",
+                          "SettledPerQuery", "RoutesPerQuery", "AllocatedBytesPerQuery"};
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[names.length];
+        for (int i = 0; i < names.length; i++)
+          attributes[i] = new MBeanAttributeInfo(names[i], i == 0 ? "long" : "double", names[i] + " of " + type.label + " queries",
+                                                 true, false, false);
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clears the numbers of " + type.label + " queries",
+                                                          new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        info = new MBeanInfo(getClass().getName(), type.label + " query metrics", attributes, null,
+                             new MBeanOperationInfo[] {reset}, null);
+      }
+
+      public Object getAttribute(String name) throws AttributeNotFoundException
+      {
+        long n = Math.max(1, count[t].sum());
+        switch (name)
+        {
+          case "Count":                  return count[t].sum();
+          case "MeanMicros":             return nanos[t].sum() / 1e3 / n;
+          case "P50Micros":              return micros(t, 0.5);
+          case "P99Micros":              return micros(t, 0.99);
+          case "P999Micros":             return micros(t, 0.999);
+          case "MaxMicros":              return max[t].get() / 1e3;
+          case "SettledPerQuery":        return (double) settled[t].sum() / n;
+          case "RoutesPerQuery":         return (double) relaxed[t].sum() / n;
+          case "AllocatedBytesPerQuery": return (threads == null) ? Double.NaN : (double) allocated[t].sum() / n;
+          default:                       throw new AttributeNotFoundException(name);
+        }
+      }
+
+      public AttributeList getAttributes(String[] names)
+      {
+        AttributeList list = new AttributeList();
+        for (String name : names)
+        {
+          try
+          {
+            list.add(new Attribute(name, getAttribute(name)));
+          }
+          catch (AttributeNotFoundException ex)
+          {
+            // left out, as the DynamicMBean contract asks
+          }
+        }
+        return list;
+      }
+
+      public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException
+      {
+        if (!action.equals("reset"))
+          throw new ReflectionException(new NoSuchMethodException(action));
+        latency[t].reset();
+        count[t].reset();
+        nanos[t].reset();
+        max[t].reset();
+        settled[t].reset();
+        relaxed[t].reset();
+        allocated[t].reset();
+        return null;
+      }
+
+      public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+      {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+      }
+
+      public AttributeList setAttributes(AttributeList attributes)
+      {
+        return new AttributeList();
+      }
+
+      public MBeanInfo getMBeanInfo()
+      {
+        return info;
+      }
+
+    }//END OF PRIVATE CLASS QueryMetricsBean
+
+  }//END OF PRIVATE CLASS QueryMetrics
+
+
+
+  /**
+  *  The <tt>SpanningForest</tt> class keeps a minimum spanning forest of a
+  *  Digraph by miles, counting a --> b and b --> a as one route whose length
+  *  is the shorter of the two. It is built once with kruskals() and then
+  *  repaired on every route change: a new or shorter route replaces the
+  *  longest tree edge on the cycle it closes, and a removed or longer tree
+  *  edge is replaced by the shortest route across the cut it leaves. Only a
+  *  batch too large to report route by route rebuilds it from scratch.
+  */
+  private class SpanningForest implements RouteListener
+  {
+    private final Digraph graph;
+    private final HashMap<Long, WeightedDirectedEdge> edges = new HashMap<Long, WeightedDirectedEdge>(); // tree edges by pairKey()
+    private final int[][] adj;       // tree neighbours of each city, degree[x] of them in use
+    private final int[][] adjMiles;
+    private final int[] degree;
+    private final int[] mark;        // mark[x] == stamp --> x was reached by the current tree walk
+    private final int[] parent;      // the tree neighbour the walk came from
+    private final int[] parentMiles;
+    private final int[] queue;
+    private int stamp;
+    private long rebuilds, links, swaps, reconnects;
+
+    public SpanningForest(Digraph graph)
+    {
+      this.graph = graph;
+      adj = new int[graph.v][];
+      adjMiles = new int[graph.v][];
+      degree = new int[graph.v];
+      mark = new int[graph.v];
+      parent = new int[graph.v];
+      parentMiles = new int[graph.v];
+      queue = new int[graph.v];
+      rebuild();
+      graph.addListener(this);
+    }
+
+    //the tree edges, shortest first
+    public synchronized ArrayList<WeightedDirectedEdge> edges()
+    {
+      ArrayList<WeightedDirectedEdge> list = new ArrayList<WeightedDirectedEdge>(edges.values());
+      list.sort((a, b) -> (a.weight() != b.weight()) ? Integer.compare(a.weight(), b.weight())
+                        : (a.from() != b.from()) ? Integer.compare(a.from(), b.from()) : Integer.compare(a.to(), b.to()));
+      return list;
+    }
+
+    public synchronized long totalMiles()
+    {
+      long total = 0;
+      for (WeightedDirectedEdge w : edges.values())
+        total += w.weight();
+      return total;
+    }
+
+    public synchronized void routesReplaced()
+    {
+      rebuild();
+    }
+
+    public synchronized void routeChanged(int a, int b)
+    {
+      if (a == b)
+        return;
+      WeightedDirectedEdge now = shortest(a, b);
+      WeightedDirectedEdge tree = edges.get(pairKey(a, b));
+      if (tree != null)
+      {
+        cut(tree);
+        if (now != null && now.weight() <= tree.weight())
+          link(now); // a shorter tree edge keeps the forest minimal
+        else
+          reconnect(a, b);
+      }
+      else if (now != null)
+      {
+        if (!walk(a, b))
+        {
+          link(now); // joins two components
+          links++;
+          return;
+        }
+        //the walk stopped at b: follow parent[] back to a to find the longest edge on the cycle
+        int longest = -1;
+        for (int x = b; x != a; x = parent[x])
+        {
+          if (longest < 0 || parentMiles[x] > parentMiles[longest])
+            longest = x;
+        }
+        if (parentMiles[longest] > now.weight())
+        {
+          cut(edges.get(pairKey(longest, parent[longest])));
+          link(now);
+          swaps++;
+        }
+      }
+    }
+
+    public synchronized String stats()
+    {
+      return String.format("spanning forest: %d edges, %d miles; %d rebuilds, %d links, %d cycle swaps, %d cut repairs",
+                           edges.size(), totalMiles(), rebuilds, links, swaps, reconnects);
+    }
+
+    //recomputes the forest with kruskals()
+    private void rebuild()
+    {
+      edges.clear();
+      Arrays.fill(degree, 0);
+      for (WeightedDirectedEdge w : graph.kruskals())
+        link(w);
+      rebuilds++;
+    }
+
+    //after the tree edge a-b was cut, joins its two sides again with the shortest route between them
+    private void reconnect(int a, int b)
+    {
+      reconnects++;
+      int sideA = walkAll(a, 0);
+      int stampA = stamp;
+      int sideB = walkAll(b, sideA);
+      int stampB = stamp;
+
+      WeightedDirectedEdge best = null;
+      AdjacencyBlock[] blocks = graph.blocks();
+      for (int q = 0; q < sideA + sideB; q++)
+      {
+        int x = queue[q];
+        int other = (mark[x] == stampA) ? stampB : stampA;
+        AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+        for (int i = block.first(x), end = block.end(x); i < end; i++)
+        {
+          if (mark[block.targets[i]] == other && (best == null || block.miles[i] < best.weight()
+                                                  || (block.miles[i] == best.weight() && x < best.from())))
+            best = new WeightedDirectedEdge(x, block.targets[i], block.miles[i], block.cost[i]);
+        }
+      }
+      if (best != null)
+        link(best);
+    }
+
+    //the shorter of the routes a --> b and b --> a, or null if there is neither;
+    //on a tie the route leaving the lower numbered city wins, as in kruskals()
+    private WeightedDirectedEdge shortest(int a, int b)
+    {
+      AdjacencyBlock[] blocks = graph.blocks();
+      WeightedDirectedEdge best = null;
+      for (int pass = 0; pass < 2; pass++)
+      {
+        int from = (pass == 0) ? Math.min(a, b) : Math.max(a, b);
+        int to = (pass == 0) ? Math.max(a, b) : Math.min(a, b);
+        AdjacencyBlock block = blocks[from >>> BLOCK_SHIFT];
+        for (int i = block.first(from), end = block.end(from); i < end; i++)
+        {
+          if (block.targets[i] == to && (best == null || block.miles[i] < best.weight()))
+            best = new WeightedDirectedEdge(from, to, block.miles[i], block.cost[i]);
+        }
+      }
+      return best;
+    }
+
+    //breadth first walk of the tree from 'source', stopping once 'target' is reached
+    private boolean walk(int source, int target)
+    {
+      stamp++;
+      mark[source] = stamp;
+      parent[source] = -1;
+      int head = 0, tail = 0;
+      queue[tail++] = source;
+      while (head < tail)
+      {
+        int x = queue[head++];
+        for (int j = 0; j < degree[x]; j++)
+        {
+          int y = adj[x][j];
+          if (mark[y] == stamp)
+            continue;
+          mark[y] = stamp;
+          parent[y] = x;
+          parentMiles[y] = adjMiles[x][j];
+          if (y == target)
+            return true;
+          queue[tail++] = y;
+        }
+      }
+      return false;
+    }
+
+    //walks the whole tree component of 'source' into queue[start ..], returning its size
+    private int walkAll(int source, int start)
+    {
+      stamp++;
+      mark[source] = stamp;
+      int head = start, tail = start;
+      queue[tail++] = source;
+      while (head < tail)
+      {
+        int x = queue[head++];
+        for (int j = 0; j < degree[x]; j++)
+        {
+          int y = adj[x][j];
+          if (mark[y] != stamp)
+          {
+            mark[y] = stamp;
+            queue[tail++] = y;
+          }
+        }
+      }
+      return tail - start;
+    }
+
+    private void link(WeightedDirectedEdge w)
+    {
+      edges.put(pairKey(w.from(), w.to()), w);
+      attach(w.from(), w.to(), w.weight());
+      attach(w.to(), w.from(), w.weight());
+    }
+
+    private void cut(WeightedDirectedEdge w)
+    {
+      edges.remove(pairKey(w.from(), w.to()));
+      detach(w.from(), w.to());
+      detach(w.to(), w.from());
+    }
+
+    private void attach(int x, int y, int miles)
+    {
+      if (adj[x] == null || degree[x] == adj[x].length)
+      {
+        int capacity = (adj[x] == null) ? 2 : 2 * adj[x].length;
+        adj[x] = (adj[x] == null) ? new int[capacity] : Arrays.copyOf(adj[x], capacity);
+        adjMiles[x] = (adjMiles[x] == null) ? new int[capacity] : Arrays.copyOf(adjMiles[x], capacity);
+      }
+      adj[x][degree[x]] = y;
+      adjMiles[x][degree[x]] = miles;
+      degree[x]++;
+    }
+
+    private void detach(int x, int y)
+    {
+      for (int j = 0; j < degree[x]; j++)
+      {
+        if (adj[x][j] == y)
+        {
+          degree[x]--;
+          adj[x][j] = adj[x][degree[x]];
+          adjMiles[x][j] = adjMiles[x][degree[x]];
+          return;
+        }
+      }
+    }
+
+    //the same key for a-b and b-a
+    private long pairKey(int a, int b)
+    {
+      return routeKey(Math.min(a, b), Math.max(a, b));
+    }
+
+  }//END OF PRIVATE CLASS SpanningForest
+
+
+
+  /**
+  *  The <tt>ReverseArcs</tt> class holds the routes of one version of a
+  *  Digraph grouped by the city they arrive at (compressed rows), so
+  *  searches can run backwards from a destination.
+  */
+  private static final class ReverseArcs
+  {
+    private final AdjacencyBlock[] blocks; // the forward routes these were built from
+    private final int[] offsets;           // arcs into x are offsets[x] .. offsets[x+1]-1
+    private final int[] sources;
+    private final int[] miles;
+    private final double[] cost;
+
+    public ReverseArcs(AdjacencyBlock[] blocks, int v)
+    {
+      this.blocks = blocks;
+      offsets = new int[v + 1];
+      for (AdjacencyBlock block : blocks)
+        for (int i = 0; i < block.size(); i++)
+          offsets[block.targets[i] + 1]++;
+      for (int x = 0; x < v; x++)
+        offsets[x + 1] += offsets[x];
+
+      int[] next = Arrays.copyOf(offsets, v);
+      sources = new int[offsets[v]];
+      miles = new int[offsets[v]];
+      cost = new double[offsets[v]];
+      for (int x = 0; x < v; x++)
+      {
+        AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+        for (int i = block.first(x), end = block.end(x); i < end; i++)
+        {
+          int at = next[block.targets[i]]++;
+          sources[at] = x;
+          miles[at] = block.miles[i];
+          cost[at] = block.cost[i];
+        }
+      }
+    }
+
+  }//END OF PRIVATE CLASS ReverseArcs
+
+
+
+  /**
+  *  The <tt>Landmarks</tt> class holds, for a few landmark cities, the
+  *  distance from every city to the landmark and from the landmark to
+  *  every city by one metric. By the triangle inequality these give lower
+  *  bounds on the distance between any two cities (ALT). Landmarks are
+  *  picked farthest-first: each new one is the city farthest from all
+  *  landmarks chosen so far.
+  */
+  private class Landmarks
+  {
+    private final int[] cities;
+    private final double[][] from; // from[i][x] = distance landmark i --> x
+    private final double[][] to;   // to[i][x]   = distance x --> landmark i
+
+    public Landmarks(ReverseArcs reverse, int v, boolean byCost, int count)
+    {
+      cities = new int[count];
+      from = new double[count][];
+      to = new double[count][];
+      double[] nearest = new double[v];
+      Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+      int next = 0;
+      for (int i = 0; i < count; i++)
+      {
+        cities[i] = next;
+        from[i] = distances(reverse, next, false, byCost);
+        next = -1;
+        for (int x = 0; x < v; x++)
+        {
+          if (from[i][x] < nearest[x])
+            nearest[x] = from[i][x];
+          if (nearest[x] != Double.POSITIVE_INFINITY && (next < 0 || nearest[x] > nearest[next]))
+            next = x;
+        }
+        if (nearest[next] == 0)
+          next = (cities[i] + 1) % v; // everything reachable is a landmark already
+      }
+      IntStream.range(0, count).parallel().forEach(i -> to[i] = distances(reverse, cities[i], true, byCost));
+    }
+
+    //lower bound on the distance x --> y; +infinity if y cannot be reached from x
+    public double bound(int x, int y)
+    {
+      double best = 0;
+      for (int i = 0; i < cities.length; i++)
+      {
+        double[] f = from[i], t = to[i];
+        if (f[x] != Double.POSITIVE_INFINITY)
+        {
+          if (f[y] == Double.POSITIVE_INFINITY)
+            return Double.POSITIVE_INFINITY; // landmark reaches x but not y
+          best = Math.max(best, f[y] - f[x]);
+        }
+        if (t[y] != Double.POSITIVE_INFINITY)
+        {
+          if (t[x] == Double.POSITIVE_INFINITY)
+            return Double.POSITIVE_INFINITY; // y reaches the landmark but x does not
+          best = Math.max(best, t[x] - t[y]);
+        }
+      }
+      return best;
+    }
+
+    //one full Dijkstra from 'source' over the forward or the reverse routes
+    private double[] distances(ReverseArcs reverse, int source, boolean backward, boolean byCost)
+    {
+      int v = reverse.offsets.length - 1;
+      double[] dist = new double[v];
+      Arrays.fill(dist, Double.POSITIVE_INFINITY);
+      IndexMinPQ pq = new IndexMinPQ(v);
+      dist[source] = 0;
+      pq.insert(source, 0);
+      while (!pq.isEmpty())
+      {
+        int x = pq.delMin();
+        if (backward)
+        {
+          for (int i = reverse.offsets[x]; i < reverse.offsets[x + 1]; i++)
+            relax(pq, dist, reverse.sources[i], dist[x] + (byCost ? reverse.cost[i] : reverse.miles[i]));
+        }
+        else
+        {
+          AdjacencyBlock block = reverse.blocks[x >>> BLOCK_SHIFT];
+          for (int i = block.first(x), end = block.end(x); i < end; i++)
+            relax(pq, dist, block.targets[i], dist[x] + (byCost ? block.cost[i] : block.miles[i]));
+        }
+      }
+      return dist;
+    }
+
+    private void relax(IndexMinPQ pq, double[] dist, int y, double candidate)
+    {
+      if (candidate >= dist[y])
+        return;
+      if (dist[y] == Double.POSITIVE_INFINITY)
+        pq.insert(y, candidate);
+      else if (pq.contains(y))
+        pq.decreaseKey(y, candidate);
+      dist[y] = candidate;
+    }
+
+  }//END OF PRIVATE CLASS Landmarks
+
+
+
+  /**
+  *  The <tt>LandmarkRouter</tt> class answers single origin/destination
+  *  queries by miles or price with a bidirectional Dijkstra guided by ALT
+  *  landmark bounds, so a query settles only the cities near the best
+  *  route. The forward search from the origin and the backward search from
+  *  the destination both use the potential p(x) = (bound(x,t) - bound(s,x))/2
+  *  (negated backwards), which keeps every reduced route length
+  *  non-negative; the searches stop once their two smallest keys add up to
+  *  the best route found so far. The reverse routes and the landmarks are
+  *  built on first use. Any route change drops the reverse routes; only an
+  *  added or repriced route can shorten a distance, so only those drop the
+  *  landmarks (a removal leaves their bounds valid).
+  */
+  private class LandmarkRouter implements RouteListener
+  {
+    private final Digraph graph;
+    private volatile ReverseArcs reverse;
+    private final Landmarks[] landmarks = new Landmarks[2]; // by byCost: miles, price
+    private final int count;
+
+    public LandmarkRouter(Digraph graph)
+    {
+      this.graph = graph;
+      this.count = (int) Math.max(1, Math.min(LANDMARKS, Math.min(graph.v, LANDMARK_BYTES / (16L * Math.max(1, graph.v)))));
+      graph.addListener(this);
+    }
+
+    public synchronized void routeChanged(int from, int to)
+    {
+      reverse = null;
+      if (graph.containsEdge(new WeightedDirectedEdge(from, to, 0, 0)))
+        Arrays.fill(landmarks, null);
+    }
+
+    public synchronized void routesReplaced()
+    {
+      reverse = null;
+      Arrays.fill(landmarks, null);
+    }
+
+    //the reverse routes of the current version, shared with ParetoSearch
+    public synchronized ReverseArcs reverse()
+    {
+      if (reverse == null)
+        reverse = new ReverseArcs(graph.blocks(), graph.v);
+      return reverse;
+    }
+
+    //the landmarks for one metric, computed now if a route change dropped them
+    public Landmarks landmarks(boolean byCost)
+    {
+      ReverseArcs arcs = reverse();
+      synchronized (this)
+      {
+        int m = byCost ? 1 : 0;
+        if (landmarks[m] == null && arcs == reverse)
+          landmarks[m] = new Landmarks(arcs, graph.v, byCost, count);
+        return landmarks[m];
+      }
+    }
+
+    //the shortest or cheapest route source --> destination; 'useLandmarks' false gives plain bidirectional Dijkstra
+    public Route route(int source, int destination, boolean byCost, boolean useLandmarks)
+    {
+      Landmarks bounds = useLandmarks ? landmarks(byCost) : null;
+      ReverseArcs arcs = reverse();
+      AdjacencyBlock[] blocks = arcs.blocks; // both directions search the same version of the routes
+      SearchScratch f = scratch(graph.v);
+      SearchScratch b = backwardScratch(graph.v);
+      IndexMinPQ forward = f.heap, backward = b.heap;
+
+      double p = potential(bounds, source, destination, source);
+      f.reach(source, 0, -1);
+      f.potential[source] = p;
+      forward.insert(source, p);
+      p = potential(bounds, source, destination, destination);
+      b.reach(destination, 0, -1);
+      b.potential[destination] = -p;
+      backward.insert(destination, -p);
+
+      double best = (source == destination) ? 0 : Double.POSITIVE_INFINITY;
+      int meet = (source == destination) ? source : -1;
+      while (!forward.isEmpty() && !backward.isEmpty() && forward.minKey() + backward.minKey() < best)
+      {
+        if (forward.minKey() <= backward.minKey())
+        {
+          int x = forward.delMin();
+          f.settle(x);
+          AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+          for (int i = block.first(x), end = block.end(x); i < end; i++)
+          {
+            int y = block.targets[i];
+            double candidate = f.dist[x] + (byCost ? block.cost[i] : block.miles[i]);
+            if (relax(f, forward, bounds, source, destination, y, candidate, x, false) && b.isReached(y)
+                && candidate + b.dist[y] < best)
+            {
+              best = candidate + b.dist[y];
+              meet = y;
+            }
+          }
+        }
+        else
+        {
+          int x = backward.delMin();
+          b.settle(x);
+          for (int i = arcs.offsets[x]; i < arcs.offsets[x + 1]; i++)
+          {
+            int y = arcs.sources[i];
+            double candidate = b.dist[x] + (byCost ? arcs.cost[i] : arcs.miles[i]);
+            if (relax(b, backward, bounds, source, destination, y, candidate, x, true) && f.isReached(y)
+                && candidate + f.dist[y] < best)
+            {
+              best = candidate + f.dist[y];
+              meet = y;
+            }
+          }
+        }
+      }//end of while() loop
+      forward.clear();
+      backward.clear();
+      if (meet < 0)
+        return Route.NONE;
+
+      //forward edgeTo[] leads back to the source, backward edgeTo[] on to the destination
+      int length = 0;
+      for (int x = meet; x != -1; x = f.edgeTo[x])
+        length++;
+      for (int x = b.edgeTo[meet]; x != -1; x = b.edgeTo[x])
+        length++;
+      int[] stops = new int[length];
+      double[] legs = new double[length];
+      int i = 0;
+      for (int x = meet; x != -1; x = f.edgeTo[x])
+        stops[i++] = x;
+      for (int l = 0, r = i - 1; l < r; l++, r--)
+      {
+        int swap = stops[l];
+        stops[l] = stops[r];
+        stops[r] = swap;
+      }
+      int middle = i - 1; // the meeting city
+      for (int x = b.edgeTo[meet]; x != -1; x = b.edgeTo[x])
+        stops[i++] = x;
+      for (int k = 1; k < length; k++)
+      {
+        int x = stops[k - 1], y = stops[k];
+        legs[k] = (k <= middle) ? f.dist[y] - f.dist[x] : b.dist[x] - b.dist[y];
+      }
+      return new Route(stops, legs, best);
+    }//end of route() method
+
+    //cities settled by the calling thread's last route() call, both directions together
+    public int lastSettled()
+    {
+      return scratch.get().settledCount + backwardScratch.get().settledCount;
+    }
+
+    //the forward potential of x; the backward search uses its negation
+    private double potential(Landmarks bounds, int source, int destination, int x)
+    {
+      if (bounds == null)
+        return 0;
+      return (bounds.bound(x, destination) - bounds.bound(source, x)) / 2;
+    }
+
+    //reaches or improves y in one direction; false if y is settled, not improved or cut off by the bounds
+    private boolean relax(SearchScratch s, IndexMinPQ pq, Landmarks bounds, int source, int destination,
+                          int y, double candidate, int previous, boolean backward)
+    {
+      if (s.isSettled(y))
+        return false;
+      if (!s.isReached(y))
+      {
+        double p = potential(bounds, source, destination, y);
+        if (Double.isNaN(p) || Double.isInfinite(p))
+          return false; // the landmarks prove no route from source through y to destination
+        s.reach(y, candidate, previous);
+        s.potential[y] = backward ? -p : p;
+        pq.insert(y, candidate + s.potential[y]);
+        return true;
+      }
+      if (candidate >= s.dist[y])
+        return false;
+      s.reach(y, candidate, previous);
+      pq.decreaseKey(y, candidate + s.potential[y]);
+      return true;
+    }
+
+  }//END OF PRIVATE CLASS LandmarkRouter
+
+
+  /**
+  *  The <tt>Contractor</tt> class does the preprocessing for a
+  *  ContractionHierarchy. Cities are contracted in rounds: every round
+  *  takes the cities whose priority (shortcuts added minus routes removed,
+  *  plus neighbours already contracted) is lower than that of all their
+  *  neighbours, an independent set, so their witness searches run in
+  *  parallel. Contracting x adds a shortcut u --> w for a pair of
+  *  neighbours unless a witness search from u, avoiding x and everything
+  *  contracted, finds a path to w at most as long as u --> x --> w. Witness
+  *  searches give up after WITNESS_LIMIT cities, which can only add
+  *  shortcuts that were not needed. The routes a city still has when it is
+  *  contracted all lead to cities contracted later: they become its upward
+  *  (outgoing) and downward (incoming) arcs in the hierarchy.
+  *
+  *  Contraction stops once the cities left average CORE_DEGREE live routes
+  *  each; on well-connected networks the last few thousand cities would
+  *  otherwise need ever more witness searches for no fewer shortcuts. The
+  *  cities of that core take the top ranks and keep all their routes as
+  *  both upward and downward arcs, so queries stay exact and just search
+  *  the core as a plain bidirectional Dijkstra.
+  */
+  private class Contractor
+  {
+    private static final int WITNESS_LIMIT = 256;  // settled cities per witness search when contracting
+    private static final int ESTIMATE_LIMIT = 32;  // ... and when only estimating a priority
+    private static final int CORE_DEGREE = 16;     // average live routes per city that stop contraction
+    private final int v;
+    private final int[][] outTo, outMid, inFrom, inMid; // live routes of the cities not yet contracted
+    private final double[][] outWeight, inWeight;
+    private final int[] outDegree, inDegree;
+    private final boolean[] done;     // contracted, or being contracted in this round
+    private final int[] deleted;      // neighbours contracted so far
+    private final int[] priority;
+    private final int[] touched;      // neighbours of this round's cities, whose priority changes
+    private final int[] mark;         // mark[x] == round --> x is already in touched[]
+    private final int[] rank;
+    private final int[][] upTo, upMid, downFrom, downMid;
+    private final double[][] upWeight, downWeight;
+    private long shortcuts;
+    private long liveArcs;            // routes and shortcuts between cities not yet contracted
+    private int core;                 // cities left uncontracted
+    //per thread: target[y] == target[v] --> y is a target of the running witness search
+    private final ThreadLocal<int[]> target;
+
+    public Contractor(AdjacencyBlock[] blocks, int v, boolean byCost)
+    {
+      this.v = v;
+      outTo = new int[v][];
+      outMid = new int[v][];
+      outWeight = new double[v][];
+      inFrom = new int[v][];
+      inMid = new int[v][];
+      inWeight = new double[v][];
+      outDegree = new int[v];
+      inDegree = new int[v];
+      done = new boolean[v];
+      deleted = new int[v];
+      priority = new int[v];
+      touched = new int[v];
+      mark = new int[v];
+      Arrays.fill(mark, -1);
+      rank = new int[v];
+      upTo = new int[v][];
+      upMid = new int[v][];
+      upWeight = new double[v][];
+      downFrom = new int[v][];
+      downMid = new int[v][];
+      downWeight = new double[v][];
+      target = ThreadLocal.withInitial(() -> new int[v + 1]);
+
+      //the shortest of any parallel routes, sorted by (target, position) per city
+      for (int x = 0; x < v; x++)
+      {
+        AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+        int first = block.first(x), end = block.end(x);
+        long[] keys = new long[end - first];
+        for (int i = first; i < end; i++)
+          keys[i - first] = ((long) block.targets[i] << 32) | (i - first);
+        Arrays.sort(keys);
+        outTo[x] = new int[keys.length];
+        outWeight[x] = new double[keys.length];
+        outMid[x] = new int[keys.length];
+        for (long key : keys)
+        {
+          int y = (int) (key >>> 32);
+          int i = first + (int) key;
+          double weight = byCost ? block.cost[i] : block.miles[i];
+          int last = outDegree[x] - 1;
+          if (y == x)
+            continue;
+          if (last >= 0 && outTo[x][last] == y)
+          {
+            outWeight[x][last] = Math.min(outWeight[x][last], weight);
+            continue;
+          }
+          outTo[x][outDegree[x]] = y;
+          outWeight[x][outDegree[x]] = weight;
+          outMid[x][outDegree[x]] = -1;
+          outDegree[x]++;
+          inDegree[y]++;
+          liveArcs++;
+        }
+      }
+      for (int y = 0; y < v; y++)
+      {
+        inFrom[y] = new int[inDegree[y]];
+        inWeight[y] = new double[inDegree[y]];
+        inMid[y] = new int[inDegree[y]];
+        inDegree[y] = 0;
+      }
+      for (int x = 0; x < v; x++)
+      {
+        for (int i = 0; i < outDegree[x]; i++)
+        {
+          int y = outTo[x][i];
+          inFrom[y][inDegree[y]] = x;
+          inWeight[y][inDegree[y]] = outWeight[x][i];
+          inMid[y][inDegree[y]] = -1;
+          inDegree[y]++;
+        }
+      }
+    }
+
+    //contracts every city; run inside the ForkJoinPool whose threads should do the work
+    public void contract()
+    {
+      IntStream.range(0, v).parallel().forEach(x -> priority[x] = priority(x));
+      int[] alive = IntStream.range(0, v).toArray();
+      int next = 0;
+      for (int round = 0; alive.length > 0 && liveArcs < (long) CORE_DEGREE * alive.length; round++)
+      {
+        int[] batch = Arrays.stream(alive).parallel().filter(this::isLocalMinimum).toArray();
+        for (int x : batch)
+          done[x] = true;
+        double[][] found = new double[batch.length][];
+        IntStream.range(0, batch.length).parallel().forEach(i -> found[i] = shortcuts(batch[i], WITNESS_LIMIT));
+
+        int dirty = 0;
+        for (int i = 0; i < batch.length; i++)
+        {
+          int x = batch[i];
+          record(x, next++);
+          for (int j = 0; j < outDegree[x]; j++)
+          {
+            int w = outTo[x][j];
+            remove(inFrom, inMid, inWeight, inDegree, w, x);
+            deleted[w]++;
+            if (mark[w] != round)
+              touched[dirty++] = w;
+            mark[w] = round;
+          }
+          for (int j = 0; j < inDegree[x]; j++)
+          {
+            int u = inFrom[x][j];
+            remove(outTo, outMid, outWeight, outDegree, u, x);
+            deleted[u]++;
+            if (mark[u] != round)
+              touched[dirty++] = u;
+            mark[u] = round;
+          }
+          liveArcs -= outDegree[x] + inDegree[x];
+          outTo[x] = inFrom[x] = outMid[x] = inMid[x] = null;
+          outWeight[x] = inWeight[x] = null;
+        }
+        for (int i = 0; i < batch.length; i++)
+        {
+          double[] list = found[i]; // (u, w, weight) triples
+          for (int k = 0; k < list.length; k += 3)
+            addArc((int) list[k], (int) list[k + 1], list[k + 2], batch[i]);
+          shortcuts += list.length / 3;
+        }
+
+        alive = Arrays.stream(alive).filter(x -> !done[x]).toArray();
+        IntStream.range(0, dirty).parallel().forEach(i -> priority[touched[i]] = priority(touched[i]));
+      }
+
+      //the core: every live route is both an upward arc of its origin and a downward arc of its destination
+      core = alive.length;
+      for (int x : alive)
+        record(x, next++);
+    }
+
+    //x's live routes become its hierarchy arcs
+    private void record(int x, int position)
+    {
+      rank[x] = position;
+      upTo[x] = Arrays.copyOf(outTo[x], outDegree[x]);
+      upMid[x] = Arrays.copyOf(outMid[x], outDegree[x]);
+      upWeight[x] = Arrays.copyOf(outWeight[x], outDegree[x]);
+      downFrom[x] = Arrays.copyOf(inFrom[x], inDegree[x]);
+      downMid[x] = Arrays.copyOf(inMid[x], inDegree[x]);
+      downWeight[x] = Arrays.copyOf(inWeight[x], inDegree[x]);
+    }
+
+    //true if x comes before all its live neighbours in (priority, city) order
+    private boolean isLocalMinimum(int x)
+    {
+      for (int j = 0; j < outDegree[x]; j++)
+        if (before(outTo[x][j], x))
+          return false;
+      for (int j = 0; j < inDegree[x]; j++)
+        if (before(inFrom[x][j], x))
+          return false;
+      return true;
+    }
+
+    private boolean before(int a, int b)
+    {
+      return priority[a] < priority[b] || (priority[a] == priority[b] && a < b);
+    }
+
+    private int priority(int x)
+    {
+      return shortcuts(x, ESTIMATE_LIMIT).length / 3 - outDegree[x] - inDegree[x] + deleted[x];
+    }
+
+    //the shortcuts contracting x needs, as (u, w, weight) triples; a witness search gives up after
+    //'settleLimit' cities, which only costs extra shortcuts
+    private double[] shortcuts(int x, int settleLimit)
+    {
+      double[] found = new double[0];
+      int count = 0;
+      SearchScratch s = scratch.get();
+      int[] mark = target.get();
+      for (int i = 0; i < inDegree[x]; i++)
+      {
+        int u = inFrom[x][i];
+        double toX = inWeight[x][i];
+        double limit = -1;
+        int targets = 0;
+        int stamp = ++mark[v];
+        for (int j = 0; j < outDegree[x]; j++)
+        {
+          int w = outTo[x][j];
+          if (w != u)
+          {
+            limit = Math.max(limit, toX + outWeight[x][j]);
+            targets++;
+            mark[w] = stamp;
+          }
+        }
+        if (limit < 0)
+          continue;
+
+        witness(s, u, x, limit, settleLimit, targets, mark);
+        for (int j = 0; j < outDegree[x]; j++)
+        {
+          int w = outTo[x][j];
+          double via = toX + outWeight[x][j];
+          if (w == u || (s.isReached(w) && s.dist[w] <= via))
+            continue;
+          if (3 * count + 3 > found.length)
+            found = Arrays.copyOf(found, Math.max(6, 2 * found.length));
+          found[3 * count] = u;
+          found[3 * count + 1] = w;
+          found[3 * count + 2] = via;
+          count++;
+        }
+      }
+      return Arrays.copyOf(found, 3 * count);
+    }
+
+    //bounded Dijkstra from u over live cities other than x, stopped past 'limit', after 'settleLimit'
+    //cities or once all 'targets' marked cities are settled
+    private void witness(SearchScratch s, int u, int x, double limit, int settleLimit, int targets, int[] mark)
+    {
+      s.begin(v);
+      IndexMinPQ pq = s.heap;
+      s.reach(u, 0, -1);
+      pq.insert(u, 0);
+      int settled = 0;
+      while (!pq.isEmpty() && pq.minKey() <= limit && settled++ < settleLimit && targets > 0)
+      {
+        int y = pq.delMin();
+        s.settle(y);
+        if (mark[y] == mark[v])
+          targets--;
+        for (int j = 0; j < outDegree[y]; j++)
+        {
+          int z = outTo[y][j];
+          if (z == x || done[z] || s.isSettled(z))
+            continue;
+          double candidate = s.dist[y] + outWeight[y][j];
+          if (!s.isReached(z))
+          {
+            s.reach(z, candidate, y);
+            pq.insert(z, candidate);
+          }
+          else if (candidate < s.dist[z])
+          {
+            s.reach(z, candidate, y);
+            pq.decreaseKey(z, candidate);
+          }
+        }
+      }
+      pq.clear();
+    }
+
+    //adds u --> w, or shortens the existing route u --> w
+    private void addArc(int u, int w, double weight, int middle)
+    {
+      for (int j = 0; j < outDegree[u]; j++)
+      {
+        if (outTo[u][j] == w)
+        {
+          if (weight < outWeight[u][j])
+          {
+            outWeight[u][j] = weight;
+            outMid[u][j] = middle;
+            for (int k = 0; k < inDegree[w]; k++)
+            {
+              if (inFrom[w][k] == u)
+              {
+                inWeight[w][k] = weight;
+                inMid[w][k] = middle;
+              }
+            }
+          }
+          return;
+        }
+      }
+      append(outTo, outMid, outWeight, outDegree, u, w, weight, middle);
+      append(inFrom, inMid, inWeight, inDegree, w, u, weight, middle);
+      liveArcs++;
+    }
+
+    private void append(int[][] ends, int[][] mids, double[][] weights, int[] degree, int x, int y, double weight, int middle)
+    {
+      int n = degree[x];
+      if (n == ends[x].length)
+      {
+        int capacity = Math.max(4, 2 * n);
+        ends[x] = Arrays.copyOf(ends[x], capacity);
+        mids[x] = Arrays.copyOf(mids[x], capacity);
+        weights[x] = Arrays.copyOf(weights[x], capacity);
+      }
+      ends[x][n] = y;
+      mids[x][n] = middle;
+      weights[x][n] = weight;
+      degree[x]++;
+    }
+
+    //drops y from the list of x, moving the last entry into its place
+    private void remove(int[][] ends, int[][] mids, double[][] weights, int[] degree, int x, int y)
+    {
+      for (int j = 0; j < degree[x]; j++)
+      {
+        if (ends[x][j] == y)
+        {
+          int last = --degree[x];
+          ends[x][j] = ends[x][last];
+          mids[x][j] = mids[x][last];
+          weights[x][j] = weights[x][last];
+          return;
+        }
+      }
+    }
+
+  }//END OF PRIVATE CLASS Contractor
+
+
+
+  /**
+  *  The <tt>ContractionHierarchy</tt> class answers shortest route queries
+  *  by one metric (miles or price) on a contracted copy of the routes. Each
+  *  city has a rank; the forward search from the origin only follows arcs
+  *  up to higher ranked cities and the backward search from the
+  *  destination only follows arcs down from higher ranked cities, so both
+  *  settle a handful of cities. An arc is either a route or a shortcut
+  *  through a lower ranked middle city, and shortcuts are unpacked again
+  *  into the routes they stand for. File layout (little endian):
+  *  <pre>
+  *    int magic "AIRC", int version, int v, int byCost, long routes fingerprint
+  *    long shortcuts, int core cities, int up arcs, int down arcs, int[v] rank
+  *    int[v+1] up offsets, int[] up targets, int[] up middles, double[] up weights
+  *    int[v+1] down offsets, int[] down sources, int[] down middles, double[] down weights
+  *    long CRC32 of everything before it
+  *  </pre>
+  */
+  private class ContractionHierarchy
+  {
+    private static final int MAGIC = 0x43524941; // "AIRC" once written little endian
+    private static final int VERSION = 1;
+    private final int v;
+    private final boolean byCost;
+    private final long fingerprint;  // routeFingerprint() of the routes it was built from
+    private final int[] rank;
+    private final int[] upOffsets, upTargets, upMiddle;   // arcs x --> y with rank[y] > rank[x], or both in the core
+    private final double[] upWeight;
+    private final int[] downOffsets, downSources, downMiddle; // arcs y --> x with rank[y] > rank[x] or both in the core, kept at x
+    private final double[] downWeight;
+    private final long shortcuts;
+    private final int core;          // uncontracted top cities, whose arcs go both up and down
+    private final long nanos;        // time taken to build or load
+
+    public ContractionHierarchy(Digraph graph, boolean byCost, int threads)
+    {
+      long start = System.nanoTime();
+      AdjacencyBlock[] blocks = graph.blocks(); // built from one version of the routes
+      this.v = graph.v;
+      this.byCost = byCost;
+      this.fingerprint = routeFingerprint(blocks, v);
+      Contractor contractor = new Contractor(blocks, v, byCost);
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try
+      {
+        pool.submit(contractor::contract).get();
+      }
+      catch(InterruptedException | ExecutionException ex)
+      {
+        throw new RuntimeException("Contraction failed: " + ex.getCause(), ex);
+      }
+      finally
+      {
+        pool.shutdown();
+      }
+
+      rank = contractor.rank;
+      upOffsets = offsets(contractor.upTo);
+      upTargets = concat(contractor.upTo, upOffsets[v]);
+      upMiddle = concat(contractor.upMid, upOffsets[v]);
+      upWeight = concat(contractor.upWeight, upOffsets[v]);
+      downOffsets = offsets(contractor.downFrom);
+      downSources = concat(contractor.downFrom, downOffsets[v]);
+      downMiddle = concat(contractor.downMid, downOffsets[v]);
+      downWeight = concat(contractor.downWeight, downOffsets[v]);
+      shortcuts = contractor.shortcuts;
+      core = contractor.core;
+      nanos = System.nanoTime() - start;
+    }
+
+    //opens a hierarchy saved by save()
+    public ContractionHierarchy(String fileName) throws IOException
+    {
+      long start = System.nanoTime();
+      FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+      try
+      {
+        long size = channel.size();
+        if(size > Integer.MAX_VALUE)
+          throw new IOException("Hierarchy " + fileName + " is larger than 2 GB");
+        if(size < 52)
+          throw new IOException("Hierarchy " + fileName + " is truncated");
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        in.order(ByteOrder.LITTLE_ENDIAN);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer body = in.duplicate();
+        body.limit((int) size - 8);
+        crc.update(body);
+        if(crc.getValue() != in.getLong((int) size - 8))
+          throw new IOException("Hierarchy " + fileName + " is corrupt (checksum mismatch)");
+        if(in.getInt() != MAGIC)
+          throw new IOException(fileName + " is not a contraction hierarchy");
+        int version = in.getInt();
+        if(version != VERSION)
+          throw new IOException("Hierarchy " + fileName + " has version " + version + ", expected " + VERSION);
+        v = in.getInt();
+        byCost = in.getInt() != 0;
+        fingerprint = in.getLong();
+        shortcuts = in.getLong();
+        core = in.getInt();
+        int up = in.getInt();
+        int down = in.getInt();
+        rank = getInts(in, v);
+        upOffsets = getInts(in, v + 1);
+        upTargets = getInts(in, up);
+        upMiddle = getInts(in, up);
+        upWeight = getDoubles(in, up);
+        downOffsets = getInts(in, v + 1);
+        downSources = getInts(in, down);
+        downMiddle = getInts(in, down);
+        downWeight = getDoubles(in, down);
+      }
+      catch(BufferUnderflowException ex)
+      {
+        throw new IOException("Hierarchy " + fileName + " is truncated");
+      }
+      finally
+      {
+        channel.close();
+      }
+      nanos = System.nanoTime() - start;
+    }
+
+    public void save(String fileName) throws IOException
+    {
+      long size = 52 + 4L * v + 2 * (4L * (v + 1)) + 16L * (upTargets.length + downSources.length);
+      if(size > Integer.MAX_VALUE)
+        throw new IOException("Hierarchy of " + size + " bytes does not fit one file buffer");
+      ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+      out.putInt(MAGIC).putInt(VERSION).putInt(v).putInt(byCost ? 1 : 0).putLong(fingerprint);
+      out.putLong(shortcuts).putInt(core).putInt(upTargets.length).putInt(downSources.length);
+      for(int[] values : new int[][] {rank, upOffsets, upTargets, upMiddle})
+      {
+        out.asIntBuffer().put(values);
+        out.position(out.position() + 4 * values.length);
+      }
+      out.asDoubleBuffer().put(upWeight);
+      out.position(out.position() + 8 * upWeight.length);
+      for(int[] values : new int[][] {downOffsets, downSources, downMiddle})
+      {
+        out.asIntBuffer().put(values);
+        out.position(out.position() + 4 * values.length);
+      }
+      out.asDoubleBuffer().put(downWeight);
+      out.position(out.position() + 8 * downWeight.length);
+      CRC32 crc = new CRC32();
+      crc.update(out.array(), 0, out.position());
+      out.putLong(crc.getValue());
+      out.flip();
+
+      FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      try
+      {
+        while(out.hasRemaining())
+          channel.write(out);
+      }
+      finally
+      {
+        channel.close();
+      }
+    }//end of save() method
+
+    //true if this hierarchy was built from exactly these routes
+    public boolean matches(Digraph graph)
+    {
+      return graph.v == v && routeFingerprint(graph.blocks(), v) == fingerprint;
+    }
+
+    //the shortest (or cheapest) route source --> destination with one leg per original route
+    public Route route(int source, int destination)
+    {
+      SearchScratch f = scratch(v);
+      SearchScratch b = backwardScratch(v);
+      IndexMinPQ forward = f.heap, backward = b.heap;
+      f.reach(source, 0, -1);
+      forward.insert(source, 0);
+      b.reach(destination, 0, -1);
+      backward.insert(destination, 0);
+
+      double best = Double.POSITIVE_INFINITY;
+      int meet = -1;
+      while (forward.minKey() < best || backward.minKey() < best)
+      {
+        //each direction stops on its own once nothing on its heap can beat the best route
+        boolean up = forward.minKey() < best && forward.minKey() <= backward.minKey() || backward.minKey() >= best;
+        SearchScratch s = up ? f : b;
+        SearchScratch other = up ? b : f;
+        IndexMinPQ pq = up ? forward : backward;
+        int[] offsets = up ? upOffsets : downOffsets;
+        int[] ends = up ? upTargets : downSources;
+        double[] weights = up ? upWeight : downWeight;
+
+        int x = pq.delMin();
+        s.settle(x);
+        if (other.isReached(x) && s.dist[x] + other.dist[x] < best)
+        {
+          best = s.dist[x] + other.dist[x];
+          meet = x;
+        }
+        for (int i = offsets[x]; i < offsets[x + 1]; i++)
+        {
+          int y = ends[i];
+          if (s.isSettled(y))
+            continue;
+          double candidate = s.dist[x] + weights[i];
+          if (!s.isReached(y))
+          {
+            s.reach(y, candidate, x);
+            pq.insert(y, candidate);
+          }
+          else if (candidate < s.dist[y])
+          {
+            s.reach(y, candidate, x);
+            pq.decreaseKey(y, candidate);
+          }
+        }
+      }//end of while() loop
+      forward.clear();
+      backward.clear();
+      if (meet < 0)
+        return Route.NONE;
+
+      //the hierarchy path: forward edgeTo[] back to the source, backward edgeTo[] on to the destination
+      int hops = 0;
+      for (int x = meet; x != -1; x = f.edgeTo[x])
+        hops++;
+      int[] path = new int[hops];
+      for (int x = meet, i = hops - 1; x != -1; x = f.edgeTo[x], i--)
+        path[i] = x;
+      for (int x = b.edgeTo[meet]; x != -1; x = b.edgeTo[x])
+      {
+        path = Arrays.copyOf(path, path.length + 1);
+        path[path.length - 1] = x;
+      }
+      return unpack(path, best);
+    }//end of route() method
+
+    //cities settled by the calling thread's last route() call, both directions together
+    public int lastSettled()
+    {
+      return scratch.get().settledCount + backwardScratch.get().settledCount;
+    }
+
+    //replaces every shortcut on the path by the two arcs it stands for, with an explicit stack
+    private Route unpack(int[] path, double total)
+    {
+      int[] stops = new int[path.length];
+      double[] legs = new double[path.length];
+      int n = 0;
+      stops[n++] = path[0];
+      int[] stack = new int[16];
+      for (int p = 1; p < path.length; p++)
+      {
+        stack[0] = path[p - 1];
+        stack[1] = path[p];
+        int top = 2;
+        while (top > 0)
+        {
+          int to = stack[--top], from = stack[--top];
+          int arc = arc(from, to);
+          boolean upward = rank[to] > rank[from];
+          int middle = upward ? upMiddle[arc] : downMiddle[arc];
+          if (middle < 0)
+          {
+            if (n == stops.length)
+            {
+              stops = Arrays.copyOf(stops, 2 * n);
+              legs = Arrays.copyOf(legs, 2 * n);
+            }
+            stops[n] = to;
+            legs[n] = upward ? upWeight[arc] : downWeight[arc];
+            n++;
+            continue;
+          }
+          if (top + 4 > stack.length)
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+          stack[top++] = middle; // second half, taken after the first
+          stack[top++] = to;
+          stack[top++] = from;
+          stack[top++] = middle;
+        }
+      }
+      return new Route(Arrays.copyOf(stops, n), Arrays.copyOf(legs, n), total);
+    }
+
+    //position of the arc from --> to among the up arcs of 'from' or the down arcs of 'to'
+    private int arc(int from, int to)
+    {
+      if (rank[to] > rank[from])
+      {
+        for (int i = upOffsets[from]; i < upOffsets[from + 1]; i++)
+          if (upTargets[i] == to)
+            return i;
+      }
+      else
+      {
+        for (int i = downOffsets[to]; i < downOffsets[to + 1]; i++)
+          if (downSources[i] == from)
+            return i;
+      }
+      throw new IllegalStateException("no hierarchy arc " + from + " --> " + to);
+    }
+
+    public String describe()
+    {
+      return String.format("%s hierarchy: %d cities (core of %d), %d up and %d down arcs (%d shortcuts), %.1f ms to build or load",
+                           byCost ? "price" : "miles", v, core, upTargets.length, downSources.length, shortcuts, nanos / 1e6);
+    }
+
+    private int[] offsets(int[][] lists)
+    {
+      int[] offsets = new int[lists.length + 1];
+      for (int x = 0; x < lists.length; x++)
+        offsets[x + 1] = offsets[x] + lists[x].length;
+      return offsets;
+    }
+
+    private int[] concat(int[][] lists, int size)
+    {
+      int[] all = new int[size];
+      for (int x = 0, at = 0; x < lists.length; at += lists[x].length, x++)
+        System.arraycopy(lists[x], 0, all, at, lists[x].length);
+      return all;
+    }
+
+    private double[] concat(double[][] lists, int size)
+    {
+      double[] all = new double[size];
+      for (int x = 0, at = 0; x < lists.length; at += lists[x].length, x++)
+        System.arraycopy(lists[x], 0, all, at, lists[x].length);
+      return all;
+    }
+
+    private int[] getInts(ByteBuffer in, int count)
+    {
+      int[] values = new int[count];
+      in.asIntBuffer().get(values);
+      in.position(in.position() + 4 * count);
+      return values;
+    }
+
+    private double[] getDoubles(ByteBuffer in, int count)
+    {
+      double[] values = new double[count];
+      in.asDoubleBuffer().get(values);
+      in.position(in.position() + 8 * count);
+      return values;
+    }
+
+  }//END OF PRIVATE CLASS ContractionHierarchy
+
+
+
+  /**
+  *  The <tt>HierarchyService</tt> class keeps a ContractionHierarchy per
+  *  metric up to date with a Digraph. A hierarchy saved next to the route
+  *  file is reused if it was built from the same routes. Any route change
+  *  drops the hierarchies and queues a rebuild on a background thread;
+  *  until it finishes, hierarchy() returns null and callers fall back to
+  *  another search. A rebuild that finishes after a newer change is thrown
+  *  away and started again; one that fails is logged and retried by the
+  *  next hierarchy() call.
+  */
+  private class HierarchyService implements RouteListener
+  {
+    private final Digraph graph;
+    private final String prefix;     // hierarchies are saved as prefix.miles.ch and prefix.price.ch, null to not save
+    private final ContractionHierarchy[] hierarchies = new ContractionHierarchy[2]; // by byCost: miles, price
+    private final boolean[] queued = new boolean[2];
+    private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(task ->
+    {
+      Thread thread = new Thread(task, "hierarchy-rebuild");
+      thread.setDaemon(true);
+      return thread;
+    });
+    private long generation;         // bumped by every route change
+
+    public HierarchyService(Digraph graph, String prefix)
+    {
+      this.graph = graph;
+      this.prefix = prefix;
+      for (int m = 0; m < 2 && prefix != null; m++)
+      {
+        File file = new File(fileName(m == 1));
+        try
+        {
+          if (file.isFile())
+          {
+            ContractionHierarchy saved = new ContractionHierarchy(file.getPath());
+            if (saved.byCost == (m == 1) && saved.matches(graph))
+              hierarchies[m] = saved;
+          }
+        }
+        catch(IOException ex)
+        {
+          System.err.println("Ignoring " + file + ": " + ex.getMessage());
+        }
+      }
+      graph.addListener(this);
+    }
+
+    public String fileName(boolean byCost)
+    {
+      return prefix + (byCost ? ".price.ch" : ".miles.ch");
+    }
+
+    //the hierarchy for the current routes, or null while it is being (re)built
+    public synchronized ContractionHierarchy hierarchy(boolean byCost)
+    {
+      int m = byCost ? 1 : 0;
+      if (hierarchies[m] == null)
+        queue(m);
+      return hierarchies[m];
+    }
+
+    public synchronized void routeChanged(int from, int to)
+    {
+      routesReplaced();
+    }
+
+    public synchronized void routesReplaced()
+    {
+      generation++;
+      for (int m = 0; m < 2; m++)
+      {
+        if (hierarchies[m] != null)
+        {
+          hierarchies[m] = null;
+          queue(m);
+        }
+      }
+    }
+
+    private void queue(int m)
+    {
+      if (queued[m])
+        return;
+      queued[m] = true;
+      long started = generation;
+      rebuilder.execute(() ->
+      {
+        ContractionHierarchy built = null;
+        try
+        {
+          built = new ContractionHierarchy(graph, m == 1, DEFAULT_THREADS);
+        }
+        catch(RuntimeException | Error ex)
+        {
+          System.err.println("Could not build the " + (m == 1 ? "price" : "miles") + " hierarchy: " + ex);
+        }
+        synchronized (this)
+        {
+          queued[m] = false;
+          if (built == null)
+            return; // searches fall back meanwhile, and the next hierarchy() call tries again
+          if (generation != started)
+          {
+            queue(m); // the routes changed while it was built
+            return;
+          }
+          hierarchies[m] = built;
+        }
+        if (prefix != null)
+        {
+          try
+          {
+            built.save(fileName(m == 1));
+          }
+          catch(IOException ex)
+          {
+            System.err.println("Could not save " + fileName(m == 1) + ": " + ex.getMessage());
+          }
+        }
+      });
+    }
+
+  }//END OF PRIVATE CLASS HierarchyService
+
+
+  /**
+  *  The <tt>ParetoSearch</tt> class finds the routes between two cities
+  *  that no other route beats on miles, price and hops at once. It is a
+  *  label setting search: a label is one partial route (city, miles, price,
+  *  hops, parent label). Three backward searches from the destination first
+  *  give, per city, the fewest miles, the lowest price and the fewest hops
+  *  still needed to get there. Labels leave the heap in order of those
+  *  estimated totals (miles first, then price, then hops); since the
+  *  estimates never overestimate and never drop along a route, a label that
+  *  no settled label at its city dominates is Pareto-optimal and is settled
+  *  there. A label is dropped when a settled label at its city dominates it,
+  *  when a route already found to the destination dominates its estimated
+  *  totals, or when the destination cannot be reached from its city. Labels
+  *  are kept in parallel primitive arrays that the thread's next search
+  *  reuses. A city settles at most 'perCity' labels and a search creates at
+  *  most 'limit'; when either cuts the search short, the routes returned
+  *  are a subset of the Pareto set and truncated() says so.
+  */
+  private class ParetoSearch
+  {
+    private int[] city = new int[1024];
+    private int[] parent = new int[1024];
+    private int[] hops = new int[1024];
+    private int[] miles = new int[1024];
+    private double[] price = new double[1024];
+    private int[] nextAtCity = new int[1024]; // next settled label at the same city, -1 at the end
+    private int labels;
+    private int[] heap = new int[1024];         // label ids, binary heap in (miles, price, hops) order
+    private int heapSize;
+    private int[] head = new int[0];            // first settled label at a city, if stamp[x] == epoch
+    private int[] count = new int[0];           // settled labels at a city, if stamp[x] == epoch
+    private int[] stamp = new int[0];
+    private int epoch;
+    private int settled;
+    private boolean truncated;
+    private int[] lowMiles = new int[0];        // lower bounds x --> destination, INFINITY if out of reach
+    private double[] lowPrice = new double[0];
+    private int[] lowHops = new int[0];
+    private IndexMinPQ pq;
+
+    //the Pareto-optimal routes source --> destination, by increasing miles
+    public List<Itinerary> search(ReverseArcs arcs, int v, int source, int destination, int perCity, int limit)
+    {
+      AdjacencyBlock[] blocks = arcs.blocks;
+      begin(v);
+      bounds(arcs, v, destination);
+      if (lowHops[source] == INFINITY)
+        return new ArrayList<Itinerary>();
+      push(add(source, 0, 0, 0, -1));
+      labelling:
+      while (heapSize > 0)
+      {
+        int l = pop();
+        int x = city[l];
+        if (dominated(x, miles[l], price[l], hops[l]) || pruned(x, miles[l], price[l], hops[l], destination))
+          continue;
+        if (count[x] == perCity)
+        {
+          truncated = true;
+          continue;
+        }
+        nextAtCity[l] = head[x];
+        head[x] = l;
+        count[x]++;
+        settled++;
+        if (x == destination)
+          continue; // going on from the destination only adds a cycle to a route found already
+
+        AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+        for (int i = block.first(x), end = block.end(x); i < end; i++)
+        {
+          int y = block.targets[i];
+          int m = miles[l] + block.miles[i];
+          double p = price[l] + block.cost[i];
+          int h = hops[l] + 1;
+          if (lowHops[y] == INFINITY || dominated(y, m, p, h) || pruned(y, m, p, h, destination))
+            continue;
+          if (labels == limit)
+          {
+            truncated = true;
+            break labelling;
+          }
+          push(add(y, m, p, h, l));
+        }
+      }//end of while() loop
+      heapSize = 0;
+
+      List<Itinerary> found = new ArrayList<Itinerary>();
+      for (int l = (stamp[destination] == epoch) ? head[destination] : -1; l != -1; l = nextAtCity[l])
+        found.add(trace(l));
+      Collections.reverse(found); // settled by increasing miles, listed newest first
+      return found;
+    }//end of search() method
+
+    //labels settled by the last search
+    public int settled()
+    {
+      return settled;
+    }
+
+    //labels created by the last search
+    public int created()
+    {
+      return labels;
+    }
+
+    //true if a label limit stopped the last search early
+    public boolean truncated()
+    {
+      return truncated;
+    }
+
+    private void begin(int v)
+    {
+      if (stamp.length < v)
+      {
+        head = new int[v];
+        count = new int[v];
+        stamp = new int[v];
+        epoch = 0;
+      }
+      if (++epoch == Integer.MAX_VALUE)
+      {
+        Arrays.fill(stamp, 0);
+        epoch = 1;
+      }
+      labels = 0;
+      heapSize = 0;
+      settled = 0;
+      truncated = false;
+    }
+
+    //fills lowMiles[], lowPrice[] and lowHops[] with searches over the routes into each city
+    private void bounds(ReverseArcs arcs, int v, int destination)
+    {
+      if (lowMiles.length < v)
+      {
+        lowMiles = new int[v];
+        lowPrice = new double[v];
+        lowHops = new int[v];
+        pq = new IndexMinPQ(v);
+      }
+      Arrays.fill(lowMiles, 0, v, INFINITY);
+      Arrays.fill(lowPrice, 0, v, Double.POSITIVE_INFINITY);
+      Arrays.fill(lowHops, 0, v, INFINITY);
+
+      for (boolean byCost : new boolean[] {false, true})
+      {
+        pq.insert(destination, 0);
+        if (byCost)
+          lowPrice[destination] = 0;
+        else
+          lowMiles[destination] = 0;
+        while (!pq.isEmpty())
+        {
+          int y = pq.delMin();
+          for (int i = arcs.offsets[y]; i < arcs.offsets[y + 1]; i++)
+          {
+            int x = arcs.sources[i];
+            double candidate = byCost ? lowPrice[y] + arcs.cost[i] : (double) lowMiles[y] + arcs.miles[i];
+            double current = byCost ? lowPrice[x] : (lowMiles[x] == INFINITY ? Double.POSITIVE_INFINITY : lowMiles[x]);
+            if (candidate >= current)
+              continue;
+            if (current == Double.POSITIVE_INFINITY)
+              pq.insert(x, candidate);
+            else if (pq.contains(x))
+              pq.decreaseKey(x, candidate);
+            if (byCost)
+              lowPrice[x] = candidate;
+            else
+              lowMiles[x] = (int) candidate;
+          }
+        }
+      }
+
+      //hops: breadth first, using the label heap as the queue
+      int tail = 0;
+      lowHops[destination] = 0;
+      heap[tail++] = destination;
+      for (int head = 0; head < tail; head++)
+      {
+        int y = heap[head];
+        for (int i = arcs.offsets[y]; i < arcs.offsets[y + 1]; i++)
+        {
+          int x = arcs.sources[i];
+          if (lowHops[x] != INFINITY)
+            continue;
+          lowHops[x] = lowHops[y] + 1;
+          if (tail == heap.length)
+            heap = Arrays.copyOf(heap, 2 * tail);
+          heap[tail++] = x;
+        }
+      }
+    }//end of bounds() method
+
+    //true if a route already found to the destination is no worse than the best
+    //completion of the label (m, p, h) at x could be
+    private boolean pruned(int x, int m, double p, int h, int destination)
+    {
+      return dominated(destination, m + lowMiles[x], p + lowPrice[x], h + lowHops[x]);
+    }
+
+    //true if a label settled at x is no worse than (m, p, h) on all three
+    private boolean dominated(int x, int m, double p, int h)
+    {
+      if (stamp[x] != epoch)
+      {
+        stamp[x] = epoch;
+        head[x] = -1;
+        count[x] = 0;
+        return false;
+      }
+      for (int k = head[x]; k != -1; k = nextAtCity[k])
+        if (miles[k] <= m && price[k] <= p && hops[k] <= h)
+          return true;
+      return false;
+    }
+
+    private int add(int x, int m, double p, int h, int from)
+    {
+      if (labels == city.length)
+      {
+        int capacity = 2 * labels;
+        city = Arrays.copyOf(city, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        hops = Arrays.copyOf(hops, capacity);
+        miles = Arrays.copyOf(miles, capacity);
+        price = Arrays.copyOf(price, capacity);
+        nextAtCity = Arrays.copyOf(nextAtCity, capacity);
+      }
+      city[labels] = x;
+      miles[labels] = m;
+      price[labels] = p;
+      hops[labels] = h;
+      parent[labels] = from;
+      return labels++;
+    }
+
+    private Itinerary trace(int l)
+    {
+      int[] stops = new int[hops[l] + 1];
+      int[] mileLegs = new int[stops.length];
+      double[] priceLegs = new double[stops.length];
+      for (int k = l, i = stops.length - 1; k != -1; k = parent[k], i--)
+      {
+        stops[i] = city[k];
+        if (i > 0)
+        {
+          mileLegs[i] = miles[k] - miles[parent[k]];
+          priceLegs[i] = price[k] - price[parent[k]];
+        }
+      }
+      return new Itinerary(stops, mileLegs, priceLegs, miles[l], price[l]);
+    }
+
+    //heap order: estimated total miles, then price, then hops
+    private boolean less(int a, int b)
+    {
+      int x = city[a], y = city[b];
+      int milesA = miles[a] + lowMiles[x], milesB = miles[b] + lowMiles[y];
+      if (milesA != milesB)
+        return milesA < milesB;
+      double priceA = price[a] + lowPrice[x], priceB = price[b] + lowPrice[y];
+      if (priceA != priceB)
+        return priceA < priceB;
+      return hops[a] + lowHops[x] < hops[b] + lowHops[y];
+    }
+
+    private void push(int l)
+    {
+      if (heapSize == heap.length)
+        heap = Arrays.copyOf(heap, 2 * heapSize);
+      int i = heapSize++;
+      while (i > 0 && less(l, heap[(i - 1) / 2]))
+      {
+        heap[i] = heap[(i - 1) / 2];
+        i = (i - 1) / 2;
+      }
+      heap[i] = l;
+    }
+
+    private int pop()
+    {
+      int top = heap[0];
+      int l = heap[--heapSize];
+      int i = 0;
+      while (2 * i + 1 < heapSize)
+      {
+        int child = 2 * i + 1;
+        if (child + 1 < heapSize && less(heap[child + 1], heap[child]))
+          child++;
+        if (!less(heap[child], l))
+          break;
+        heap[i] = heap[child];
+        i = child;
+      }
+      heap[i] = l;
+      return top;
+    }
+
+  }//END OF PRIVATE CLASS ParetoSearch
+
+
+
+  /**
+  *  The <tt>Itinerary</tt> class is an immutable route with both its miles
+  *  and its price per leg, as found by ParetoSearch.
+  */
+  private static final class Itinerary
+  {
+    private final int[] stops;
+    private final int[] mileLegs;     // mileLegs[i] = miles of stops[i-1] --> stops[i], mileLegs[0] = 0
+    private final double[] priceLegs; // the same for price
+    private final int miles;
+    private final double price;
+
+    public Itinerary(int[] stops, int[] mileLegs, double[] priceLegs, int miles, double price)
+    {
+      this.stops = stops;
+      this.mileLegs = mileLegs;
+      this.priceLegs = priceLegs;
+      this.miles = miles;
+      this.price = price;
+    }
+
+    public int stops()
+    {
+      return stops.length;
+    }
+
+    public int stop(int i)
+    {
+      return stops[i];
+    }
+
+    public int hops()
+    {
+      return stops.length - 1;
+    }
+
+    public int mileLeg(int i)
+    {
+      return mileLegs[i];
+    }
+
+    public double priceLeg(int i)
+    {
+      return priceLegs[i];
+    }
+
+    public int miles()
+    {
+      return miles;
+    }
+
+    public double price()
+    {
+      return price;
+    }
+
+  }//END OF PRIVATE CLASS Itinerary
+
+
+  /**
+  *  The <tt>KShortestPaths</tt> class lists the loopless routes from one
+  *  city to another by miles or price, shortest first (Yen's algorithm),
+  *  computing each only when it is asked for. Route k+1 is the best of the
+  *  candidates made by branching off the first k routes: for every prefix
+  *  (root) of route k, a spur search from its last city that avoids the
+  *  other root cities and the next legs the routes found so far take after
+  *  that same root. Two things keep it cheap:
+  *  <ul>
+  *  <li>spur searches are A* searches guided by the ALT landmark bounds of
+  *      the LandmarkRouter, so they settle few cities;</li>
+  *  <li>a route only branches from where it left the route it was branched
+  *      from (Lawler): the spur searches for the shorter roots were run for
+  *      that earlier route already and their results wait in the candidate
+  *      heap.</li>
+  *  </ul>
+  *  'plain' turns both off, for benchmarks.
+  */
+  private class KShortestPaths implements Iterator<Route>
+  {
+    private final AdjacencyBlock[] blocks;
+    private final int v;
+    private final int source, destination;
+    private final boolean byCost;
+    private final Landmarks bounds;                // null --> plain Dijkstra spur searches
+    private final boolean plain;
+    private final List<Route> paths = new ArrayList<Route>();
+    private final List<Integer> deviations = new ArrayList<Integer>(); // stop where paths.get(k) left its parent
+    private final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+    private final HashSet<String> seen = new HashSet<String>();  // stops of every route found or queued
+    private int returned;
+    private boolean exhausted;
+    private int spurSearches;
+    private long settled;
+
+    public KShortestPaths(Digraph graph, int source, int destination, boolean byCost, Landmarks bounds, boolean plain)
+    {
+      this.bounds = plain ? null : bounds;
+      this.blocks = graph.blocks(); // after the landmarks, as LandmarkRouter.route() does
+      this.v = graph.v;
+      this.source = source;
+      this.destination = destination;
+      this.byCost = byCost;
+      this.plain = plain;
+    }
+
+    public boolean hasNext()
+    {
+      if (returned == paths.size() && !exhausted)
+        advance();
+      return returned < paths.size();
+    }
+
+    public Route next()
+    {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      return paths.get(returned++);
+    }
+
+    //spur searches run so far
+    public int spurSearches()
+    {
+      return spurSearches;
+    }
+
+    //cities settled by all spur searches so far
+    public long settled()
+    {
+      return settled;
+    }
+
+    //finds one more route, or marks the list exhausted
+    private void advance()
+    {
+      if (paths.isEmpty())
+      {
+        Route first = spur(new int[] {source}, 1, new int[0], 0);
+        if (first.isEmpty())
+          exhausted = true;
+        else
+        {
+          paths.add(first);
+          deviations.add(0);
+          seen.add(Arrays.toString(first.stops));
+        }
+        return;
+      }
+
+      Route last = paths.get(paths.size() - 1);
+      int[] banned = new int[paths.size()];
+      double rootTotal = 0;
+      for (int i = 0; i < last.stops() - 1; i++)
+      {
+        if (i > 0)
+          rootTotal += last.leg(i);
+        if (i < deviations.get(paths.size() - 1) && !plain)
+          continue;
+
+        //the next stops of the routes found so far that share the root last.stops[0..i]
+        int count = 0;
+        for (Route found : paths)
+          if (found.stops() > i + 1 && sameRoot(found, last, i))
+            banned[count++] = found.stop(i + 1);
+        Route spur = spur(last.stops, i + 1, banned, count);
+        if (spur.isEmpty())
+          continue;
+
+        int[] stops = Arrays.copyOf(last.stops, i + spur.stops());
+        double[] legs = Arrays.copyOf(last.legs, stops.length);
+        for (int j = 1; j < spur.stops(); j++)
+        {
+          stops[i + j] = spur.stop(j);
+          legs[i + j] = spur.leg(j);
+        }
+        Route route = new Route(stops, legs, rootTotal + spur.total());
+        if (seen.add(Arrays.toString(stops)))
+          candidates.add(new Candidate(route, i));
+      }
+
+      Candidate best = candidates.poll();
+      if (best == null)
+        exhausted = true;
+      else
+      {
+        paths.add(best.route);
+        deviations.add(best.deviation);
+      }
+    }//end of advance() method
+
+    private boolean sameRoot(Route a, Route b, int i)
+    {
+      for (int j = 0; j <= i; j++)
+        if (a.stop(j) != b.stop(j))
+          return false;
+      return true;
+    }
+
+    //the best route root[length-1] --> destination that enters no other root city and does not
+    //start with a leg to a 'banned' city; A* on the landmark bounds unless plain
+    private Route spur(int[] root, int length, int[] banned, int count)
+    {
+      spurSearches++;
+      int from = root[length - 1];
+      SearchScratch s = scratch(v);
+      for (int i = 0; i < length - 1; i++)
+        s.settle(root[i]); // settled cities are never entered again
+      int base = s.settledCount;
+      IndexMinPQ pq = s.heap;
+      double h = potential(from);
+      if (h == Double.POSITIVE_INFINITY)
+        return Route.NONE;
+      s.reach(from, 0, -1);
+      s.potential[from] = h;
+      pq.insert(from, h);
+      boolean found = false;
+      while (!pq.isEmpty())
+      {
+        int x = pq.delMin();
+        s.settle(x);
+        if (x == destination)
+        {
+          found = true;
+          break;
+        }
+        AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+        next:
+        for (int i = block.first(x), end = block.end(x); i < end; i++)
+        {
+          int y = block.targets[i];
+          if (s.isSettled(y))
+            continue;
+          if (x == from)
+            for (int b = 0; b < count; b++)
+              if (banned[b] == y)
+                continue next;
+          double candidate = s.dist[x] + (byCost ? block.cost[i] : block.miles[i]);
+          if (!s.isReached(y))
+          {
+            double p = potential(y);
+            if (p == Double.POSITIVE_INFINITY)
+              continue; // the destination cannot be reached from y
+            s.potential[y] = p;
+            s.reach(y, candidate, x);
+            pq.insert(y, candidate + p);
+          }
+          else if (candidate < s.dist[y])
+          {
+            s.reach(y, candidate, x);
+            pq.decreaseKey(y, candidate + s.potential[y]);
+          }
+        }
+      }//end of while() loop
+      pq.clear();
+      settled += s.settledCount - base;
+      return s.route(from, destination, found);
+    }//end of spur() method
+
+    private double potential(int x)
+    {
+      return (bounds == null) ? 0 : bounds.bound(x, destination);
+    }
+
+  }//END OF PRIVATE CLASS KShortestPaths
+
+
+
+  /**
+  *  The <tt>Candidate</tt> class is a route waiting in the KShortestPaths
+  *  heap, with the stop where it leaves the route it was branched from.
+  *  Candidates order by total, then by fewer stops, then by their stops.
+  */
+  private static final class Candidate implements Comparable<Candidate>
+  {
+    private final Route route;
+    private final int deviation;
+
+    public Candidate(Route route, int deviation)
+    {
+      this.route = route;
+      this.deviation = deviation;
+    }
+
+    public int compareTo(Candidate that)
+    {
+      int c = Double.compare(route.total(), that.route.total());
+      if (c == 0)
+        c = Integer.compare(route.stops(), that.route.stops());
+      for (int i = 0; c == 0 && i < route.stops(); i++)
+        c = Integer.compare(route.stop(i), that.route.stop(i));
+      return c;
+    }
+
+  }//END OF PRIVATE CLASS Candidate
+
+
+  /**
+  *  The <tt>HopLimitedSearch</tt> class finds the cheapest route that takes
+  *  at most a given number of flights: Bellman-Ford rounds, round k
+  *  holding the cheapest price of every city within k flights. Two rolling
+  *  price arrays hold rounds k-1 and k; they only differ at the cities
+  *  whose price dropped in round k-1 (the frontier), so a round first
+  *  copies those and then only looks at the cities the frontier has routes
+  *  to. Each of those pulls the best offer over its incoming routes from
+  *  frontier cities, which touches no other city's entry, so a large round
+  *  runs in parallel. Every price drop goes to a log (round, parent,
+  *  price, older drop of the same city) that rebuilds the route at the end
+  *  without a parent array per round. Offers no cheaper than the best
+  *  price found for the destination so far are ignored.
+  */
+  private class HopLimitedSearch
+  {
+    private static final int PARALLEL_ROUND = 4096; // smallest round worth splitting between threads
+    private double[] previous = new double[0];     // round k-1, valid if stamp[x] == epoch
+    private double[] current = new double[0];      // round k
+    private int[] stamp = new int[0];
+    private int[] lastDrop = new int[0];           // newest log entry of x, -1 if none
+    private int[] touched = new int[0];            // touched[x] == round --> x is in candidates[]
+    private int[] frontierRound = new int[0];      // frontierRound[x] == round - 1 --> x is in the frontier
+    private int[] frontier = new int[0];
+    private int[] candidates = new int[0];
+    private int[] offerFrom = new int[0];          // per candidate: city of its best offer, -1 if none
+    private int epoch;
+    private int[] dropRound = new int[256];
+    private int[] dropParent = new int[256];
+    private int[] dropOlder = new int[256];
+    private double[] dropPrice = new double[256];
+    private int drops;
+    private int rounds;
+    private long offers;
+
+    //the cheapest route source --> destination with at most 'maxHops' flights, by price
+    public Route cheapest(ReverseArcs arcs, int v, int source, int destination, int maxHops, boolean parallel)
+    {
+      AdjacencyBlock[] blocks = arcs.blocks;
+      maxHops = Math.min(maxHops, v - 1); // a cheapest route never needs more
+      begin(v);
+      price(source); // stamps the source at +infinity ...
+      previous[source] = current[source] = 0; // ... then sets it
+      int size = 0;
+      frontier[size++] = source;
+      frontierRound[source] = 0;
+      for (int round = 1; round <= maxHops && size > 0; round++)
+      {
+        rounds = round;
+        //bring the cities that changed last round up to date in 'current'
+        for (int i = 0; i < size; i++)
+          current[frontier[i]] = previous[frontier[i]];
+
+        //the cities the frontier has routes to
+        int count = 0;
+        for (int i = 0; i < size; i++)
+        {
+          int x = frontier[i];
+          AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+          for (int j = block.first(x), end = block.end(x); j < end; j++)
+          {
+            int y = block.targets[j];
+            price(y);
+            if (touched[y] != round && y != source)
+            {
+              touched[y] = round;
+              candidates[count++] = y;
+            }
+          }
+        }
+        offers += count;
+
+        double bound = price(destination);
+        int r = round;
+        if (parallel && count >= PARALLEL_ROUND)
+          IntStream.range(0, count).parallel().forEach(i -> pull(arcs, i, r, bound));
+        else
+          for (int i = 0; i < count; i++)
+            pull(arcs, i, r, bound);
+
+        //log the drops; they are the next frontier
+        size = 0;
+        for (int i = 0; i < count; i++)
+        {
+          if (offerFrom[i] < 0)
+            continue;
+          int y = candidates[i];
+          log(y, round, offerFrom[i], current[y]);
+          frontier[size++] = y;
+          frontierRound[y] = round;
+        }
+        double[] swap = previous;
+        previous = current;
+        current = swap;
+      }//end of for() loop
+
+      return trace(source, destination, maxHops);
+    }//end of cheapest() method
+
+    //Bellman-Ford rounds run by the last search
+    public int rounds()
+    {
+      return rounds;
+    }
+
+    //cities offered a price in the last search, over all rounds
+    public long offers()
+    {
+      return offers;
+    }
+
+    //best offer to candidates[i] over its incoming routes from last round's frontier
+    private void pull(ReverseArcs arcs, int i, int round, double bound)
+    {
+      int y = candidates[i];
+      double best = Math.min(previous[y], bound);
+      int from = -1;
+      for (int j = arcs.offsets[y]; j < arcs.offsets[y + 1]; j++)
+      {
+        int x = arcs.sources[j];
+        if (stamp[x] != epoch || frontierRound[x] != round - 1)
+          continue;
+        double offer = previous[x] + arcs.cost[j];
+        if (offer < best)
+        {
+          best = offer;
+          from = x;
+        }
+      }
+      current[y] = (from < 0) ? previous[y] : best;
+      offerFrom[i] = from;
+    }
+
+    //follows the drop log back from the destination's price after 'maxHops' rounds
+    private Route trace(int source, int destination, int maxHops)
+    {
+      if (stamp[destination] != epoch || lastDrop[destination] < 0)
+        return source == destination ? new Route(new int[] {source}, new double[1], 0) : Route.NONE;
+      int[] stops = new int[maxHops + 1];
+      double[] prices = new double[maxHops + 1];
+      int n = 0;
+      int x = destination;
+      int round = maxHops;
+      while (x != source)
+      {
+        int e = lastDrop[x];
+        while (dropRound[e] > round)
+          e = dropOlder[e]; // the price x had by that round
+        stops[n] = x;
+        prices[n++] = dropPrice[e];
+        x = dropParent[e];
+        round = dropRound[e] - 1;
+      }
+      stops[n] = source;
+      prices[n++] = 0;
+
+      int[] ordered = new int[n];
+      double[] legs = new double[n];
+      for (int i = 0; i < n; i++)
+      {
+        ordered[i] = stops[n - 1 - i];
+        if (i > 0)
+          legs[i] = prices[n - 1 - i] - prices[n - i];
+      }
+      return new Route(ordered, legs, prices[0]);
+    }
+
+    private void log(int x, int round, int parent, double price)
+    {
+      if (drops == dropRound.length)
+      {
+        dropRound = Arrays.copyOf(dropRound, 2 * drops);
+        dropParent = Arrays.copyOf(dropParent, 2 * drops);
+        dropOlder = Arrays.copyOf(dropOlder, 2 * drops);
+        dropPrice = Arrays.copyOf(dropPrice, 2 * drops);
+      }
+      dropRound[drops] = round;
+      dropParent[drops] = parent;
+      dropPrice[drops] = price;
+      dropOlder[drops] = lastDrop[x];
+      lastDrop[x] = drops++;
+    }
+
+    //the price of x in the current round, first stamping x at +infinity in both arrays
+    private double price(int x)
+    {
+      if (stamp[x] != epoch)
+      {
+        stamp[x] = epoch;
+        previous[x] = current[x] = Double.POSITIVE_INFINITY;
+        lastDrop[x] = -1;
+        frontierRound[x] = -1;
+        touched[x] = -1;
+      }
+      return previous[x];
+    }
+
+    private void begin(int v)
+    {
+      if (stamp.length < v)
+      {
+        previous = new double[v];
+        current = new double[v];
+        stamp = new int[v];
+        lastDrop = new int[v];
+        touched = new int[v];
+        frontierRound = new int[v];
+        frontier = new int[v];
+        candidates = new int[v];
+        offerFrom = new int[v];
+        epoch = 0;
+      }
+      if (++epoch == Integer.MAX_VALUE)
+      {
+        Arrays.fill(stamp, 0);
+        epoch = 1;
+      }
+      drops = 0;
+      rounds = 0;
+      offers = 0;
+    }
+
+  }//END OF PRIVATE CLASS HopLimitedSearch
+
+
+  /**
+  *  The <tt>LevelSearch</tt> class is a breadth first search for large
+  *  networks that picks its direction level by level. While the frontier
+  *  is small it expands top-down over the routes leaving it; once a
+  *  fast growing frontier is large against the cities not reached yet, it goes
+  *  bottom-up and every unreached city looks through its incoming routes
+  *  for a frontier city instead, until the frontier is small again.
+  *  Reached cities are a bitset and the frontiers int arrays. With more
+  *  than one core, large levels run in parallel: top-down, every
+  *  new city is claimed by the smallest (frontier position, route
+  *  position) offered to it, which is the route the queue of bfs() would
+  *  have taken first; bottom-up, every task only writes the cities of its
+  *  own bitset words. With parents each new level is put back into queue
+  *  order, so hop counts and routes are those of bfs(); hop counts alone
+  *  let a bottom-up city stop at the first frontier city it finds.
+  */
+  private class LevelSearch
+  {
+    private static final int PARALLEL_LEVEL = 4096; // fewest cities to expand (top-down) or look at (bottom-up) worth splitting
+    private static final int CHUNK = 1024;          // frontier cities per top-down task
+    private static final int CHUNK_WORDS = 64;      // bitset words (64 cities each) per bottom-up task
+    private static final int ALPHA = 14;            // bottom-up once ALPHA * frontier > unreached cities ...
+    private static final int ALPHA_PARENTS = 2;     // ... or ALPHA_PARENTS * frontier, when bottom-up reads every incoming route
+    private static final int BETA = 24;             // ... and only while the frontier holds at least 1/BETA of the cities
+    private long[] reached = new long[0];
+    private long[] inFrontier = new long[0];        // the frontier as a bitset, during a bottom-up level
+    private int[] level = new int[0];               // level[], parent[] and rank[] hold for reached cities
+    private int[] parent = new int[0];
+    private int[] rank = new int[0];                // position in the frontier of its level (set for bottom-up levels)
+    private int[] frontier = new int[0];
+    private int[] next = new int[0];
+    private int[] spare = new int[0];
+    private int[] counts = new int[1];              // per task, then per frontier position
+    private AtomicLongArray claim = new AtomicLongArray(0); // Long.MAX_VALUE outside of a top-down level
+    private int[] sizes = new int[16];              // sizes[k] = cities k hops away
+    private int levels;
+    private int bottomUpLevels;
+    private final LongAdder scanned = new LongAdder();
+
+    //fewest hops from 'source' to every city (destination -1) or until the level holding 'destination';
+    //returns the number of levels found
+    public int search(ReverseArcs arcs, int v, int source, int destination, boolean parents, boolean parallel)
+    {
+      AdjacencyBlock[] blocks = arcs.blocks;
+      begin(v);
+      reach(source, 0, -1);
+      frontier[0] = source;
+      int size = 1;
+      sizes[0] = 1;
+      levels = 1;
+      bottomUpLevels = 0;
+      scanned.reset();
+      parallel &= ForkJoinPool.getCommonPoolParallelism() > 1;
+      int unreached = v - 1;
+      int alpha = parents ? ALPHA_PARENTS : ALPHA;
+      boolean upward = false;
+      int previous = 0;
+
+      while (size > 0 && (destination < 0 || !isReached(destination)))
+      {
+        //cities stand in for their routes here, which would cost a look at every new city to add up;
+        //a frontier that does not double (a map rather than a small world) stays top-down, as
+        //most unreached cities would then be read in full level after level
+        upward = (long) BETA * size >= v && (long) alpha * size > unreached && (upward || size >= 2L * previous);
+        previous = size;
+        int depth = levels - 1;
+        int found;
+        if (upward)
+        {
+          bottomUpLevels++;
+          found = bottomUp(arcs, v, depth, size, parents, parallel && unreached >= PARALLEL_LEVEL);
+        }
+        else if (parallel && size >= PARALLEL_LEVEL)
+          found = topDownParallel(blocks, depth, size);
+        else
+          found = topDown(blocks, depth, size);
+
+        int[] swap = frontier;
+        frontier = next;
+        next = swap;
+        size = found;
+        unreached -= found;
+        if (size > 0)
+        {
+          if (levels == sizes.length)
+            sizes = Arrays.copyOf(sizes, 2 * levels);
+          sizes[levels++] = size;
+        }
+      }//end of while() loop
+      return levels;
+    }//end of search() method
+
+    //hops from the source to x in the last search, -1 if it was not reached
+    public int hops(int x)
+    {
+      return isReached(x) ? level[x] : -1;
+    }
+
+    //the route of the last search to 'destination'; that of bfs() if the search kept parents
+    public Route route(int source, int destination)
+    {
+      if (!isReached(destination))
+        return Route.NONE;
+      int n = level[destination] + 1;
+      int[] stops = new int[n];
+      double[] legs = new double[n];
+      for (int i = n - 1, x = destination; i >= 0; i--, x = parent[x])
+      {
+        stops[i] = x;
+        legs[i] = (i > 0) ? 1 : 0;
+      }
+      return new Route(stops, legs, n - 1);
+    }
+
+    //cities 'hops' hops away in the last search
+    public int levelSize(int hops)
+    {
+      return sizes[hops];
+    }
+
+    public int levels()
+    {
+      return levels;
+    }
+
+    //levels of the last search expanded bottom-up
+    public int bottomUpLevels()
+    {
+      return bottomUpLevels;
+    }
+
+    //routes looked at by the last search
+    public long scanned()
+    {
+      return scanned.sum();
+    }
+
+    //the classic queue order: frontier position, then route position
+    private int topDown(AdjacencyBlock[] blocks, int depth, int size)
+    {
+      int count = 0;
+      long looked = 0;
+      for (int r = 0; r < size; r++)
+      {
+        int x = frontier[r];
+        AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+        int first = block.first(x), end = block.end(x);
+        for (int i = first; i < end; i++)
+        {
+          int y = block.targets[i];
+          if (!isReached(y))
+          {
+            reach(y, depth + 1, x);
+            next[count++] = y;
+          }
+        }
+        looked += end - first;
+      }
+      scanned.add(looked);
+      return count;
+    }//end of topDown() method
+
+    //every new city keeps the smallest (frontier position, route position) claim; the claims
+    //that won are then counted and written out per task in frontier order
+    private int topDownParallel(AdjacencyBlock[] blocks, int depth, int size)
+    {
+      int tasks = (size + CHUNK - 1) / CHUNK;
+      IntStream.range(0, tasks).parallel().forEach(t ->
+      {
+        long looked = 0;
+        for (int r = t * CHUNK, last = Math.min(size, r + CHUNK); r < last; r++)
+        {
+          int x = frontier[r];
+          AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+          int first = block.first(x), end = block.end(x);
+          for (int i = first; i < end; i++)
+            if (!isReached(block.targets[i]))
+              lowerTo(claim, block.targets[i], ((long) r << 32) | (i - first));
+          looked += end - first;
+        }
+        scanned.add(looked);
+      });
+      IntStream.range(0, tasks).parallel().forEach(t -> counts[t] = emit(blocks, t, size, depth, -1));
+      int total = prefixSums(tasks);
+      IntStream.range(0, tasks).parallel().forEach(t -> emit(blocks, t, size, depth, counts[t]));
+      for (int i = 0; i < total; i++)
+        reached[next[i] >>> 6] |= 1L << next[i];
+      return total;
+    }//end of topDownParallel() method
+
+    //the claims won by task t's routes, written to next[at..] unless 'at' is negative
+    private int emit(AdjacencyBlock[] blocks, int t, int size, int depth, int at)
+    {
+      int count = 0;
+      for (int r = t * CHUNK, last = Math.min(size, r + CHUNK); r < last; r++)
+      {
+        int x = frontier[r];
+        AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+        for (int i = block.first(x), first = i, end = block.end(x); i < end; i++)
+        {
+          int y = block.targets[i];
+          if (claim.get(y) != (((long) r << 32) | (i - first)))
+            continue;
+          if (at >= 0)
+          {
+            int position = at + count;
+            next[position] = y;
+            level[y] = depth + 1;
+            parent[y] = x;
+            claim.set(y, Long.MAX_VALUE);
+          }
+          count++;
+        }
+      }
+      return count;
+    }//end of emit() method
+
+    //every unreached city looks for a frontier city among its incoming routes
+    private int bottomUp(ReverseArcs arcs, int v, int depth, int size, boolean parents, boolean parallel)
+    {
+      int tasks = (((v + 63) >>> 6) + CHUNK_WORDS - 1) / CHUNK_WORDS;
+      for (int i = 0; i < size; i++)
+      {
+        inFrontier[frontier[i] >>> 6] |= 1L << frontier[i];
+        rank[frontier[i]] = i;
+      }
+      if (parallel)
+        IntStream.range(0, tasks).parallel().forEach(t -> counts[t] = adopt(arcs, v, t, parents));
+      else
+        for (int t = 0; t < tasks; t++)
+          counts[t] = adopt(arcs, v, t, parents);
+      int total = prefixSums(tasks);
+      if (parallel)
+        IntStream.range(0, tasks).parallel().forEach(t -> collect(v, t, depth, counts[t]));
+      else
+        for (int t = 0; t < tasks; t++)
+          collect(v, t, depth, counts[t]);
+      for (int i = 0; i < size; i++)
+        inFrontier[frontier[i] >>> 6] = 0;
+      if (parents)
+        order(arcs.blocks, depth, size, total);
+      return total;
+    }//end of bottomUp() method
+
+    //sets parent[y] of every unreached city y of task t: the frontier city of the smallest
+    //rank with a route to y (with parents) or the first one found, -1 if there is none
+    private int adopt(ReverseArcs arcs, int v, int t, boolean parents)
+    {
+      int count = 0;
+      long looked = 0;
+      for (int w = t * CHUNK_WORDS, last = Math.min((v + 63) >>> 6, w + CHUNK_WORDS); w < last; w++)
+      {
+        for (long open = ~reached[w]; open != 0; open &= open - 1)
+        {
+          int y = (w << 6) + Long.numberOfTrailingZeros(open);
+          if (y >= v)
+            break;
+          int best = -1;
+          for (int j = arcs.offsets[y], end = arcs.offsets[y + 1]; j < end; j++)
+          {
+            int x = arcs.sources[j];
+            looked++;
+            if ((inFrontier[x >>> 6] & (1L << x)) != 0 && (best < 0 || rank[x] < rank[best]))
+            {
+              best = x;
+              if (!parents)
+                break;
+            }
+          }
+          parent[y] = best;
+          if (best >= 0)
+            count++;
+        }
+      }
+      scanned.add(looked);
+      return count;
+    }//end of adopt() method
+
+    //writes the cities task t adopted to next[at..] and marks them reached in its own words
+    private void collect(int v, int t, int depth, int at)
+    {
+      for (int w = t * CHUNK_WORDS, last = Math.min((v + 63) >>> 6, w + CHUNK_WORDS); w < last; w++)
+      {
+        long found = 0;
+        for (long open = ~reached[w]; open != 0; open &= open - 1)
+        {
+          int y = (w << 6) + Long.numberOfTrailingZeros(open);
+          if (y >= v)
+            break;
+          if (parent[y] < 0)
+            continue;
+          found |= 1L << y;
+          level[y] = depth + 1;
+          rank[y] = -1;
+          next[at++] = y;
+        }
+        reached[w] |= found;
+      }
+    }//end of collect() method
+
+    //puts next[0..total) into queue order: by the rank of the parent, then by the position of
+    //the first route from the parent (parents with one new city need no look at their routes)
+    private void order(AdjacencyBlock[] blocks, int depth, int size, int total)
+    {
+      Arrays.fill(counts, 0, size + 1, 0);
+      for (int i = 0; i < total; i++)
+        counts[rank[parent[next[i]]] + 1]++;
+      for (int r = 0; r < size; r++)
+        counts[r + 1] += counts[r];
+      for (int i = 0; i < total; i++)
+        spare[counts[rank[parent[next[i]]]]++] = next[i]; // counts[r] is now the end of r's cities
+
+      for (int r = 0, from = 0; r < size; from = counts[r++])
+      {
+        if (counts[r] - from == 1)
+        {
+          next[from] = spare[from];
+          rank[next[from]] = from;
+        }
+        else if (counts[r] > from)
+        {
+          int x = frontier[r];
+          AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+          for (int i = block.first(x), at = from, end = block.end(x); i < end; i++)
+          {
+            int y = block.targets[i];
+            if (parent[y] == x && level[y] == depth + 1 && rank[y] < 0 && isReached(y))
+            {
+              next[at] = y;
+              rank[y] = at++;
+            }
+          }
+        }
+      }
+    }//end of order() method
+
+    //turns counts[0..tasks) into start positions; returns their total
+    private int prefixSums(int tasks)
+    {
+      int total = 0;
+      for (int t = 0; t < tasks; t++)
+      {
+        int count = counts[t];
+        counts[t] = total;
+        total += count;
+      }
+      return total;
+    }
+
+    private boolean isReached(int x)
+    {
+      return (reached[x >>> 6] & (1L << x)) != 0;
+    }
+
+    private void reach(int x, int hops, int from)
+    {
+      reached[x >>> 6] |= 1L << x;
+      level[x] = hops;
+      parent[x] = from;
+    }
+
+    //lowers claim[i] to 'key' unless it already holds a smaller one
+    private void lowerTo(AtomicLongArray claim, int i, long key)
+    {
+      long current;
+      while (key < (current = claim.get(i)) && !claim.compareAndSet(i, current, key))
+        ;
+    }
+
+    private void begin(int v)
+    {
+      if (level.length < v)
+      {
+        reached = new long[(v + 63) >>> 6];
+        inFrontier = new long[(v + 63) >>> 6];
+        level = new int[v];
+        parent = new int[v];
+        rank = new int[v];
+        frontier = new int[v];
+        next = new int[v];
+        spare = new int[v];
+        counts = new int[v + 1];
+        claim = new AtomicLongArray(v);
+        for (int x = 0; x < v; x++)
+          claim.set(x, Long.MAX_VALUE);
+      }
+      Arrays.fill(reached, 0, (v + 63) >>> 6, 0);
+    }
+
+  }//END OF PRIVATE CLASS LevelSearch
+
+
+
+  /**
+  *  A <tt>TripSink</tt> receives the trips found by Digraph.trips(). The
+  *  path array is reused by the search, so a sink that keeps a trip must
+  *  copy it. Parallel searches give every origin its own fork() and join()
+  *  the forks back in origin order.
+  */
+  private abstract static class TripSink
+  {
+    //path[0 .. length) are the cities of the trip in travel order
+    public abstract void trip(int[] path, int length, double price);
+
+    public abstract TripSink fork();
+
+    public abstract void join(TripSink part);
+
+  }//END OF PRIVATE CLASS TripSink
 
-    //depth first search --> used for superSaver() method (QUERIE #4)
-    public void dfs(int source, double budget)
-    {
-      marked = new boolean[this.v];
-      edgeTo = new int[this.v];
 
-      double totalCost = 0;
 
-      for (int i = 0; i < v; i++)
-      {
-        marked[i] = false;
-      }
+  //counts the trips and keeps nothing else
+  private static final class TripCount extends TripSink
+  {
+    private long count;
 
-      dfs(source, source, budget, totalCost, marked, edgeTo);
+    public void trip(int[] path, int length, double price)
+    {
+      count++;
+    }
 
-    }//end of dfs(source) method
+    public TripSink fork()
+    {
+      return new TripCount();
+    }
 
-    public void dfs(int source, int v, double budget, double tCost, boolean[] marked, int[] edgeTo)
+    public void join(TripSink part)
     {
-      marked[v] = true;
-      double totalCost = tCost;
+      count += ((TripCount) part).count;
+    }
 
+    public long count()
+    {
+      return count;
+    }
 
-      for (WeightedDirectedEdge w : adj(v))
-      {
-        edgeTo[w.to()] = v;
-        totalCost = tCost+w.cost();
-        
-        if(totalCost <= budget)
-        {
+  }//END OF PRIVATE CLASS TripCount
 
-           System.out.print("Price:$"+totalCost+" -- Path: "+cityNames[w.to()]+" ");
-          
-           int x = w.to();
-            
-                  
-           while(x!=v)
-           {
-            x = edgeTo[x];
-            System.out.print(cityNames[x]+" ");
-            //scan.nextLine();
-           }
-           
-           System.out.println();
-        }
 
-        if (!marked[w.to()]) 
-        {
-          //edgeTo[w.to()] = v;
-          dfs(source, w.to(), budget, totalCost, marked, edgeTo);
-        }
-      }//end of enhanced for loop
-    }//end of dfs(source, marked) method
 
-    //dijkstras used for shortestDistance() method in QUERIE 3a
-    public void dijkstras(int source, int destination) 
+  //one trip kept by CheapestTrips; 'order' is the position in which it was found from its origin
+  private static final class Trip
+  {
+    private final int[] stops;
+    private final double price;
+    private final long order;
+
+    public Trip(int[] stops, double price, long order)
     {
-      marked = new boolean[this.v];
-      distTo = new int[this.v];
-      edgeTo = new int[this.v];
+      this.stops = stops;
+      this.price = price;
+      this.order = order;
+    }
 
-      for (int i = 0; i < v; i++)
-      {
-        distTo[i] = INFINITY;
-        marked[i] = false;
-      }
+    //cheaper first, then by origin, then in search order
+    public static final Comparator<Trip> CHEAPEST = (a, b) ->
+    {
+      int c = Double.compare(a.price, b.price);
+      if (c == 0)
+        c = Integer.compare(a.stops[0], b.stops[0]);
+      return (c != 0) ? c : Long.compare(a.order, b.order);
+    };
+  }//END OF PRIVATE CLASS Trip
 
-      //'initializing' source vertex on graph
-      distTo[source] = 0;
-      marked[source] = true;
-      int nMarked = 1;
 
-      int current = source;
-      while (nMarked < this.v) 
-      {
-        for (WeightedDirectedEdge w : adj(current)) 
-        {
-          if (distTo[current]+w.weight() < distTo[w.to()]) 
-          {
-            distTo[w.to()] = distTo[current]+w.weight();
-            edgeTo[w.to()] = current;
-          }
-        }//end of for() loop
 
-        //Finding the unmarked vertex with the minimum value
-        int min = INFINITY;
-        current = -1;
+  //keeps the k cheapest trips in a max-heap; only trips that enter the heap are copied
+  private static final class CheapestTrips extends TripSink
+  {
+    private final int k;
+    private final PriorityQueue<Trip> heap;
+    private long found;
 
-        for(int i=0; i<distTo.length; i++)
-        {
-          if(marked[i])
-            continue;
-          if(distTo[i] < min)
-          {
-            min = distTo[i];
-            current = i;
-          }
-        }
+    public CheapestTrips(int k)
+    {
+      if (k < 1)
+        throw new IllegalArgumentException("need at least one trip, got " + k);
+      this.k = k;
+      this.heap = new PriorityQueue<Trip>(Math.min(k, 1024) + 1, Trip.CHEAPEST.reversed());
+    }
 
-      /* if current = -1 after traversing the for loop --> 
-         it means all nodes in the graph are marked and thus the search is complete --> 
-         so BREAK from the while loop */
-        if(current < 0)
-          break;
-        
-        marked[current] = true;
-        nMarked++;
-      }//end of while() loop
-    }//end of dijkstras() mehtod
+    public void trip(int[] path, int length, double price)
+    {
+      long order = found++;
+      if (heap.size() == k && price >= heap.peek().price)
+        return;
+      offer(new Trip(Arrays.copyOf(path, length), price, order));
+    }
 
-    //dijkstras used for shortestCost() method in QUERIE 3b
-    public void dijkstrasCost(int source, int destination) 
+    private void offer(Trip trip)
     {
-      marked = new boolean[this.v];
-      costTo = new double[this.v];
-      edgeTo = new int[this.v];
+      heap.add(trip);
+      if (heap.size() > k)
+        heap.poll();
+    }
 
+    public TripSink fork()
+    {
+      return new CheapestTrips(k);
+    }
 
-      for (int i = 0; i < v; i++)
+    public void join(TripSink part)
+    {
+      for (Trip trip : ((CheapestTrips) part).heap)
+        offer(trip);
+    }
+
+    public List<Trip> trips()
+    {
+      List<Trip> trips = new ArrayList<Trip>(heap);
+      trips.sort(Trip.CHEAPEST);
+      return trips;
+    }
+
+  }//END OF PRIVATE CLASS CheapestTrips
+
+
+
+  /**
+  *  The <tt>RouteIndex</tt> class is an open-addressing hash table from a
+  *  packed (from,to) route key to an int, with no boxing of keys or values.
+  *  Keys must be nonnegative; get() returns -1 for a missing key.
+  */
+  private class RouteIndex
+  {
+    private static final long EMPTY = -1L;
+    private long[] keys;
+    private int[] values;
+    private int n;
+    private int mask;
+
+    public RouteIndex(int expected)
+    {
+      int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+      keys = new long[capacity];
+      values = new int[capacity];
+      Arrays.fill(keys, EMPTY);
+      mask = capacity - 1;
+    }
+
+    public int get(long key)
+    {
+      for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask)
       {
-        costTo[i] = INFINITY;
-        marked[i] = false;
+        if (keys[i] == key)
+          return values[i];
       }
-      costTo[source] = 0;
-      marked[source] = true;
-      int nMarked = 1;
+      return -1;
+    }
 
-      int current = source;
-      while (nMarked < this.v) 
+    public void put(long key, int value)
+    {
+      int i = slot(key);
+      while (keys[i] != EMPTY && keys[i] != key)
+        i = (i + 1) & mask;
+      if (keys[i] == EMPTY)
       {
-        for (WeightedDirectedEdge w : adj(current)) 
-        {
-          if (costTo[current]+w.cost() < costTo[w.to()]) 
-          {
-            costTo[w.to()] = costTo[current]+w.cost();
-            edgeTo[w.to()] = current;
-          }
-        }//end of for() loop
-
-        //Find the vertex with minimim path distance
-        //This can be done more effiently using a priority queue!
-        double min = INFINITY;
-        current = -1;
-
-        for(int i=0; i<costTo.length; i++)
+        keys[i] = key;
+        if (++n * 2 > keys.length)
         {
-          if(marked[i])
-            continue;
-          if(costTo[i] < min)
-          {
-            min = costTo[i];
-            current = i;
-          }
+          values[i] = value;
+          grow();
+          return;
         }
+      }
+      values[i] = value;
+    }
 
-        // if current = -1 after traversing the for loop 
-        // it means all nodes in the graph are marked and thus the search is complete so BREAK from the while loop
-        if(current < 0)
-          break;
-        
-        marked[current] = true;
-        nMarked++;
-      }//end of while() loop
-    }//end of dijkstrasCost() mehtod
+    public void putIfAbsent(long key, int value)
+    {
+      if (get(key) < 0)
+        put(key, value);
+    }
 
-    public void kruskals()
+    //linear probing removal: shift later entries of the probe run back into the hole
+    public void remove(long key)
     {
-      ArrayList<WeightedDirectedEdge> allEdges = new ArrayList<WeightedDirectedEdge>();
-      ArrayList<WeightedDirectedEdge> mstEdges = new ArrayList<WeightedDirectedEdge>();
-      UF uf = new UF(v);
-      
-      for(int i = 0; i < v; i++)
+      int i = slot(key);
+      while (keys[i] != key)
+      {
+        if (keys[i] == EMPTY)
+          return;
+        i = (i + 1) & mask;
+      }
+      n--;
+      int hole = i;
+      for (i = (i + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask)
       {
-        for (WeightedDirectedEdge w : adj(i))
+        int home = slot(keys[i]);
+        //move the entry if its home slot is not between the hole and i (cyclically)
+        if (((i - home) & mask) >= ((i - hole) & mask))
         {
-          allEdges.add(w);
+          keys[hole] = keys[i];
+          values[hole] = values[i];
+          hole = i;
         }
-      }//end of for loop
+      }
+      keys[hole] = EMPTY;
+    }
 
-      //sort allEdges in by weight and in ascending order
-      Collections.sort(allEdges);
+    public int size()
+    {
+      return n;
+    }
 
-      for (WeightedDirectedEdge w : allEdges)
-      {
-          boolean cycle = uf.union( w.to(), w.from() );
+    private int slot(long key)
+    {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 32) & mask; // the high half is the best mixed, and wide enough for any table size
+    }
 
-          //add the edge to the MST if it doesn't form a cycle
-          if(!cycle )
-            mstEdges.add(w);
-      }
-     
-      System.out.println("The edges in MST graph along with their distances are as follows:");
-      for(WeightedDirectedEdge w : mstEdges)
+    private void grow()
+    {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new int[oldKeys.length * 2];
+      Arrays.fill(keys, EMPTY);
+      mask = keys.length - 1;
+      n = 0;
+      for (int i = 0; i < oldKeys.length; i++)
       {
-        System.out.println(cityNames[w.from()]+"-"+cityNames[w.to()]+": "+w.weight());
+        if (oldKeys[i] != EMPTY)
+          put(oldKeys[i], oldValues[i]);
       }
+    }
 
-    }//end of kruskals() method
-
-  }//END OF PRIVATE CLASS Digraph
+  }//END OF PRIVATE CLASS RouteIndex
 
 
 
@@ -848,6 +9121,85 @@ public class AirlineSystem
   }//END OF PRIVATE CLASS WeightedDirectedEdge
 
 
+  /**
+  *  The <tt>SpanningCandidates</tt> class lists the routes of a Digraph
+  *  that can be spanning tree edges, one per pair of cities where possible:
+  *  the route a --> b is dropped when b --> a is at most as long and would
+  *  be sorted before it, since it could only ever close a cycle. Candidate
+  *  c is sorted by the key (miles << 32 | c), and candidates are numbered
+  *  in city then adjacency order, so ties fall as in the original kruskals().
+  */
+  private class SpanningCandidates
+  {
+    private final int[] from;
+    private final int[] to;
+    private final int[] miles;
+    private final double[] cost;
+    private final int size;
+
+    //holds the graph's write lock while it reads the route index, so edits wait until the list is done
+    public SpanningCandidates(Digraph graph)
+    {
+      synchronized (graph.writeLock)
+      {
+        AdjacencyBlock[] blocks = graph.indexedBlocks();
+        int capacity = 0;
+        for (AdjacencyBlock block : blocks)
+          capacity += block.size();
+        from = new int[capacity];
+        to = new int[capacity];
+        miles = new int[capacity];
+        cost = new double[capacity];
+        RouteIndex index = graph.index();
+
+        int n = 0;
+        for (int x = 0; x < graph.v; x++)
+        {
+          AdjacencyBlock block = blocks[x >>> BLOCK_SHIFT];
+          for (int i = block.first(x), end = block.end(x); i < end; i++)
+          {
+            int y = block.targets[i];
+            if (y == x || mirrored(blocks, index, x, y, block.miles[i]))
+              continue;
+            from[n] = x;
+            to[n] = y;
+            miles[n] = block.miles[i];
+            cost[n] = block.cost[i];
+            n++;
+          }
+        }
+        size = n;
+      }
+    }
+
+    //true if the indexed route y --> x sorts before x --> y, which makes x --> y useless
+    private boolean mirrored(AdjacencyBlock[] blocks, RouteIndex index, int x, int y, int length)
+    {
+      int position = index.get(routeKey(y, x));
+      if (position < 0)
+        return false; // no reverse route
+      AdjacencyBlock block = blocks[y >>> BLOCK_SHIFT];
+      int at = block.first(y) + position;
+      return block.miles[at] < length || (block.miles[at] == length && y < x);
+    }
+
+    public long[] keys()
+    {
+      long[] keys = new long[size];
+      for (int c = 0; c < size; c++)
+        keys[c] = ((long) miles[c] << 32) | c;
+      return keys;
+    }
+
+    public WeightedDirectedEdge edge(int c)
+    {
+      return new WeightedDirectedEdge(from[c], to[c], miles[c], cost[c]);
+    }
+
+  }//END OF PRIVATE CLASS SpanningCandidates
+
+
+
   //UNION FIND CLASS - USED IN KRUSKALS
   //code adapted from hw 11
   private class UF
@@ -868,10 +9220,12 @@ public class AirlineSystem
       }
     }
 
+    //path halving: every other vertex on the way up is pointed at its grandparent
     public int find( int p) 
     {
       while (p != id[p])
       {
+        id[p] = id[id[p]];
         p = id[p];
       }    
       return p;
@@ -919,4 +9273,269 @@ public class AirlineSystem
 
   }//END OF PRIVATE CLASS UF
 
+
+  /**
+  *  The <tt>SearchScratch</tt> class holds one thread's working arrays for
+  *  graph searches. Instead of clearing the arrays before every search,
+  *  begin() moves to a new epoch, and a vertex counts as reached (dist[] and
+  *  edgeTo[] valid) or settled only if its stamp equals the current epoch.
+  */
+  private class SearchScratch
+  {
+    private int epoch;
+    private int[] reached = new int[0]; // reached[x] == epoch --> dist[x], edgeTo[x] are set
+    private int[] settled = new int[0]; // settled[x] == epoch --> x is done
+    private double[] dist = new double[0];
+    private int[] edgeTo = new int[0];  // previous vertex on the path to x
+    private int[] queue = new int[0];
+    private double[] potential = new double[0]; // A* potential of x, valid while x is reached
+    private IndexMinPQ heap = new IndexMinPQ(0);
+    private int settledCount;                    // vertices settled since begin()
+    private long settledBefore;                  // vertices settled or scanned by earlier searches, for QueryMetrics
+    private long relaxed;                        // routes looked at by all searches, for QueryMetrics
+
+    //starts a new search over a graph with v vertices
+    public void begin(int v)
+    {
+      if (reached.length < v)
+      {
+        int capacity = Math.max(v, reached.length + (reached.length >> 1));
+        reached = new int[capacity];
+        settled = new int[capacity];
+        dist = new double[capacity];
+        edgeTo = new int[capacity];
+        queue = new int[capacity];
+        potential = new double[capacity];
+        heap = new IndexMinPQ(capacity);
+        epoch = 0;
+      }
+      if (METRICS)
+        settledBefore += settledCount;
+      settledCount = 0;
+      if (++epoch == Integer.MAX_VALUE)
+      {
+        Arrays.fill(reached, 0);
+        Arrays.fill(settled, 0);
+        epoch = 1;
+      }
+    }
+
+    public boolean isReached(int x)
+    {
+      return reached[x] == epoch;
+    }
+
+    public boolean isSettled(int x)
+    {
+      return settled[x] == epoch;
+    }
+
+    public void reach(int x, double distance, int previous)
+    {
+      reached[x] = epoch;
+      dist[x] = distance;
+      edgeTo[x] = previous;
+    }
+
+    public void settle(int x)
+    {
+      settled[x] = epoch;
+      settledCount++;
+    }
+
+    public void unsettle(int x)
+    {
+      settled[x] = 0;
+    }
+
+    //vertices settled by all searches on this scratch so far
+    public long settledTotal()
+    {
+      return settledBefore + settledCount;
+    }
+
+    //copies the path source --> destination out of edgeTo[] into a Route
+    public Route route(int source, int destination, boolean found)
+    {
+      return found ? Route.trace(source, destination, dist, edgeTo) : Route.NONE;
+    }
+
+  }//END OF PRIVATE CLASS SearchScratch
+
+
+
+  /**
+  *  The <tt>Route</tt> class is the immutable answer of a path query: the
+  *  stops from source to destination, the miles, price or hops of the leg
+  *  ending at each stop, and the total.
+  */
+  private static final class Route
+  {
+    private static final Route NONE = new Route(new int[0], new double[0], 0);
+    private final int[] stops;
+    private final double[] legs;  // legs[i] = value of stops[i-1] --> stops[i], legs[0] = 0
+    private final double total;
+
+    public Route(int[] stops, double[] legs, double total)
+    {
+      this.stops = stops;
+      this.legs = legs;
+      this.total = total;
+    }
+
+    //follows edgeTo[] back from destination to source; the legs are differences of dist[]
+    public static Route trace(int source, int destination, double[] dist, int[] edgeTo)
+    {
+      int length = 1;
+      for (int x = destination; x != source; x = edgeTo[x])
+        length++;
+      int[] stops = new int[length];
+      double[] legs = new double[length];
+      for (int x = destination, i = length - 1; i >= 0; x = edgeTo[x], i--)
+      {
+        stops[i] = x;
+        if (i > 0)
+          legs[i] = dist[x] - dist[edgeTo[x]];
+      }
+      return new Route(stops, legs, dist[destination]);
+    }
+
+    //true if there is no route
+    public boolean isEmpty()
+    {
+      return stops.length == 0;
+    }
+
+    public int stops()
+    {
+      return stops.length;
+    }
+
+    public int stop(int i)
+    {
+      return stops[i];
+    }
+
+    public double leg(int i)
+    {
+      return legs[i];
+    }
+
+    public double total()
+    {
+      return total;
+    }
+
+  }//END OF PRIVATE CLASS Route
+
+
+
+  //INDEXED MIN PRIORITY QUEUE - USED IN DIJKSTRAS
+  //binary heap of vertex indices ordered by a primitive double key, with
+  //decreaseKey() so each vertex sits in the heap at most once
+  private class IndexMinPQ
+  {
+    private int n;         // number of elements on the heap
+    private int[] pq;      // binary heap using 1-based indexing
+    private int[] qp;      // inverse of pq --> qp[pq[i]] = pq[qp[i]] = i, -1 if absent
+    private double[] keys; // keys[i] = priority of i
+
+    public IndexMinPQ(int maxN)
+    {
+      n = 0;
+      pq = new int[maxN + 1];
+      qp = new int[maxN];
+      keys = new double[maxN];
+      Arrays.fill(qp, -1);
+    }
+
+    public boolean isEmpty()
+    {
+      return n == 0;
+    }
+
+    //the smallest key on the heap, +infinity if it is empty
+    public double minKey()
+    {
+      return (n == 0) ? Double.POSITIVE_INFINITY : keys[pq[1]];
+    }
+
+    public boolean contains(int i)
+    {
+      return qp[i] != -1;
+    }
+
+    public void insert(int i, double key)
+    {
+      n++;
+      qp[i] = n;
+      pq[n] = i;
+      keys[i] = key;
+      swim(n);
+    }
+
+    //empties the heap, touching only the elements still on it
+    public void clear()
+    {
+      for (int k = 1; k <= n; k++)
+        qp[pq[k]] = -1;
+      n = 0;
+    }
+
+    //lowers the key of an element already on the heap
+    public void decreaseKey(int i, double key)
+    {
+      keys[i] = key;
+      swim(qp[i]);
+    }
+
+    //removes the element with the smallest key and returns its index
+    public int delMin()
+    {
+      int min = pq[1];
+      exch(1, n--);
+      sink(1);
+      qp[min] = -1;
+      return min;
+    }
+
+    private void swim(int k)
+    {
+      while (k > 1 && greater(k/2, k))
+      {
+        exch(k, k/2);
+        k = k/2;
+      }
+    }
+
+    private void sink(int k)
+    {
+      while (2*k <= n)
+      {
+        int j = 2*k;
+        if (j < n && greater(j, j+1))
+          j++;
+        if (!greater(k, j))
+          break;
+        exch(k, j);
+        k = j;
+      }
+    }
+
+    private boolean greater(int i, int j)
+    {
+      return keys[pq[i]] > keys[pq[j]];
+    }
+
+    private void exch(int i, int j)
+    {
+      int swap = pq[i];
+      pq[i] = pq[j];
+      pq[j] = swap;
+      qp[pq[i]] = i;
+      qp[pq[j]] = j;
+    }
+
+  }//END OF PRIVATE CLASS IndexMinPQ
+
 }